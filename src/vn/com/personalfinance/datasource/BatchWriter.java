@@ -0,0 +1,159 @@
+package vn.com.personalfinance.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.Function;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.exceptions.DataSourceException;
+
+/**
+ * @overview 
+ * 	Stores many new objects of a domain class with one JDBC batch in one data source 
+ *  transaction, then adds them to the object pool of a {@link DOMBasic} without storing 
+ *  them again. It can delete such objects again, for when what follows the write fails.
+ *  
+ *  <p>The column of each attribute is named by the object store of the DOM, so the batch 
+ *  writes to the same table columns as the framework does.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class BatchWriter<T> {
+	private final DOMBasic dom;
+	private final Class<T> cls;
+	private final String sql;
+	private final Function<T, Object[]> row;
+	private final Function<T, Object> idOf;
+	private final String deleteSql;
+	
+	/**
+	 * @requires 
+	 *  <tt>attributes</tt> are the serialisable attributes of <tt>cls</tt> /\ 
+	 *  <tt>row</tt> returns the values of <tt>attributes</tt> of an object, in the same order, 
+	 *  with domain values replaced by their ids /\ 
+	 *  <tt>attributes[0]</tt> is the id attribute of <tt>cls</tt>
+	 * @effects 
+	 *  initialise this to write objects of <tt>cls</tt> through <tt>dom</tt> 
+	 */
+	public BatchWriter(DOMBasic dom, Class<T> cls, String[] attributes, Function<T, Object[]> row) {
+		this.dom = dom;
+		this.cls = cls;
+		this.row = row;
+		this.idOf = o -> row.apply(o)[0];
+		
+		StringBuilder cols = new StringBuilder();
+		StringBuilder params = new StringBuilder();
+		for (int i = 0; i < attributes.length; i++) {
+			if (i > 0) {
+				cols.append(", ");
+				params.append(", ");
+			}
+			cols.append(DataSourceToolKit.columnOf(dom, cls, attributes[i]));
+			params.append("?");
+		}
+		sql = "INSERT INTO " + DataSourceToolKit.table(cls.getSimpleName()) 
+			+ " (" + cols + ") VALUES (" + params + ")";
+		deleteSql = "DELETE FROM " + DataSourceToolKit.table(cls.getSimpleName()) 
+			+ " WHERE " + DataSourceToolKit.columnOf(dom, cls, attributes[0]) + " = ?";
+	}
+	
+	/**
+	 * @effects 
+	 *  store <tt>objects</tt> in one transaction and add them to the object pool; 
+	 *  if that fails, store none of them and throw DataSourceException
+	 */
+	public void write(Collection<T> objects) throws DataSourceException {
+		if (objects.isEmpty())
+			return;
+		
+		insert(objects);
+		List<T> pooled = new ArrayList<>(objects.size());
+		try {
+			for (T o : objects) {
+				dom.addObject(o, false);
+				pooled.add(o);
+			}
+		} catch (DataSourceException | RuntimeException e) {
+			try {
+				delete(pooled, objects);
+			} catch (DataSourceException | RuntimeException e2) {
+				e.addSuppressed(e2);
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * @requires <tt>objects</tt> were written by {@link #write(Collection)}
+	 * @effects 
+	 *  remove <tt>objects</tt> from the object pool and delete them from the data source;
+	 *  throws DataSourceException if that fails
+	 */
+	public void delete(Collection<T> objects) throws DataSourceException {
+		delete(objects, objects);
+	}
+	
+	/**
+	 * @requires <tt>pooled</tt> is a subset of <tt>objects</tt>
+	 * @effects 
+	 *  delete <tt>pooled</tt> through the object pool, and the rest of <tt>objects</tt> 
+	 *  directly from the data source
+	 */
+	private void delete(Collection<T> pooled, Collection<T> objects) throws DataSourceException {
+		for (T o : pooled) {
+			dom.deleteObject(o, cls);
+		}
+		
+		try (Connection conn = DataSourceToolKit.getConnection();
+				PreparedStatement stmt = conn.prepareStatement(deleteSql)) {
+			// rows already deleted through the pool are not found again
+			for (T o : objects) {
+				stmt.setObject(1, idOf.apply(o));
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		} catch (SQLException e) {
+			throw new DataSourceException(DataSourceException.Code.FAIL_TO_DELETE_OBJECT, e, 
+					cls.getSimpleName() + " x " + objects.size());
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  store <tt>objects</tt> in one transaction; 
+	 *  if that fails, store none of them and throw DataSourceException
+	 */
+	private void insert(Collection<T> objects) throws DataSourceException {
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			conn.setAutoCommit(false);
+			try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+				for (T o : objects) {
+					Object[] values = row.apply(o);
+					for (int i = 0; i < values.length; i++) {
+						stmt.setObject(i + 1, toSQLValue(values[i]));
+					}
+					stmt.addBatch();
+				}
+				stmt.executeBatch();
+				conn.commit();
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new DataSourceException(DataSourceException.Code.FAIL_TO_INSERT_OBJECT, e, 
+					cls.getSimpleName() + " x " + objects.size());
+		}
+	}
+	
+	private static Object toSQLValue(Object v) {
+		if (v instanceof java.util.Date && !(v instanceof java.sql.Date))
+			return new java.sql.Date(((java.util.Date) v).getTime());
+		return v;
+	}
+}
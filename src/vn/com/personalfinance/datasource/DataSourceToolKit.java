@@ -0,0 +1,97 @@
+package vn.com.personalfinance.datasource;
+
+import java.lang.reflect.Field;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.osm.OSM;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMBasic;
+import domainapp.basics.core.dodm.osm.relational.RelationalOSMToolkit;
+
+/**
+ * @overview 
+ * 	Gives direct JDBC access to the Derby data source that the software's object store uses.
+ * 	It is for the work that the framework's object queries cannot do well, such as 
+ *  batches, aggregates and auxiliary tables.
+ *  
+ *  <p>The data source URL is read from the system property <tt>personalfinance.datasource.url</tt>
+ *  and defaults to the embedded database of the software.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class DataSourceToolKit {
+	/** the schema of all domain classes */
+	public static final String SCHEMA = "personalfinancemanager";
+	
+	private static final String DEFAULT_URL = "jdbc:derby:data/domainds";
+	
+	// Derby SQL state: the object to create already exists
+	private static final String SQLSTATE_EXISTS = "X0Y32";
+	
+	private DataSourceToolKit() {
+		// no instances
+	}
+	
+	/**
+	 * @effects return the URL of the data source
+	 */
+	public static String getURL() {
+		return System.getProperty("personalfinance.datasource.url", DEFAULT_URL);
+	}
+	
+	/**
+	 * @effects 
+	 *  open and return a new connection to the data source; 
+	 *  throws SQLException if it cannot be opened
+	 */
+	public static Connection getConnection() throws SQLException {
+		return DriverManager.getConnection(getURL());
+	}
+	
+	/**
+	 * @effects return the qualified name of the table <tt>name</tt> in {@link #SCHEMA}
+	 */
+	public static String table(String name) {
+		return SCHEMA + "." + name;
+	}
+	
+	/**
+	 * @effects 
+	 *  execute the DDL statement <tt>ddl</tt> on <tt>conn</tt>, ignoring the error raised 
+	 *  if the object it creates already exists; return true if the object was created
+	 */
+	public static boolean createIfNotExists(Connection conn, String ddl) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.executeUpdate(ddl);
+			return true;
+		} catch (SQLException e) {
+			if (!SQLSTATE_EXISTS.equals(e.getSQLState()))
+				throw e;
+			return false;
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  return the table column of the attribute <tt>attribute</tt> of <tt>cls</tt>, as named 
+	 *  by the object store of <tt>dom</tt>
+	 */
+	public static String columnOf(DOMBasic dom, Class<?> cls, String attribute) {
+		OSM osm = dom.getOsm();
+		if (osm instanceof RelationalOSMBasic) {
+			for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+				try {
+					Field f = c.getDeclaredField(attribute);
+					return RelationalOSMToolkit.getColumName((RelationalOSMBasic) osm, cls, f, null);
+				} catch (NoSuchFieldException e) {
+					// try the super class
+				}
+			}
+		}
+		return attribute;
+	}
+}
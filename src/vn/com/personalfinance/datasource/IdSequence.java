@@ -0,0 +1,164 @@
+package vn.com.personalfinance.datasource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import domainapp.basics.exceptions.NotPossibleException;
+
+/**
+ * @overview 
+ * 	A thread-safe generator of the numbers used in the ids of a domain class. 
+ * 	It reserves blocks of numbers from the sequence table <tt>IdSequence</tt> in the 
+ *  data source (the hi/lo method) and hands them out with lock-free atomic increments, 
+ *  so that only one data source round trip is needed per block.
+ *  
+ *  <p>The numbers of a block that are not handed out before the software exits are lost. 
+ *  Sequences whose ids have few digits should therefore use smaller blocks.
+ *  
+ *  <p>Numbers are only handed out from blocks reserved in the data source: if a block 
+ *  cannot be reserved, {@link #next()} fails rather than risk handing out numbers that are in use.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class IdSequence {
+	private static final int BLOCK_SIZE = Integer.getInteger("personalfinance.id.blockSize", 50);
+	
+	private static final String TABLE = DataSourceToolKit.table("IdSequence");
+	
+	private final String name;
+	private final long floor;
+	private final int blockSize;
+	
+	// the next number to hand out, and the end (exclusive) of the reserved block
+	private final AtomicLong next;
+	private volatile long limit;
+	
+	/**
+	 * @requires blockSize > 0
+	 * @effects 
+	 *  initialise this as the sequence <tt>name</tt> whose numbers are at least <tt>floor</tt>,
+	 *  and that reserves <tt>blockSize</tt> numbers at a time 
+	 */
+	public IdSequence(String name, long floor, int blockSize) {
+		this.name = name;
+		this.floor = floor;
+		this.blockSize = blockSize;
+		next = new AtomicLong(floor);
+		limit = floor;
+	}
+	
+	public IdSequence(String name, long floor) {
+		this(name, floor, BLOCK_SIZE);
+	}
+	
+	public IdSequence(String name) {
+		this(name, 1);
+	}
+	
+	/**
+	 * @effects return the next number of this sequence; 
+	 *  throws NotPossibleException if a block of numbers cannot be reserved in the data source
+	 */
+	public long next() throws NotPossibleException {
+		while (true) {
+			long n = next.get();
+			if (n < limit) {
+				if (next.compareAndSet(n, n + 1))
+					return n;
+			} else {
+				reserveBlock();
+			}
+		}
+	}
+	
+	/**
+	 * @effects return the next number of this sequence as an int;
+	 *  throws ArithmeticException if it does not fit, 
+	 *  NotPossibleException if a block of numbers cannot be reserved in the data source
+	 */
+	public int nextInt() throws NotPossibleException {
+		return Math.toIntExact(next());
+	}
+	
+	/**
+	 * @effects 
+	 *  make sure that all numbers handed out from now on are greater than <tt>used</tt>, 
+	 *  a number that is already in use (e.g. read from the data source) 
+	 */
+	public synchronized void seed(long used) {
+		long n;
+		do {
+			n = next.get();
+			if (n > used)
+				return;
+		} while (!next.compareAndSet(n, used + 1));
+	}
+	
+	private synchronized void reserveBlock() throws NotPossibleException {
+		// another thread may have reserved a block already
+		long from = next.get();
+		if (from < limit)
+			return;
+		
+		long start;
+		try {
+			start = reserveFromDataSource(Math.max(from, floor));
+		} catch (SQLException e) {
+			throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, 
+					"IdSequence." + name);
+		}
+		// publish next before limit so that no thread can take a number outside the block
+		next.set(start);
+		limit = start + blockSize;
+	}
+	
+	/**
+	 * @effects 
+	 *  reserve in the sequence table a block of {@link #blockSize} numbers that start at 
+	 *  <tt>min</tt> or later, and return its start 
+	 */
+	private long reserveFromDataSource(long min) throws SQLException {
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			DataSourceToolKit.createIfNotExists(conn, "CREATE TABLE " + TABLE 
+					+ " (name VARCHAR(64) NOT NULL PRIMARY KEY, nextVal BIGINT NOT NULL)");
+			conn.setAutoCommit(false);
+			conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+			try {
+				long start;
+				try (PreparedStatement select = conn.prepareStatement(
+						"SELECT nextVal FROM " + TABLE + " WHERE name = ? FOR UPDATE OF nextVal")) {
+					select.setString(1, name);
+					try (ResultSet rs = select.executeQuery()) {
+						start = rs.next() ? Math.max(rs.getLong(1), min) : -1;
+					}
+				}
+				
+				if (start < 0) {
+					start = min;
+					try (PreparedStatement insert = conn.prepareStatement(
+							"INSERT INTO " + TABLE + " (name, nextVal) VALUES (?, ?)")) {
+						insert.setString(1, name);
+						insert.setLong(2, start + blockSize);
+						insert.executeUpdate();
+					}
+				} else {
+					try (PreparedStatement update = conn.prepareStatement(
+							"UPDATE " + TABLE + " SET nextVal = ? WHERE name = ?")) {
+						update.setLong(1, start + blockSize);
+						update.setString(2, name);
+						update.executeUpdate();
+					}
+				}
+				conn.commit();
+				return start;
+			} catch (SQLException e) {
+				conn.rollback();
+				throw e;
+			}
+		}
+	}
+}
@@ -0,0 +1,701 @@
+package vn.com.personalfinance.datasource;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractCollection;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.model.query.Query;
+import domainapp.basics.model.query.QueryToolKit;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	A parameterised object query of a domain class, whose SQL is built once per {@link DSMBasic}
+ *  and prepared once, and whose parameters are bound on each execution. Derby thus compiles
+ *  the statement once instead of on every report refresh.
+ *
+ *  <p>The statement of an object template reads the ids and the numeric keys of the matching
+ *  objects. The objects already in the object pool are taken from it; the others, and only
+ *  they, are retrieved through the object store with <tt>key IN (...)</tt> queries of at most
+ *  {@link #FETCH_SIZE} keys each.
+ *
+ *  <p>The statement of a window template reads the stored attributes of the objects a window
+ *  at a time, in key order, through a forward-only cursor; {@link #stream(int, Object...)}
+ *  builds transient objects from the rows with the data source constructor of the class, 
+ *  outside the object pool, and iterates over them without keeping more than one window of 
+ *  them, nor any cursor between two windows.
+ *
+ *  <p>The statement of a top template reads the ids and the keys of the first <tt>n</tt>
+ *  matching objects in descending order of a rank attribute, with <tt>FETCH FIRST n ROWS ONLY</tt>,
+ *  so that Derby stops reading an index on the rank once it has found them;
+ *  {@link #executeTop(int, Object...)} returns them in that order.
+ *
+ *  <p>The statement of a totals template computes <tt>SUM</tt> and <tt>COUNT</tt> of the
+ *  matching rows in the data source, optionally <tt>GROUP BY</tt> an attribute, without
+ *  creating any objects.
+ *
+ *  <p>Each execution takes a connection of its own from a pool of the DSM, so that templates
+ *  can be executed concurrently; the statements stay prepared on the pooled connections.
+ *  At most {@link #MAX_IDLE} idle connections are kept per DSM, given by the system property
+ *  <tt>personalfinance.query.connections</tt> (default: 4). The number of rows of a window is
+ *  {@link #FETCH_SIZE}, given by the system property <tt>personalfinance.query.fetch</tt>
+ *  (default: 256).
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class QueryTemplate<T> {
+	public static final int MAX_IDLE = Integer.getInteger("personalfinance.query.connections", 4);
+	public static final int FETCH_SIZE = Integer.getInteger("personalfinance.query.fetch", 256);
+
+	// the templates, by DSM and name; guarded by the class
+	private static final Map<DSMBasic, Map<String, QueryTemplate<?>>> registry = new WeakHashMap<>();
+	// the idle sessions of each DSM; guarded by the class
+	private static final Map<DSMBasic, Deque<Session>> idle = new WeakHashMap<>();
+
+	private final DOMBasic dom;
+	private final Class<T> cls;
+	private final String keyAttrib;
+	private final boolean intKey;
+	private final String sql;
+
+	// the data source constructor and the stored attributes, in the order of its parameters and
+	// of the columns of the statement, of a window template; null for the other templates
+	private final Constructor<T> rowConstructor;
+	private final Field[] rowAttribs;
+	// the column of the key among the rowAttribs
+	private final int rowKey;
+
+	/**
+	 * @overview a connection and the statements of the templates prepared on it
+	 */
+	private static final class Session {
+		final Connection conn;
+		final Map<QueryTemplate<?>, PreparedStatement> stmts = new HashMap<>();
+
+		Session(Connection conn) {
+			this.conn = conn;
+		}
+
+		void close() {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				// ignore: it is being discarded
+			}
+		}
+	}
+
+	private QueryTemplate(DOMBasic dom, Class<T> cls, String keyAttrib, boolean intKey, String sql) {
+		this(dom, cls, keyAttrib, intKey, sql, null, null);
+	}
+
+	private QueryTemplate(DOMBasic dom, Class<T> cls, String keyAttrib, boolean intKey, String sql,
+			Constructor<T> rowConstructor, Field[] rowAttribs) {
+		this.dom = dom;
+		this.cls = cls;
+		this.keyAttrib = keyAttrib;
+		this.intKey = intKey;
+		this.sql = sql;
+		this.rowConstructor = rowConstructor;
+		this.rowAttribs = rowAttribs;
+		int key = -1;
+		for (int i = 0; rowAttribs != null && i < rowAttribs.length; i++) {
+			if (rowAttribs[i].getName().equals(keyAttrib))
+				key = i;
+		}
+		this.rowKey = key;
+	}
+
+	/**
+	 * @requires
+	 *  <tt>idAttrib</tt> is the id attribute of <tt>cls</tt> /\
+	 *  <tt>keyAttrib</tt> is a numeric attribute of <tt>cls</tt> that identifies its objects,
+	 *  an Integer if <tt>intKey</tt> and a Long otherwise (it may be <tt>idAttrib</tt>)
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the objects of <tt>cls</tt> whose attribute <tt>attrib</tt>
+	 *  equals the parameter
+	 */
+	public static <T> QueryTemplate<T> search(DOMBasic dom, String name, Class<T> cls,
+			String idAttrib, String keyAttrib, boolean intKey, String attrib) {
+		return lookUp(dom, name, () -> new QueryTemplate<>(dom, cls, keyAttrib, intKey,
+				select(dom, cls, idAttrib, keyAttrib) + whereEquals(dom, cls, attrib)));
+	}
+
+	/**
+	 * @requires
+	 *  as {@link #search(DOMBasic, String, Class, String, String, boolean, String)} /\
+	 *  <tt>assocAttrib</tt> is a domain attribute of <tt>cls</tt> of type <tt>joinCls</tt>,
+	 *  whose id attribute is <tt>joinIdAttrib</tt>
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the objects of <tt>cls</tt> whose associate of <tt>assocAttrib</tt>
+	 *  has an attribute <tt>joinAttrib</tt> matching the parameter, a LIKE pattern
+	 */
+	public static <T> QueryTemplate<T> join(DOMBasic dom, String name, Class<T> cls,
+			String idAttrib, String keyAttrib, boolean intKey, String assocAttrib,
+			Class<?> joinCls, String joinIdAttrib, String joinAttrib) {
+		return lookUp(dom, name, () -> new QueryTemplate<>(dom, cls, keyAttrib, intKey,
+				select(dom, cls, idAttrib, keyAttrib) 
+				+ whereLike(dom, cls, assocAttrib, joinCls, joinIdAttrib, joinAttrib)));
+	}
+
+	/**
+	 * @requires as {@link #search(DOMBasic, String, Class, String, String, boolean, String)}
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the objects of <tt>cls</tt> whose attribute <tt>attrib</tt> is
+	 *  between the first and the second parameter (inclusive)
+	 */
+	public static <T> QueryTemplate<T> searchRange(DOMBasic dom, String name, Class<T> cls,
+			String idAttrib, String keyAttrib, boolean intKey, String attrib) {
+		return lookUp(dom, name, () -> new QueryTemplate<>(dom, cls, keyAttrib, intKey,
+				select(dom, cls, idAttrib, keyAttrib) + whereBetween(dom, cls, attrib)));
+	}
+
+	/**
+	 * @requires
+	 *  <tt>keyAttrib</tt> is as for {@link #search(DOMBasic, String, Class, String, String, boolean, String)} /\
+	 *  the data source constructor of <tt>cls</tt> takes the stored attributes of <tt>cls</tt>, 
+	 *  in the order they are declared
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the objects of <tt>cls</tt> whose attribute <tt>attrib</tt> equals 
+	 *  the first parameter and whose key is greater than the second, in key order; to be executed 
+	 *  with {@link #stream(int, Object...)}
+	 */
+	public static <T> QueryTemplate<T> searchWindow(DOMBasic dom, String name, Class<T> cls,
+			String keyAttrib, boolean intKey, String attrib) {
+		return lookUp(dom, name, () -> {
+			Field[] attribs = storedAttributes(cls);
+			StringBuilder sql = new StringBuilder("SELECT ");
+			for (int i = 0; i < attribs.length; i++) {
+				sql.append((i > 0) ? ", " : "").append(column(dom, cls, attribs[i].getName()));
+			}
+			sql.append(" FROM ").append(DataSourceToolKit.table(cls.getSimpleName())).append(" t")
+					.append(whereEquals(dom, cls, attrib))
+					.append(" AND ").append(column(dom, cls, keyAttrib)).append(" > ?")
+					.append(" ORDER BY ").append(column(dom, cls, keyAttrib));
+			return new QueryTemplate<>(dom, cls, keyAttrib, intKey, sql.toString(),
+					dataSourceConstructor(cls, attribs.length), attribs);
+		});
+	}
+
+	/**
+	 * @requires
+	 *  as {@link #search(DOMBasic, String, Class, String, String, boolean, String)} /\
+	 *  <tt>rankAttrib</tt> is a numeric attribute of <tt>cls</tt>
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the objects of <tt>cls</tt> whose attribute <tt>rangeAttrib</tt> is
+	 *  between the first and the second parameter (inclusive) and each of whose attributes
+	 *  <tt>attribs</tt> equals the next parameter, in descending order of <tt>rankAttrib</tt>;
+	 *  to be executed with {@link #executeTop(int, Object...)}
+	 */
+	public static <T> QueryTemplate<T> searchTop(DOMBasic dom, String name, Class<T> cls,
+			String idAttrib, String keyAttrib, boolean intKey, String rankAttrib, String rangeAttrib,
+			String... attribs) {
+		return lookUp(dom, name, () -> {
+			StringBuilder sql = new StringBuilder(select(dom, cls, idAttrib, keyAttrib))
+					.append(whereBetween(dom, cls, rangeAttrib));
+			for (String attrib : attribs) {
+				sql.append(" AND ").append(column(dom, cls, attrib)).append(" = ?");
+			}
+			sql.append(" ORDER BY ").append(column(dom, cls, rankAttrib)).append(" DESC, ")
+					.append(column(dom, cls, keyAttrib))
+					.append(" FETCH FIRST ? ROWS ONLY");
+			return new QueryTemplate<>(dom, cls, keyAttrib, intKey, sql.toString());
+		});
+	}
+
+	/**
+	 * @requires
+	 *  <tt>amount</tt> is an SQL expression of a whole number over the columns of 
+	 *  <tt>cls</tt>, such as {@link #minorUnits(DOMBasic, Class, String)} /\
+	 *  <tt>groupAttrib</tt> is an attribute of <tt>cls</tt>, or null
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the total of <tt>amount</tt> and the number of the objects of 
+	 *  <tt>cls</tt> whose attribute <tt>attrib</tt> equals the parameter, by the value of 
+	 *  <tt>groupAttrib</tt> if it is not null
+	 */
+	public static <T> QueryTemplate<T> searchTotals(DOMBasic dom, String name, Class<T> cls,
+			String amount, String groupAttrib, String attrib) {
+		return lookUp(dom, name, () -> new QueryTemplate<>(dom, cls, null, false,
+				selectTotals(dom, cls, amount, groupAttrib) + whereEquals(dom, cls, attrib) 
+				+ groupBy(dom, cls, groupAttrib)));
+	}
+
+	/**
+	 * @requires as {@link #searchTotals(DOMBasic, String, Class, String, String, String)}
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the total of <tt>amount</tt> and the number of the objects of 
+	 *  <tt>cls</tt> whose attribute <tt>attrib</tt> is between the first and the second 
+	 *  parameter (inclusive), by the value of <tt>groupAttrib</tt> if it is not null
+	 */
+	public static <T> QueryTemplate<T> searchRangeTotals(DOMBasic dom, String name, Class<T> cls,
+			String amount, String groupAttrib, String attrib) {
+		return lookUp(dom, name, () -> new QueryTemplate<>(dom, cls, null, false,
+				selectTotals(dom, cls, amount, groupAttrib) + whereBetween(dom, cls, attrib) 
+				+ groupBy(dom, cls, groupAttrib)));
+	}
+
+	/**
+	 * @requires
+	 *  as {@link #searchTotals(DOMBasic, String, Class, String, String, String)} /\
+	 *  <tt>assocAttrib</tt> is a domain attribute of <tt>cls</tt> of type <tt>joinCls</tt>,
+	 *  whose id attribute is <tt>joinIdAttrib</tt>
+	 * @effects
+	 *  return the template <tt>name</tt> of the DSM of <tt>dom</tt>, creating it if it does not
+	 *  exist as the query of the total of <tt>amount</tt> and the number of the objects of 
+	 *  <tt>cls</tt> whose associate of <tt>assocAttrib</tt> has an attribute <tt>joinAttrib</tt> 
+	 *  matching the parameter, a LIKE pattern, by the value of <tt>groupAttrib</tt> if it is 
+	 *  not null
+	 */
+	public static <T> QueryTemplate<T> joinTotals(DOMBasic dom, String name, Class<T> cls,
+			String amount, String groupAttrib, String assocAttrib,
+			Class<?> joinCls, String joinIdAttrib, String joinAttrib) {
+		return lookUp(dom, name, () -> new QueryTemplate<>(dom, cls, null, false,
+				selectTotals(dom, cls, amount, groupAttrib)
+				+ whereLike(dom, cls, assocAttrib, joinCls, joinIdAttrib, joinAttrib)
+				+ groupBy(dom, cls, groupAttrib)));
+	}
+
+	/**
+	 * @effects return the SQL expression of the column of the attribute <tt>attrib</tt> of 
+	 *  <tt>cls</tt>, in the statements of the templates of <tt>cls</tt>
+	 */
+	public static String column(DOMBasic dom, Class<?> cls, String attrib) {
+		return "t." + DataSourceToolKit.columnOf(dom, cls, attrib);
+	}
+
+	/**
+	 * @effects return the SQL expression of the Double attribute <tt>attrib</tt> of <tt>cls</tt>
+	 *  in minor units, rounded as by {@link Money#toMinor(double)}
+	 */
+	public static String minorUnits(DOMBasic dom, Class<?> cls, String attrib) {
+		return minorUnits(column(dom, cls, attrib));
+	}
+
+	/**
+	 * @effects return the SQL expression of the DOUBLE expression <tt>major</tt> in minor 
+	 *  units, rounded as by {@link Money#toMinor(double)}
+	 */
+	public static String minorUnits(String major) {
+		// Math.round(x) is floor(x + 0.5)
+		return "FLOOR(" + major + " * " + Money.SCALE + "E0 + 0.5)";
+	}
+
+	private static String select(DOMBasic dom, Class<?> cls, String idAttrib, String keyAttrib) {
+		return "SELECT " + column(dom, cls, idAttrib) + ", " + column(dom, cls, keyAttrib)
+			+ " FROM " + DataSourceToolKit.table(cls.getSimpleName()) + " t";
+	}
+
+	private static String selectTotals(DOMBasic dom, Class<?> cls, String amount, String groupAttrib) {
+		return "SELECT " + ((groupAttrib != null) ? column(dom, cls, groupAttrib) : "0")
+			+ ", SUM(BIGINT(" + amount + ")), COUNT(*)"
+			+ " FROM " + DataSourceToolKit.table(cls.getSimpleName()) + " t";
+	}
+
+	private static String whereEquals(DOMBasic dom, Class<?> cls, String attrib) {
+		return " WHERE " + column(dom, cls, attrib) + " = ?";
+	}
+
+	private static String whereBetween(DOMBasic dom, Class<?> cls, String attrib) {
+		return " WHERE " + column(dom, cls, attrib) + " BETWEEN ? AND ?";
+	}
+
+	private static String whereLike(DOMBasic dom, Class<?> cls, String assocAttrib,
+			Class<?> joinCls, String joinIdAttrib, String joinAttrib) {
+		return " JOIN " + DataSourceToolKit.table(joinCls.getSimpleName()) + " j"
+			+ " ON " + column(dom, cls, assocAttrib)
+			+ " = j." + DataSourceToolKit.columnOf(dom, joinCls, joinIdAttrib)
+			+ " WHERE j." + DataSourceToolKit.columnOf(dom, joinCls, joinAttrib) + " LIKE ?";
+	}
+
+	private static String groupBy(DOMBasic dom, Class<?> cls, String groupAttrib) {
+		return (groupAttrib != null) ? " GROUP BY " + column(dom, cls, groupAttrib) : "";
+	}
+
+	private interface Builder<T> {
+		QueryTemplate<T> build();
+	}
+
+	@SuppressWarnings("unchecked")
+	private static synchronized <T> QueryTemplate<T> lookUp(DOMBasic dom, String name, Builder<T> builder) {
+		Map<String, QueryTemplate<?>> templates = registry.computeIfAbsent(dom.getDsm(), d -> new HashMap<>());
+		QueryTemplate<T> t = (QueryTemplate<T>) templates.get(name);
+		if (t == null) {
+			t = builder.build();
+			templates.put(name, t);
+		}
+		return t;
+	}
+
+	/**
+	 * @requires this is an object template
+	 * @effects
+	 *  return the objects that match <tt>params</tt>, in key order;
+	 *  throws DataSourceException if fails to read from the data source
+	 */
+	public List<T> execute(Object... params) throws DataSourceException {
+		SortedMap<Long, Object> ids = query(params, 0, rs -> {
+			SortedMap<Long, Object> found = new TreeMap<>();
+			while (rs.next()) {
+				found.put(rs.getLong(2), rs.getObject(1));
+			}
+			return found;
+		});
+		return resolve(ids);
+	}
+
+	/**
+	 * @requires this is a top template /\ <tt>n</tt> &gt; 0
+	 * @effects
+	 *  return the first <tt>n</tt> objects that match <tt>params</tt>, in descending order of
+	 *  the rank attribute, reading no more than <tt>n</tt> rows and retrieving only those of 
+	 *  the <tt>n</tt> objects that are not pooled yet;
+	 *  throws DataSourceException if fails to read from the data source
+	 */
+	public List<T> executeTop(int n, Object... params) throws DataSourceException {
+		Object[] p = Arrays.copyOf(params, params.length + 1);
+		p[params.length] = n;
+		Map<Long, Object> ids = query(p, n, rs -> {
+			Map<Long, Object> found = new LinkedHashMap<>();
+			while (rs.next()) {
+				found.put(rs.getLong(2), rs.getObject(1));
+			}
+			return found;
+		});
+		return resolve(ids);
+	}
+
+	/**
+	 * @requires this is a totals template
+	 * @effects
+	 *  return the totals of the objects that match <tt>params</tt>, by the value of the group
+	 *  attribute, each as <tt>{amount, number}</tt>;
+	 *  throws DataSourceException if fails to read from the data source
+	 */
+	public Map<Object, long[]> executeTotals(Object... params) throws DataSourceException {
+		return query(params, 0, rs -> {
+			Map<Object, long[]> totals = new HashMap<>();
+			while (rs.next()) {
+				if (rs.getLong(3) > 0)
+					totals.put(rs.getObject(1), new long[] { rs.getLong(2), rs.getLong(3) });
+			}
+			return totals;
+		});
+	}
+
+	/**
+	 * @requires this is a totals template
+	 * @effects
+	 *  return the total of the objects that match <tt>params</tt>, over all groups, as
+	 *  <tt>{amount, number}</tt>;
+	 *  throws DataSourceException if fails to read from the data source
+	 */
+	public long[] executeTotal(Object... params) throws DataSourceException {
+		long[] total = new long[2];
+		for (long[] t : executeTotals(params).values()) {
+			total[0] += t[0];
+			total[1] += t[1];
+		}
+		return total;
+	}
+
+	/**
+	 * @requires this is a window template
+	 * @effects
+	 *  return a read-only collection of the <tt>size</tt> objects that match <tt>params</tt>, 
+	 *  the parameters of the template but the last, that reads them from the data source a window 
+	 *  of {@link #FETCH_SIZE} objects at a time, in key order, each time it is iterated. 
+	 *  The objects are transient copies, that are not put in the object pool: a window is 
+	 *  garbage once it has been iterated over.
+	 *
+	 *  <p>The iterators throw NotPossibleException if they fail to read from the data source.
+	 */
+	public Collection<T> stream(int size, Object... params) {
+		final Object[] windowParams = Arrays.copyOf(params, params.length + 1);
+		return new AbstractCollection<T>() {
+			@Override
+			public int size() {
+				return size;
+			}
+
+			@Override
+			public Iterator<T> iterator() {
+				return new Iterator<T>() {
+					private Iterator<T> window = Collections.emptyIterator();
+					private long lastKey = intKey ? Integer.MIN_VALUE : Long.MIN_VALUE;
+					private boolean more = true;
+
+					@Override
+					public boolean hasNext() {
+						while (!window.hasNext() && more) {
+							window = nextWindow();
+						}
+						return window.hasNext();
+					}
+
+					@Override
+					public T next() {
+						if (!hasNext())
+							throw new NoSuchElementException();
+						return window.next();
+					}
+
+					/**
+					 * @effects read the next window of objects, after lastKey
+					 */
+					private Iterator<T> nextWindow() {
+						Object[] p = windowParams.clone();
+						p[p.length - 1] = intKey ? (Object) (int) lastKey : (Object) lastKey;
+						try {
+							List<Object[]> rows = query(p, FETCH_SIZE, rs -> {
+								List<Object[]> found = new ArrayList<>();
+								while (rs.next()) {
+									Object[] row = new Object[rowAttribs.length];
+									for (int i = 0; i < row.length; i++) {
+										row[i] = rs.getObject(i + 1);
+									}
+									found.add(row);
+								}
+								return found;
+							});
+							more = rows.size() == FETCH_SIZE;
+							if (rows.isEmpty())
+								return Collections.emptyIterator();
+							lastKey = ((Number) rows.get(rows.size() - 1)[rowKey]).longValue();
+							return build(rows).iterator();
+						} catch (DataSourceException e) {
+							more = false;
+							throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e,
+									cls.getSimpleName());
+						}
+					}
+				};
+			}
+		};
+	}
+
+	private interface ResultReader<R> {
+		R read(ResultSet rs) throws SQLException;
+	}
+
+	/**
+	 * @effects 
+	 *  execute the statement of this with <tt>params</tt> on a pooled connection and return 
+	 *  what <tt>reader</tt> reads from its result, through a forward-only cursor of at most
+	 *  <tt>maxRows</tt> rows (0: no limit);
+	 *  throws DataSourceException if fails to read from the data source
+	 */
+	private <R> R query(Object[] params, int maxRows, ResultReader<R> reader) throws DataSourceException {
+		DSMBasic dsm = dom.getDsm();
+		Session session = null;
+		try {
+			session = borrow(dsm);
+			PreparedStatement stmt = session.stmts.get(this);
+			if (stmt == null) {
+				stmt = session.conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				session.stmts.put(this, stmt);
+			}
+			stmt.setMaxRows(maxRows);
+			stmt.setFetchSize((maxRows > 0) ? maxRows : FETCH_SIZE);
+			for (int i = 0; i < params.length; i++) {
+				stmt.setObject(i + 1, params[i]);
+			}
+			R result;
+			try (ResultSet rs = stmt.executeQuery()) {
+				result = reader.read(rs);
+			}
+			release(dsm, session);
+			return result;
+		} catch (SQLException e) {
+			// the connection may be broken: do not reuse it
+			if (session != null)
+				session.close();
+			throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e, sql);
+		}
+	}
+
+	/**
+	 * @effects return the objects whose ids are the values of <tt>ids</tt>, in the order of
+	 *  <tt>ids</tt>
+	 */
+	private List<T> resolve(Map<Long, Object> ids) throws DataSourceException {
+		// the object pool is not thread-safe: only the statements run concurrently
+		synchronized (dom) {
+			List<Object> missing = new ArrayList<>();
+			for (Map.Entry<Long, Object> e : ids.entrySet()) {
+				if (dom.lookUpObjectByID(cls, e.getValue()) == null)
+					missing.add(intKey ? (Object) e.getKey().intValue() : (Object) e.getKey());
+			}
+			// retrieving puts the missing objects in the object pool
+			for (int i = 0; i < missing.size(); i += FETCH_SIZE) {
+				Object[] keys = missing.subList(i, Math.min(i + FETCH_SIZE, missing.size())).toArray();
+				Query<?> q = QueryToolKit.createSearchQuery(dom.getDsm(), cls, new String[] { keyAttrib },
+						new Op[] { Op.IN }, new Object[] { keys });
+				dom.retrieveObjects(cls, q);
+			}
+
+			List<T> result = new ArrayList<>(ids.size());
+			for (Object id : ids.values()) {
+				Object o = dom.lookUpObjectByID(cls, id);
+				if (o != null)
+					result.add(cls.cast(o));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * @requires this is a window template
+	 * @effects return transient objects built from <tt>rows</tt> by the data source constructor
+	 *  of the class, with the associates that the rows refer to taken from the object pool
+	 */
+	private List<T> build(List<Object[]> rows) {
+		List<T> result = new ArrayList<>(rows.size());
+		Object[] args = new Object[rowAttribs.length];
+		// the object pool is not thread-safe
+		synchronized (dom) {
+			for (Object[] row : rows) {
+				for (int i = 0; i < args.length; i++) {
+					Class<?> type = rowConstructor.getParameterTypes()[i];
+					args[i] = (rowAttribs[i].getAnnotation(DAttr.class).type() == DAttr.Type.Domain && row[i] != null)
+							? dom.lookUpObjectByID(type, row[i]) 
+							: valueOf(row[i], type);
+				}
+				try {
+					result.add(rowConstructor.newInstance(args));
+				} catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+					throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_CREATE_OBJECT, e,
+							new Object[] { cls.getSimpleName(), Arrays.toString(row) });
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @effects return the column value <tt>v</tt> as a value of <tt>type</tt>
+	 */
+	private static Object valueOf(Object v, Class<?> type) {
+		if (v instanceof Number) {
+			Number n = (Number) v;
+			if (type == Long.class || type == long.class)
+				return n.longValue();
+			if (type == Integer.class || type == int.class)
+				return n.intValue();
+			if (type == Double.class || type == double.class)
+				return n.doubleValue();
+		} else if (v instanceof Date && type == Date.class) {
+			// not a java.sql.Date, whose toInstant() is not supported
+			return new Date(((Date) v).getTime());
+		}
+		return v;
+	}
+
+	/**
+	 * @effects return the stored attributes of <tt>cls</tt>, in the order they are declared
+	 */
+	private static Field[] storedAttributes(Class<?> cls) {
+		List<Field> attribs = new ArrayList<>();
+		for (Field f : cls.getDeclaredFields()) {
+			DAttr a = f.getAnnotation(DAttr.class);
+			if (a != null && a.serialisable() && !a.virtual() && a.type() != DAttr.Type.Collection)
+				attribs.add(f);
+		}
+		return attribs.toArray(new Field[0]);
+	}
+
+	/**
+	 * @effects return the data source constructor of <tt>cls</tt>, that takes <tt>params</tt>
+	 *  parameters; throws NotPossibleException if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> Constructor<T> dataSourceConstructor(Class<T> cls, int params) {
+		for (Constructor<?> c : cls.getConstructors()) {
+			for (DOpt opt : c.getAnnotationsByType(DOpt.class)) {
+				if (opt.type() == DOpt.Type.DataSourceConstructor && c.getParameterCount() == params)
+					return (Constructor<T>) c;
+			}
+		}
+		throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_CREATE_OBJECT,
+				new Object[] { cls.getSimpleName(), "DataSourceConstructor/" + params });
+	}
+
+	/**
+	 * @effects return an idle session of <tt>dsm</tt>, opening a new one if there is none
+	 */
+	private static Session borrow(DSMBasic dsm) throws SQLException {
+		synchronized (QueryTemplate.class) {
+			Deque<Session> sessions = idle.get(dsm);
+			if (sessions != null && !sessions.isEmpty())
+				return sessions.pop();
+		}
+		return new Session(DataSourceToolKit.getConnection());
+	}
+
+	/**
+	 * @effects return <tt>session</tt> to the idle sessions of <tt>dsm</tt>, or close it if 
+	 *  there are enough
+	 */
+	private static void release(DSMBasic dsm, Session session) {
+		synchronized (QueryTemplate.class) {
+			Deque<Session> sessions = idle.computeIfAbsent(dsm, d -> new ArrayDeque<>());
+			if (sessions.size() < MAX_IDLE) {
+				sessions.push(session);
+				return;
+			}
+		}
+		session.close();
+	}
+
+	/**
+	 * @effects
+	 *  close the idle connections of the templates of <tt>dsm</tt>; new ones are opened
+	 *  when templates are next executed
+	 */
+	public static void close(DSMBasic dsm) {
+		Deque<Session> sessions;
+		synchronized (QueryTemplate.class) {
+			sessions = idle.remove(dsm);
+		}
+		if (sessions != null) {
+			for (Session session : sessions) {
+				session.close();
+			}
+		}
+	}
+}
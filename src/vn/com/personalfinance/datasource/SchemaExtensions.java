@@ -0,0 +1,75 @@
+package vn.com.personalfinance.datasource;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * @overview 
+ * 	Installs the parts of the data source schema that the domain class annotations cannot 
+ *  express, such as secondary indexes. It must be run after the software has created the 
+ *  tables of its domain model; running it again has no effect.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class SchemaExtensions {
+	
+	// {table, column} pairs of the numeric keys of the domain classes 
+	private static final String[][] KEY_INDEXES = {
+		{"DailyExpense", "idNumber"},
+		{"DailyIncome", "idNumber"},
+		{"SavingsTransaction", "idNumber"},
+		{"Savings", "idNumber"},
+		{"Transfer", "idNumber"}
+	};
+	
+	// {table, column} pairs of the date keys that the reports search by
+	private static final String[][] DATE_INDEXES = {
+		{"DailyExpense", "epochDay"},
+		{"DailyExpense", "yearKey"},
+		{"DailyExpense", "monthKey"},
+		{"DailyIncome", "epochDay"},
+		{"DailyIncome", "yearKey"},
+		{"DailyIncome", "monthKey"}
+	};
+	
+	// {table, column} pairs of the amounts that the top transactions reports rank by
+	private static final String[][] RANK_INDEXES = {
+		{"DailyExpense", "amount DESC"},
+		{"DailyIncome", "amount DESC"}
+	};
+	
+	private SchemaExtensions() {
+		// no instances
+	}
+	
+	/**
+	 * @effects 
+	 *  create in the data source the indexes that do not exist yet; 
+	 *  throws SQLException if the data source cannot be updated
+	 */
+	public static void install() throws SQLException {
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			for (String[] index : KEY_INDEXES) {
+				createIndex(conn, index[0], index[1]);
+			}
+			for (String[] index : DATE_INDEXES) {
+				createIndex(conn, index[0], index[1]);
+			}
+			for (String[] index : RANK_INDEXES) {
+				createIndex(conn, index[0], index[1]);
+			}
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  create on <tt>conn</tt> an index of <tt>table</tt> over <tt>columns</tt> if it does not exist;
+	 *  a column may be followed by <tt>DESC</tt>
+	 */
+	public static void createIndex(Connection conn, String table, String... columns) throws SQLException {
+		String name = "IDX_" + table + "_" + String.join("_", columns).replace(' ', '_');
+		DataSourceToolKit.createIfNotExists(conn, "CREATE INDEX " + name + " ON " 
+				+ DataSourceToolKit.table(table) + " (" + String.join(", ", columns) + ")");
+	}
+}
@@ -0,0 +1,159 @@
+package vn.com.personalfinance.datasource;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.Locale;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	Brings a data source that was created by an earlier version of the software up to date with
+ *  the domain classes: it adds to the existing tables the columns of the stored attributes that
+ *  were added to the classes since, and fills them in from the other columns of each row.
+ *
+ *  <p>It must be run before the software reads its domain objects, because the object store
+ *  reads every stored attribute. Tables that do not exist yet are left to the software to
+ *  create; running it again has no effect.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class SchemaMigration {
+	private static final Logger log = Logger.getLogger(SchemaMigration.class.getName());
+
+	/**
+	 * @overview a column added to a table, whose value is computed from another column of the row
+	 */
+	private static class Column {
+		final String table;
+		final String name;
+		final String sqlType;
+		final boolean optional;
+		final String source;
+		final Function<Object, Object> value;
+
+		Column(String table, String name, String sqlType, boolean optional, String source,
+				Function<Object, Object> value) {
+			this.table = table;
+			this.name = name;
+			this.sqlType = sqlType;
+			this.optional = optional;
+			this.source = source;
+			this.value = value;
+		}
+	}
+
+	// the added columns, in the order in which they are added
+	private static final Column[] COLUMNS = {
+		idNumber("DailyExpense", 1),
+		idNumber("DailyIncome", 1),
+		idNumber("Savings", 1),
+		idNumber("SavingsTransaction", 2),
+		new Column("DailyExpense", "epochDay", "BigInt", true, "date", date -> Dates.epochDay((Date) date)),
+		new Column("DailyExpense", "yearKey", "Int", true, "date", date -> Dates.yearKey((Date) date)),
+		new Column("DailyExpense", "monthKey", "Int", true, "date", date -> Dates.monthKey((Date) date)),
+		new Column("DailyIncome", "epochDay", "BigInt", true, "date", date -> Dates.epochDay((Date) date)),
+		new Column("DailyIncome", "yearKey", "Int", true, "date", date -> Dates.yearKey((Date) date)),
+		new Column("DailyIncome", "monthKey", "Int", true, "date", date -> Dates.monthKey((Date) date)),
+		new Column("Account", "balanceMinor", "BigInt", false, "balance", balance -> Money.toMinor((Double) balance)),
+		new Column("TotalBalance", "totalBalanceMinor", "BigInt", true, "totalBalance",
+				total -> Money.toMinor((Double) total))
+	};
+
+	private SchemaMigration() {
+		// no instances
+	}
+
+	/**
+	 * @effects return the column <tt>idNumber</tt> of <tt>table</tt>, that holds the number part of
+	 *  the id, which follows a prefix of <tt>prefixLength</tt> characters
+	 */
+	private static Column idNumber(String table, int prefixLength) {
+		return new Column(table, "idNumber", "BigInt", false, "id",
+				id -> Long.parseLong(((String) id).trim().substring(prefixLength)));
+	}
+
+	/**
+	 * @effects
+	 *  add to the existing tables of the data source the columns that they lack, and fill them in;
+	 *  throws SQLException if the data source cannot be updated
+	 */
+	public static void migrate() throws SQLException {
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			for (Column column : COLUMNS) {
+				if (exists(conn, column.table, null) && !exists(conn, column.table, column.name)) {
+					add(conn, column);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @effects
+	 *  if <tt>column</tt> is null
+	 *    return true if <tt>table</tt> exists in the data source
+	 *  else
+	 *    return true if <tt>table</tt> has <tt>column</tt>
+	 */
+	private static boolean exists(Connection conn, String table, String column) throws SQLException {
+		DatabaseMetaData meta = conn.getMetaData();
+		String schema = DataSourceToolKit.SCHEMA.toUpperCase(Locale.ROOT);
+		String tableName = table.toUpperCase(Locale.ROOT);
+		try (ResultSet rs = (column == null)
+				? meta.getTables(null, schema, tableName, null)
+				: meta.getColumns(null, schema, tableName, column.toUpperCase(Locale.ROOT))) {
+			return rs.next();
+		}
+	}
+
+	/**
+	 * @effects
+	 *  add <tt>column</tt> to its table and fill it in for every row, in one transaction
+	 */
+	private static void add(Connection conn, Column column) throws SQLException {
+		String table = DataSourceToolKit.table(column.table);
+		conn.setAutoCommit(false);
+		try {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.executeUpdate("ALTER TABLE " + table + " ADD COLUMN " + column.name + " " + column.sqlType);
+			}
+
+			int rows = 0;
+			try (Statement select = conn.createStatement();
+					ResultSet rs = select.executeQuery("SELECT id, " + column.source + " FROM " + table);
+					PreparedStatement update = conn.prepareStatement(
+							"UPDATE " + table + " SET " + column.name + " = ? WHERE id = ?")) {
+				while (rs.next()) {
+					Object source = rs.getObject(2);
+					update.setObject(1, (source != null) ? column.value.apply(source) : null);
+					update.setObject(2, rs.getObject(1));
+					update.addBatch();
+					rows++;
+				}
+				update.executeBatch();
+			}
+
+			if (!column.optional) {
+				try (Statement stmt = conn.createStatement()) {
+					stmt.executeUpdate("ALTER TABLE " + table + " ALTER COLUMN " + column.name + " NOT NULL");
+				}
+			}
+			conn.commit();
+			log.info("Added " + column.table + "." + column.name + " to " + rows + " rows");
+		} catch (SQLException | RuntimeException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(true);
+		}
+	}
+}
@@ -13,7 +13,22 @@ public enum DExCode implements InfoCode{
 	/**
 	 * 0: Balance
 	 */
-	INVALID_BALANCE("Account balance {0} is invalid");
+	INVALID_BALANCE("Account balance {0} is invalid"),
+	
+	/**
+	 * 0: Account id, 1: incrementally posted amount, 2: recomputed amount
+	 */
+	INVALID_POSTED_BALANCE("Account {0}: posted amount {1} does not match recomputed amount {2}"),
+	
+	/**
+	 * 0: position in batch, 1: transaction, 2: reason
+	 */
+	INVALID_BATCH_ENTRY("Batch entry {0} ({1}) is invalid: {2}"),
+	
+	/**
+	 * 0: transfer, 1: reason
+	 */
+	INVALID_TRANSFER("Transfer {0} is invalid: {1}");
 	
 	/**
 	 * THE FOLLOWING CODE (EXCEPT FOR THE CONSTRUCTOR NAME) MUST BE KEPT AS IS
@@ -1,8 +1,10 @@
 package vn.com.personalfinance.services.account;
 
-import java.util.ArrayList; 
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.model.meta.AttrRef;
@@ -18,10 +20,20 @@ import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
 import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.services.transfer.Transfer;
 import vn.com.personalfinance.exceptions.DExCode;
+import vn.com.personalfinance.services.borrowandlend.model.ActionType;
 import vn.com.personalfinance.services.borrowandlend.model.BorrowAndLend;
+import vn.com.personalfinance.services.borrowandlend.model.Subjects;
+import vn.com.personalfinance.services.expenseandincome.model.Category;
 import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
 import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
+import vn.com.personalfinance.services.ledger.Ledger;
+import vn.com.personalfinance.services.savings.Savings;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
 
 /**
  * Represents an account. The account ID is auto-incremented from the current year.
@@ -35,12 +47,14 @@ public class Account {
 	public static final String A_name = "name";
 	public static final String A_type = "type";
 	public static final String A_balance = "balance";
+	public static final String A_balanceMinor = "balanceMinor";
 	
 	// attributes of accounts
 	@DAttr(name = A_id, id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	private String id;
 	// static variable to keep track of account id
-	private static int idCounter = 0;
+	// ids start from the current year
+	private static final IdSequence idSequence = new IdSequence("Account", Calendar.getInstance().get(Calendar.YEAR));
 	
 	@DAttr(name = A_name, type = Type.String, length = 20, optional = false, cid=true)
 	private String name;
@@ -51,7 +65,11 @@ public class Account {
 	private AccountType type;
 	
 	@DAttr(name = A_balance, type = Type.Double, length = 15, optional = false, min = 0)
-	private double balance;
+	private volatile double balance;
+	// balance in minor units, stored so that it is read back exactly; balance is always 
+	// derived from it. Both are written under the posting lock and read without it
+	@DAttr(name = A_balanceMinor, type = Type.Long, auto = true, mutable = false, optional = false)
+	private volatile long balanceMinor;
 	
 	@DAttr(name = "dailyExpense", type = Type.Collection, optional = false,
 	serialisable = false, filter = @Select(clazz = DailyExpense.class))
@@ -85,7 +103,39 @@ public class Account {
 	private Collection<BorrowAndLend> borrowAndLend;
 	private int borrowAndLendCount;
 	
-	private Collection<String> allClassID;
+	@DAttr(name = "transferOut", type = Type.Collection, optional = false,
+	serialisable = false, filter = @Select(clazz = Transfer.class))
+	@DAssoc(ascName = "account-has-transferOut", role = "fromAccount",
+	ascType = AssocType.One2Many, endType = AssocEndType.One, 
+	associate = @Associate(type = Transfer.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE ))
+	private Collection<Transfer> transferOut;
+	private int transferOutCount;
+	
+	@DAttr(name = "transferIn", type = Type.Collection, optional = false,
+	serialisable = false, filter = @Select(clazz = Transfer.class))
+	@DAssoc(ascName = "account-has-transferIn", role = "toAccount",
+	ascType = AssocType.One2Many, endType = AssocEndType.One, 
+	associate = @Associate(type = Transfer.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE ))
+	private Collection<Transfer> transferIn;
+	private int transferInCount;
+	
+	// transactions whose amounts are already included in balance
+	private PostedTransactions posted;
+	// net effect of the posted transactions on balance, in minor units
+	private long postedNet;
+	
+	// the last balance journal record appended under the posting lock and not yet forced to 
+	// disk, or -1; it is forced when the lock is released, see unlock(ReentrantLock)
+	private long unsynced = -1;
+	
+	// true once the book of this is open in the ledger, see openBook(); guarded by the posting lock
+	private boolean booked;
+	
+	// when true, every posting is checked against a full recompute
+	private static boolean verifyPosting = Boolean.getBoolean("personalfinance.posting.verify");
+	
+	// the balance changes by date, for as-of-date balances
+	private final BalanceIndex balanceIndex = new BalanceIndex();
 	
 	@DAttr(name = "totalBalance", type = Type.Domain, length = 15, optional = false)
 	@DAssoc(ascName = "totalBalance-has-account", role = "account",
@@ -99,7 +149,7 @@ public class Account {
 	@DOpt(type=DOpt.Type.RequiredConstructor)
 	public Account(@AttrRef("name") String name, 
 			@AttrRef("balance") Double balance, @AttrRef("totalBalance") TotalBalance totalBalance) {
-		this(null, name, null, balance, totalBalance);
+		this(null, name, null, balance, null, totalBalance);
 	}
 	
 	@DOpt(type=DOpt.Type.ObjectFormConstructor)
@@ -107,241 +157,506 @@ public class Account {
 			@AttrRef("type") AccountType type,
 			@AttrRef("balance") Double balance,
 			@AttrRef("totalBalance") TotalBalance totalBalance) {
-		this(null, name, type, balance, totalBalance);
+		this(null, name, type, balance, null, totalBalance);
 	}
 	
 	// a shared constructor that is invoked by other constructors
 	// load db 
 	@DOpt(type=DOpt.Type.DataSourceConstructor)
-	public Account (String id, String name, AccountType type, Double balance, TotalBalance totalBalance) throws ConstraintViolationException{
+	public Account (String id, String name, AccountType type, Double balance, Long balanceMinor, 
+			TotalBalance totalBalance) throws ConstraintViolationException{
 		// generate an id
 	    this.id = nextID(id);
 	    
 	    // assign other values
 	    this.name = name;
 	    this.type = type;
-	    this.balance = balance;
+	    // the exact balance as stored or, for a new account, as entered
+	    this.balanceMinor = (balanceMinor != null) ? balanceMinor : Money.toMinor(balance);
+	    this.balance = Money.toMajor(this.balanceMinor);
 	    this.totalBalance = totalBalance;
 
-	    dailyExpense = new ArrayList<>();
+	    dailyExpense = new LinkedHashSet<>();
 	    dailyExpenseCount = 0;
 	    
-	    dailyIncome = new ArrayList<>();
+	    dailyIncome = new LinkedHashSet<>();
 	    dailyIncomeCount = 0;
 	    
-	    savingsTransaction = new ArrayList<>();
+	    savingsTransaction = new LinkedHashSet<>();
 	    savingsTransactionCount = 0;
 	    
-	    borrowAndLend = new ArrayList<>();
+	    borrowAndLend = new LinkedHashSet<>();
 	    borrowAndLendCount = 0;
 	    
-	    allClassID = new ArrayList<>();
+	    transferOut = new LinkedHashSet<>();
+	    transferOutCount = 0;
+	    
+	    transferIn = new LinkedHashSet<>();
+	    transferInCount = 0;
+	    
+	    posted = new PostedTransactions();
+	    // a loaded account is stored; a new one is booked when it is stored or first posted to
+	    if (id != null)
+	    	openBook();
 	}
 	
 	// DailyExpense Assoc
 	@DOpt(type = DOpt.Type.LinkAdder)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean addDailyExpense(DailyExpense s) {
-		if (!this.dailyExpense.contains(s)) {
-			dailyExpense.add(s);
-		}
-		if (!this.allClassID.contains(s.getId())) {
-			allClassID.add(s.getId());
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			// loaded transactions are already included in the stored balance
+			if (posted.post(s)) {
+				dailyExpense.add(s);
+				index(s, effectOf(s));
+				postedNet += effectOf(s);
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewDailyExpense(DailyExpense s) {
-		dailyExpense.add(s);
-		dailyExpenseCount++;
-		// no other attributes changed
-		updateExpenseAccountBalance();
-		return true;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (dailyExpense.add(s))
+				dailyExpenseCount++;
+		
+			if (posted.post(s)) {
+				post(BalanceJournal.KIND_DAILY_EXPENSE, s.getIdNumber(), s, 0, effectOf(s));
+				ExpenseAndIncomeRollup.getInstance().added(s);
+			}
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdder)
 	public boolean addDailyExpense(Collection<DailyExpense> dailyExpense) {
-		for (DailyExpense s : dailyExpense) {
-			if (!this.dailyExpense.contains(s)) {
-				this.dailyExpense.add(s);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (DailyExpense s : dailyExpense) {
+				if (posted.post(s)) {
+					this.dailyExpense.add(s);
+					index(s, effectOf(s));
+					postedNet += effectOf(s);
+				}
 			}
-			if(!this.allClassID.contains(s.getId()))
-				allClassID.add(s.getId());
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewDailyExpense(Collection<DailyExpense> dailyExpense) {
-		this.dailyExpense.addAll(dailyExpense);
-		dailyExpenseCount += dailyExpense.size();
-		// no other attributes changed
-		return false;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			dailyExpenseCount += addNew(this.dailyExpense, dailyExpense);
+		
+			long delta = 0;
+			long seq = -1;
+			for (DailyExpense s : dailyExpense) {
+				if (posted.post(s)) {
+					long effect = effectOf(s);
+					seq = Math.max(seq, journal(BalanceJournal.KIND_DAILY_EXPENSE, s.getIdNumber(), 0, effect, balanceMinor + delta));
+					ledger(BalanceJournal.KIND_DAILY_EXPENSE, s.getIdNumber(), s, effect);
+					index(s, effect);
+					ExpenseAndIncomeRollup.getInstance().added(s);
+					delta += effect;
+				}
+			}
+			unsynced = Math.max(unsynced, seq);
+			post(delta);
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type = DOpt.Type.LinkRemover)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean removeDailyExpense(DailyExpense s) {
-		boolean removed = dailyExpense.remove(s);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			boolean removed = dailyExpense.remove(s);
 
-		if (removed) {
-			allClassID.remove(s.getId());
-			dailyExpenseCount--;
-			balance+=s.getAmount();		
+			if (removed) {
+				dailyExpenseCount--;
+				if (posted.unpost(s)) {
+					post(BalanceJournal.KIND_DAILY_EXPENSE, s.getIdNumber(), s, effectOf(s), 0);
+					ExpenseAndIncomeRollup.getInstance().removed(s);
+				}
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
-	private void updateExpenseAccountBalance() {
-		if (dailyExpenseCount > 0) {
-			for (DailyExpense e : dailyExpense) {
-				if (!allClassID.contains(e.getId())) {
-					this.balance -= e.getAmount();
-					allClassID.add(e.getId());
-				}
+	/**
+	 * @effects 
+	 *  if <tt>s</tt> is posted to this
+	 *    post the difference between its current amount and <tt>oldAmount</tt> (in minor units)
+	 */
+	public void updateDailyExpenseAmount(DailyExpense s, long oldAmount) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (posted.isPosted(s)) {
+				post(BalanceJournal.KIND_DAILY_EXPENSE, s.getIdNumber(), s, -oldAmount, effectOf(s));
+				ExpenseAndIncomeRollup.getInstance().amountChanged(s, oldAmount);
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>s</tt> is posted to this
+	 *    date its effect in the balance index, and move it in the expense and income rollups, 
+	 *    by its current date instead of <tt>oldDate</tt>
+	 */
+	public void updateDailyExpenseDate(DailyExpense s, Date oldDate) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			moveInIndex(s, posted.isPosted(s), effectOf(s), oldDate);
+			if (posted.isPosted(s)) {
+				ExpenseAndIncomeRollup.getInstance().moved(s, s.getCategory(), oldDate);
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>s</tt> is posted to this
+	 *    move it in the expense and income rollups from <tt>oldCategory</tt> to its current category
+	 */
+	public void updateDailyExpenseCategory(DailyExpense s, Category oldCategory) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (posted.isPosted(s)) {
+				ExpenseAndIncomeRollup.getInstance().moved(s, oldCategory, s.getDate());
 			}
-		} 
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	// DailyIncome Assoc
 	@DOpt(type = DOpt.Type.LinkAdder)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean addDailyIncome(DailyIncome i) {
-		if (!this.dailyIncome.contains(i)) {
-			dailyIncome.add(i);
-		}
-		if (!this.allClassID.contains(i.getId())) {
-			allClassID.add(i.getId());
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			// loaded transactions are already included in the stored balance
+			if (posted.post(i)) {
+				dailyIncome.add(i);
+				index(i, effectOf(i));
+				postedNet += effectOf(i);
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewDailyIncome(DailyIncome i) {
-		dailyIncome.add(i);
-		dailyIncomeCount++;
-		// no other attributes changed
-		updateIncomeAccountBalance();
-		return true;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (dailyIncome.add(i))
+				dailyIncomeCount++;
+		
+			if (posted.post(i)) {
+				post(BalanceJournal.KIND_DAILY_INCOME, i.getIdNumber(), i, 0, effectOf(i));
+				ExpenseAndIncomeRollup.getInstance().added(i);
+			}
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 
 	@DOpt(type = DOpt.Type.LinkAdder)
 	public boolean addDailyIncome(Collection<DailyIncome> dailyIncome) {
-		for (DailyIncome s : dailyIncome) {
-			if (!this.dailyIncome.contains(s)) {
-				this.dailyIncome.add(s);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (DailyIncome s : dailyIncome) {
+				if (posted.post(s)) {
+					this.dailyIncome.add(s);
+					index(s, effectOf(s));
+					postedNet += effectOf(s);
+				}
 			}
-			if(!this.allClassID.contains(s.getId()))
-				allClassID.add(s.getId());
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewDailyIncome(Collection<DailyIncome> dailyIncome) {
-		this.dailyIncome.addAll(dailyIncome);
-		dailyIncomeCount += dailyIncome.size();
-		// no other attributes changed
-		return false;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			dailyIncomeCount += addNew(this.dailyIncome, dailyIncome);
+		
+			long delta = 0;
+			long seq = -1;
+			for (DailyIncome s : dailyIncome) {
+				if (posted.post(s)) {
+					long effect = effectOf(s);
+					seq = Math.max(seq, journal(BalanceJournal.KIND_DAILY_INCOME, s.getIdNumber(), 0, effect, balanceMinor + delta));
+					ledger(BalanceJournal.KIND_DAILY_INCOME, s.getIdNumber(), s, effect);
+					index(s, effect);
+					ExpenseAndIncomeRollup.getInstance().added(s);
+					delta += effect;
+				}
+			}
+			unsynced = Math.max(unsynced, seq);
+			post(delta);
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 
 	@DOpt(type = DOpt.Type.LinkRemover)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean removeDailyIncome(DailyIncome i) {
-		boolean removed = dailyIncome.remove(i);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			boolean removed = dailyIncome.remove(i);
 
-		if (removed) {
-			allClassID.remove(i.getId());
-			dailyIncomeCount--;
-			balance -= i.getAmount();
+			if (removed) {
+				dailyIncomeCount--;
+				if (posted.unpost(i)) {
+					post(BalanceJournal.KIND_DAILY_INCOME, i.getIdNumber(), i, effectOf(i), 0);
+					ExpenseAndIncomeRollup.getInstance().removed(i);
+				}
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
-	private void updateIncomeAccountBalance() {
-		if (dailyIncomeCount > 0) {
-			for (DailyIncome i : dailyIncome) {
-				if (!allClassID.contains(i.getId())) {
-					this.balance += i.getAmount();
-					allClassID.add(i.getId());
-				}
+	/**
+	 * @effects 
+	 *  if <tt>i</tt> is posted to this
+	 *    post the difference between its current amount and <tt>oldAmount</tt> (in minor units)
+	 */
+	public void updateDailyIncomeAmount(DailyIncome i, long oldAmount) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (posted.isPosted(i)) {
+				post(BalanceJournal.KIND_DAILY_INCOME, i.getIdNumber(), i, oldAmount, effectOf(i));
+				ExpenseAndIncomeRollup.getInstance().amountChanged(i, oldAmount);
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>i</tt> is posted to this
+	 *    date its effect in the balance index, and move it in the expense and income rollups, 
+	 *    by its current date instead of <tt>oldDate</tt>
+	 */
+	public void updateDailyIncomeDate(DailyIncome i, Date oldDate) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			moveInIndex(i, posted.isPosted(i), effectOf(i), oldDate);
+			if (posted.isPosted(i)) {
+				ExpenseAndIncomeRollup.getInstance().moved(i, i.getCategory(), oldDate);
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>i</tt> is posted to this
+	 *    move it in the expense and income rollups from <tt>oldCategory</tt> to its current category
+	 */
+	public void updateDailyIncomeCategory(DailyIncome i, Category oldCategory) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (posted.isPosted(i)) {
+				ExpenseAndIncomeRollup.getInstance().moved(i, oldCategory, i.getDate());
 			}
-		} 
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	// BorrowAndLend Assoc
 	@DOpt(type = DOpt.Type.LinkAdder)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean addBorrowAndLend(BorrowAndLend bL) {
-		if (!this.borrowAndLend.contains(bL))
-			borrowAndLend.add(bL);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			// loaded transactions are already included in the stored balance
+			if (posted.post(bL)) {
+				borrowAndLend.add(bL);
+				index(bL, effectOf(bL));
+				postedNet += effectOf(bL);
+			}
 
-		// no other attributes changed
-		return false;
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
 	}
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewborrowAndLend(BorrowAndLend bL) {
-		borrowAndLend.add(bL);
-		borrowAndLendCount++;
-		// no other attributes changed
-		updateBnLAccountBalance();
-		return true;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (borrowAndLend.add(bL))
+				borrowAndLendCount++;
+		
+			if (posted.post(bL)) {
+				post(BalanceJournal.KIND_BORROW_AND_LEND, bL.getId(), bL, 0, effectOf(bL));
+				bL.invalidateReports(bL.getActionType());
+			}
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdder)
 	public boolean addBorrowAndLend(Collection<BorrowAndLend> bL) {
-		for (BorrowAndLend b : bL) {
-			if (!this.borrowAndLend.contains(b)) {
-				this.borrowAndLend.add(b);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (BorrowAndLend b : bL) {
+				if (posted.post(b)) {
+					this.borrowAndLend.add(b);
+					index(b, effectOf(b));
+					postedNet += effectOf(b);
+				}
 			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewBorrowAndLend(Collection<BorrowAndLend> bL) {
-		this.borrowAndLend.addAll(bL);
-		borrowAndLendCount += bL.size();
-		// no other attributes changed (average mark is not serialisable!!!)
-		return false;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			borrowAndLendCount += addNew(this.borrowAndLend, bL);
+		
+			long delta = 0;
+			long seq = -1;
+			for (BorrowAndLend b : bL) {
+				if (posted.post(b)) {
+					long effect = effectOf(b);
+					seq = Math.max(seq, journal(BalanceJournal.KIND_BORROW_AND_LEND, b.getId(), 0, effect, balanceMinor + delta));
+					ledger(BalanceJournal.KIND_BORROW_AND_LEND, b.getId(), b, effect);
+					index(b, effect);
+					b.invalidateReports(b.getActionType());
+					delta += effect;
+				}
+			}
+			unsynced = Math.max(unsynced, seq);
+			post(delta);
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type = DOpt.Type.LinkRemover)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean removeBorrowAndLend(BorrowAndLend bL) {
-		boolean removed = borrowAndLend.remove(bL);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			boolean removed = borrowAndLend.remove(bL);
 
-		if (removed) {
-			borrowAndLendCount--;
-			if(bL.getActionType().getId() == 1 & bL.getActionType().getId() == 2) {
-				balance += bL.getMoney();
-			} else if (bL.getActionType().getId() == 3 & bL.getActionType().getId() == 4) {
-				balance -= bL.getMoney();
+			if (removed) {
+				borrowAndLendCount--;
+				if (posted.unpost(bL)) {
+					post(BalanceJournal.KIND_BORROW_AND_LEND, bL.getId(), bL, effectOf(bL), 0);
+					bL.invalidateReports(bL.getActionType());
+				}
 			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
-	private void updateBnLAccountBalance() {
-		for (BorrowAndLend bL : borrowAndLend) {
-			String temp = ""+bL.getId();
-			if (!allClassID.contains(temp)) {
-				if (bL.getActionType().getId() == 1 || bL.getActionType().getId() == 2)
-					this.balance += bL.getMoney();		
-				if (bL.getActionType().getId() == 3 || bL.getActionType().getId() == 4)
-					this.balance -= bL.getMoney();
-				allClassID.add(temp);
+	/**
+	 * @effects 
+	 *  if <tt>bL</tt> is posted to this
+	 *    post the difference between its current effect and the effect it had 
+	 *    with <tt>oldMoney</tt> and <tt>oldActionType</tt> 
+	 */
+	public void updateBorrowAndLend(BorrowAndLend bL, long oldMoney, ActionType oldActionType) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (posted.isPosted(bL)) {
+				post(BalanceJournal.KIND_BORROW_AND_LEND, bL.getId(), bL, effectOf(oldActionType, oldMoney), effectOf(bL));
 			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>bL</tt> is posted to this
+	 *    date its effect in the balance index by its current start date instead of <tt>oldDate</tt>
+	 */
+	public void updateBorrowAndLendStartDate(BorrowAndLend bL, Date oldDate) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			moveInIndex(bL, posted.isPosted(bL), effectOf(bL), oldDate);
+		} finally {
+			unlock(lock);
 		}
 	}
 	
@@ -349,69 +664,686 @@ public class Account {
 	@DOpt(type = DOpt.Type.LinkAdder)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean addSavingsTransaction(SavingsTransaction s) {
-		if (!this.savingsTransaction.contains(s))
-			savingsTransaction.add(s);
-		if (!this.allClassID.contains(s.getId())) {
-			allClassID.add(s.getId());
-		}
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			// loaded transactions are already included in the stored balance
+			if (posted.post(s)) {
+				savingsTransaction.add(s);
+				index(s, effectOf(s));
+				postedNet += effectOf(s);
+			}
 
-		// no other attributes changed
-		return false;
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
 	}
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewSavingsTransaction(SavingsTransaction s) {
-		savingsTransaction.add(s);
-		savingsTransactionCount++;
-		// no other attributes changed
-		updateSavingsTransactionAccountBalance();
-		return true;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (savingsTransaction.add(s))
+				savingsTransactionCount++;
+		
+			if (posted.post(s)) {
+				post(BalanceJournal.KIND_SAVINGS_TRANSACTION, s.getIdNumber(), s, 0, effectOf(s));
+			}
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdder)
 	public boolean addSavingsTransaction(Collection<SavingsTransaction> savingsTransaction) {
-		for (SavingsTransaction s : savingsTransaction) {
-			if (!this.savingsTransaction.contains(s)) {
-				this.savingsTransaction.add(s);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (SavingsTransaction s : savingsTransaction) {
+				if (posted.post(s)) {
+					this.savingsTransaction.add(s);
+					index(s, effectOf(s));
+					postedNet += effectOf(s);
+				}
 			}
-			if(!this.allClassID.contains(s.getId()))
-				allClassID.add(s.getId());
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
 		}
-		// no other attributes changed
-		return false;
 	}
 	
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewSavingsTransaction(Collection<SavingsTransaction> savingsTransaction) {
-		this.savingsTransaction.addAll(savingsTransaction);
-		savingsTransactionCount += savingsTransaction.size();
-		// no other attributes changed (average mark is not serialisable!!!)
-		return false;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			savingsTransactionCount += addNew(this.savingsTransaction, savingsTransaction);
+		
+			long delta = 0;
+			long seq = -1;
+			for (SavingsTransaction s : savingsTransaction) {
+				if (posted.post(s)) {
+					long effect = effectOf(s);
+					seq = Math.max(seq, journal(BalanceJournal.KIND_SAVINGS_TRANSACTION, s.getIdNumber(), 0, effect, balanceMinor + delta));
+					ledger(BalanceJournal.KIND_SAVINGS_TRANSACTION, s.getIdNumber(), s, effect);
+					index(s, effect);
+					delta += effect;
+				}
+			}
+			unsynced = Math.max(unsynced, seq);
+			post(delta);
+			return true;
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type = DOpt.Type.LinkRemover)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean removeSavingsTransaction(SavingsTransaction s) {
-		boolean removed = savingsTransaction.remove(s);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			boolean removed = savingsTransaction.remove(s);
 
-		if (removed) {
-			allClassID.remove(s.getId());
-			savingsTransactionCount--;
-			balance += s.getAmount();
+			if (removed) {
+				savingsTransactionCount--;
+				if (posted.unpost(s)) {
+					post(BalanceJournal.KIND_SAVINGS_TRANSACTION, s.getIdNumber(), s, effectOf(s), 0);
+				}
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>s</tt> is posted to this
+	 *    post the difference between its current amount and <tt>oldAmount</tt> (in minor units)
+	 */
+	public void updateSavingsTransactionAmount(SavingsTransaction s, long oldAmount) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (posted.isPosted(s)) {
+				post(BalanceJournal.KIND_SAVINGS_TRANSACTION, s.getIdNumber(), s, -oldAmount, effectOf(s));
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	// TransferOut Assoc
+	@DOpt(type = DOpt.Type.LinkAdder)
+	// only need to do this for reflexive association: @MemberRef(name="accounts")
+	public boolean addTransferOut(Transfer t) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			// loaded transfers are already included in the stored balance
+			if (!transferOut.contains(t)) {
+				transferOut.add(t);
+				loadTransfer(t);
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewTransferOut(Transfer t) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (transferOut.add(t))
+				transferOutCount++;
+		} finally {
+			unlock(lock);
+		}
+		// both accounts of t are posted together, by whichever of them is linked first
+		AccountPostingService.getInstance().postTransfer(t);
+		return true;
+	}
+	
+	@DOpt(type = DOpt.Type.LinkAdder)
+	public boolean addTransferOut(Collection<Transfer> transfers) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (Transfer t : transfers) {
+				if (!transferOut.contains(t)) {
+					transferOut.add(t);
+					loadTransfer(t);
+				}
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewTransferOut(Collection<Transfer> transfers) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			transferOutCount += addNew(this.transferOut, transfers);
+		} finally {
+			unlock(lock);
+		}
+		for (Transfer t : transfers) {
+			AccountPostingService.getInstance().postTransfer(t);
+		}
+		return true;
+	}
+	
+	@DOpt(type = DOpt.Type.LinkRemover)
+	// only need to do this for reflexive association: @MemberRef(name="accounts")
+	public boolean removeTransferOut(Transfer t) {
+		boolean removed;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			removed = transferOut.remove(t);
+			if (removed)
+				transferOutCount--;
+		} finally {
+			unlock(lock);
 		}
+		if (removed)
+			AccountPostingService.getInstance().unpostTransfer(t);
 		// no other attributes changed
 		return false;
 	}
 	
-	private void updateSavingsTransactionAccountBalance() {
-		if (savingsTransactionCount > 0) {
-			for (SavingsTransaction t : savingsTransaction) {
-				if (!allClassID.contains(t.getId())) {
-					this.balance -= t.getAmount();
-					allClassID.add(t.getId());
+	// TransferIn Assoc
+	@DOpt(type = DOpt.Type.LinkAdder)
+	// only need to do this for reflexive association: @MemberRef(name="accounts")
+	public boolean addTransferIn(Transfer t) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			// loaded transfers are already included in the stored balance
+			if (!transferIn.contains(t)) {
+				transferIn.add(t);
+				loadTransfer(t);
+			}
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewTransferIn(Transfer t) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (transferIn.add(t))
+				transferInCount++;
+		} finally {
+			unlock(lock);
+		}
+		// both accounts of t are posted together, by whichever of them is linked first
+		AccountPostingService.getInstance().postTransfer(t);
+		return true;
+	}
+	
+	@DOpt(type = DOpt.Type.LinkAdder)
+	public boolean addTransferIn(Collection<Transfer> transfers) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (Transfer t : transfers) {
+				if (!transferIn.contains(t)) {
+					transferIn.add(t);
+					loadTransfer(t);
 				}
 			}
-		} 
+			// no other attributes changed
+			return false;
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	@DOpt(type = DOpt.Type.LinkAdderNew)
+	public boolean addNewTransferIn(Collection<Transfer> transfers) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			transferInCount += addNew(this.transferIn, transfers);
+		} finally {
+			unlock(lock);
+		}
+		for (Transfer t : transfers) {
+			AccountPostingService.getInstance().postTransfer(t);
+		}
+		return true;
+	}
+	
+	@DOpt(type = DOpt.Type.LinkRemover)
+	// only need to do this for reflexive association: @MemberRef(name="accounts")
+	public boolean removeTransferIn(Transfer t) {
+		boolean removed;
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			removed = transferIn.remove(t);
+			if (removed)
+				transferInCount--;
+		} finally {
+			unlock(lock);
+		}
+		if (removed)
+			AccountPostingService.getInstance().unpostTransfer(t);
+		// no other attributes changed
+		return false;
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>t</tt> is posted to this
+	 *    date its effect in the balance index by its current date instead of <tt>oldDate</tt>
+	 */
+	public void updateTransferDate(Transfer t, Date oldDate) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			moveInIndex(t, posted.isPosted(t), effectOf(t, id), oldDate);
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  mark the loaded transfer <tt>t</tt> as posted to this, if it is not yet
+	 */
+	private void loadTransfer(Transfer t) {
+		if (posted.post(t)) {
+			long effect = effectOf(t, id);
+			index(t, effect);
+			postedNet += effect;
+		}
+	}
+	
+	// transfer posting, driven by AccountPostingService under the posting locks of both accounts
+	boolean isPosted(Transfer t) {
+		return posted.isPosted(t);
+	}
+	
+	/**
+	 * @requires the posting lock of this is held
+	 * @effects 
+	 *  append to the balance journal the change of the effect of <tt>t</tt> on this 
+	 *  from <tt>effectBefore</tt> to <tt>effectAfter</tt>; return the sequence number of the record
+	 */
+	long journalTransfer(Transfer t, long effectBefore, long effectAfter) {
+		return journal(BalanceJournal.KIND_TRANSFER, t.getIdNumber(), effectBefore, effectAfter, balanceMinor);
+	}
+	
+	/**
+	 * @requires the posting lock of this is held /\ the change has been journalled
+	 * @effects 
+	 *  mark <tt>t</tt> as posted to this if <tt>post</tt>, or as not posted otherwise, and apply
+	 *  the resulting change of its effect to this.balance; 
+	 *  the ledger posting of the change has been made
+	 */
+	void applyTransfer(Transfer t, boolean post) {
+		long effect = effectOf(t, id);
+		long delta;
+		if (post) {
+			posted.post(t);
+			delta = effect;
+		} else {
+			posted.unpost(t);
+			delta = -effect;
+		}
+		post(delta);
+		index(t, delta);
+	}
+	
+	// association collections
+	/**
+	 * @effects add to the association collection <tt>coll</tt> those of <tt>objs</tt> that it 
+	 *  does not contain yet; return how many were added
+	 */
+	private static <T> int addNew(Collection<T> coll, Collection<? extends T> objs) {
+		int added = 0;
+		for (T t : objs) {
+			if (coll.add(t))
+				added++;
+		}
+		return added;
+	}
+	
+	// balance posting
+	/**
+	 * @effects return the lock that serialises the mutations of this
+	 */
+	private ReentrantLock postingLock() {
+		return AccountPostingService.getInstance().lockFor(this);
+	}
+	
+	/**
+	 * @effects 
+	 *  if the book of this is not open in the ledger
+	 *    open it with this.balance
+	 *  
+	 *  <p>Called when this is loaded, stored or first posted to, so that an account that is 
+	 *  created but never stored posts no opening balance.
+	 */
+	void openBook() {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (!booked) {
+				Ledger.getInstance().open(id, balanceMinor);
+				booked = true;
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @requires <tt>lock</tt> is the posting lock of this, held by the current thread
+	 * @effects 
+	 *  release <tt>lock</tt>, then wait until the journal records appended while it was held
+	 *  are on disk. The records are forced after the lock is released, so that postings to 
+	 *  the other accounts of the stripe do not wait for the disk. 
+	 */
+	private void unlock(ReentrantLock lock) {
+		long seq = unsynced;
+		unsynced = -1;
+		lock.unlock();
+		if (seq >= 0)
+			BalanceJournal.getInstance().sync(seq);
+	}
+	
+	/**
+	 * @requires the posting lock of this is held
+	 * @effects 
+	 *  journal, then post, the change of the effect of the transaction <tt>source</tt> of 
+	 *  <tt>(kind, key)</tt> on <tt>this.balance</tt> from <tt>effectBefore</tt> to <tt>effectAfter</tt> 
+	 *  (in minor units); record the change in the ledger. 
+	 *  The journal record is forced to disk when the lock is released.
+	 */
+	private void post(byte kind, long key, Object source, long effectBefore, long effectAfter) {
+		if (effectBefore == effectAfter)
+			return;
+		
+		unsynced = Math.max(unsynced, 
+				BalanceJournal.getInstance().append(this, kind, key, effectBefore, effectAfter, balanceMinor));
+		ledger(kind, key, source, effectAfter - effectBefore);
+		post(effectAfter - effectBefore);
+		index(source, effectAfter - effectBefore);
+	}
+	
+	/**
+	 * @effects 
+	 *  record in the ledger the change <tt>delta</tt> (in minor units) of this.balance caused by 
+	 *  the transaction <tt>source</tt> of <tt>(kind, key)</tt>, against the book the transaction 
+	 *  moves money to or from: its category, savings fund or party, or the adjustment book
+	 */
+	private void ledger(byte kind, long key, Object source, long delta) {
+		openBook();
+		char book = Ledger.BOOK_ADJUSTMENT;
+		Object bookId = null;
+		if (source instanceof DailyExpense) {
+			book = Ledger.BOOK_CATEGORY;
+			Category c = ((DailyExpense) source).getCategory();
+			bookId = (c != null) ? c.getId() : null;
+		} else if (source instanceof DailyIncome) {
+			book = Ledger.BOOK_CATEGORY;
+			Category c = ((DailyIncome) source).getCategory();
+			bookId = (c != null) ? c.getId() : null;
+		} else if (source instanceof SavingsTransaction) {
+			book = Ledger.BOOK_SAVINGS;
+			Savings sv = ((SavingsTransaction) source).getSavings();
+			bookId = (sv != null) ? sv.getId() : null;
+		} else if (source instanceof BorrowAndLend) {
+			book = Ledger.BOOK_PARTY;
+			Subjects p = ((BorrowAndLend) source).getSubject();
+			bookId = (p != null) ? p.getId() : null;
+		}
+		Ledger.getInstance().post(kind, key, source, id, book, (bookId != null) ? bookId.toString() : "", delta);
+	}
+	
+	/**
+	 * @effects 
+	 *  append to the balance journal the change of the effect of the transaction <tt>(kind, key)</tt>
+	 *  from <tt>effectBefore</tt> to <tt>effectAfter</tt>, when the balance is <tt>balanceBefore</tt>; 
+	 *  return the sequence number of the record, or -1 if nothing was appended
+	 */
+	private long journal(byte kind, long key, long effectBefore, long effectAfter, long balanceBefore) {
+		if (effectBefore == effectAfter)
+			return -1;
+		
+		return BalanceJournal.getInstance().append(this, kind, key, effectBefore, effectAfter, balanceBefore);
+	}
+	
+	/**
+	 * @effects 
+	 *  add the change <tt>delta</tt> (in minor units) of this.balance caused by the transaction 
+	 *  <tt>source</tt> to the balance index, on the date of <tt>source</tt>
+	 */
+	private void index(Object source, long delta) {
+		Date date = dateOf(source);
+		if (date != null) {
+			balanceIndex.add(Dates.epochDay(date), delta);
+		} else {
+			balanceIndex.addUndated(delta);
+		}
+	}
+	
+	/**
+	 * @effects return the date of the transaction <tt>source</tt>, or null if it has none
+	 */
+	private static Date dateOf(Object source) {
+		if (source instanceof DailyExpense)
+			return ((DailyExpense) source).getDate();
+		if (source instanceof DailyIncome)
+			return ((DailyIncome) source).getDate();
+		if (source instanceof BorrowAndLend)
+			return ((BorrowAndLend) source).getStartDate();
+		if (source instanceof Transfer)
+			return ((Transfer) source).getDate();
+		return null;
+	}
+	
+	/**
+	 * @effects 
+	 *  if <tt>source</tt> is posted to this
+	 *    move its effect in the balance index from <tt>oldDate</tt> to its current date
+	 */
+	private void moveInIndex(Object source, boolean isPosted, long effect, Date oldDate) {
+		if (!isPosted)
+			return;
+		
+		if (oldDate != null) {
+			balanceIndex.add(Dates.epochDay(oldDate), -effect);
+		} else {
+			balanceIndex.addUndated(-effect);
+		}
+		index(source, effect);
+	}
+	
+	/**
+	 * @requires the ledger postings that change this.balance by <tt>delta</tt> (in minor units) 
+	 *  have been made
+	 * @effects 
+	 *  take <tt>this.balance</tt> from the book of this in the ledger; the total balance follows 
+	 *  the postings by itself. 
+	 *  If posting verification is on, check the result against a full recompute
+	 */
+	private void post(long delta) {
+		if (delta == 0)
+			return;
+		
+		balanceMinor = Ledger.getInstance().getBalance(Ledger.BOOK_ACCOUNT, id);
+		balance = Money.toMajor(balanceMinor);
+		postedNet += delta;
+		
+		if (verifyPosting) {
+			verifyBalance();
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  recompute the net effect of all posted transactions from the association collections
+	 *  and compare it to the effect accumulated by incremental posting. 
+	 *  <p>throws ConstraintViolationException if they differ
+	 */
+	public void verifyBalance() throws ConstraintViolationException {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			long recomputed = computePostedNet();
+			if (recomputed != postedNet) {
+				throw new ConstraintViolationException(DExCode.INVALID_POSTED_BALANCE, id, 
+						Money.toMajor(postedNet), Money.toMajor(recomputed));
+			}
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  return the balance of this at the end of the day <tt>date</tt>: the current balance less
+	 *  the effects of the posted transactions dated after it. Transactions without a date 
+	 *  count as dated before every day.
+	 */
+	public double getBalanceAsOf(Date date) {
+		return Money.toMajor(getBalanceMinorAsOf(date));
+	}
+	
+	/**
+	 * @effects return {@link #getBalanceAsOf(Date)} in minor units
+	 */
+	public long getBalanceMinorAsOf(Date date) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			return balanceMinor - balanceIndex.sumAfter(Dates.epochDay(date));
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	// recovery support
+	/**
+	 * @requires the stored transactions of this are loaded
+	 * @effects 
+	 *  correct this.balance to <tt>recovered</tt> (in minor units), the balance that agrees with
+	 *  the stored transactions, by reconciling the book of this in the ledger with it; the total 
+	 *  balance follows the reconciliation. 
+	 *  
+	 *  <p>The correction is neither journalled nor indexed: the transactions it accounts for are
+	 *  already in the balance index, on their own dates, so as-of-date balances stay right.
+	 */
+	void recoverBalance(long recovered) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			openBook();
+			// the legs posted since the checkpoint were lost with the software
+			Ledger.getInstance().reconcile(id, recovered);
+			balanceMinor = Ledger.getInstance().getBalance(Ledger.BOOK_ACCOUNT, id);
+			balance = Money.toMajor(balanceMinor);
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	/**
+	 * @effects return the net effect on balance of all posted transactions of this
+	 */
+	private long computePostedNet() {
+		long net = 0;
+		for (DailyExpense e : dailyExpense) {
+			if (posted.isPosted(e))
+				net += effectOf(e);
+		}
+		for (DailyIncome i : dailyIncome) {
+			if (posted.isPosted(i))
+				net += effectOf(i);
+		}
+		for (SavingsTransaction s : savingsTransaction) {
+			if (posted.isPosted(s))
+				net += effectOf(s);
+		}
+		for (BorrowAndLend bL : borrowAndLend) {
+			if (posted.isPosted(bL))
+				net += effectOf(bL);
+		}
+		for (Transfer t : transferOut) {
+			if (posted.isPosted(t))
+				net += effectOf(t, id);
+		}
+		for (Transfer t : transferIn) {
+			if (posted.isPosted(t))
+				net += effectOf(t, id);
+		}
+		return net;
+	}
+	
+	// effects on balance, in minor units
+	static long effectOf(DailyExpense e) {
+		return -e.getAmountMinor();
+	}
+	
+	static long effectOf(DailyIncome i) {
+		return i.getAmountMinor();
+	}
+	
+	static long effectOf(SavingsTransaction s) {
+		return -s.getAmountMinor();
+	}
+	
+	static long effectOf(BorrowAndLend bL) {
+		return effectOf(bL.getActionType(), bL.getMoneyMinor());
+	}
+	
+	static long effectOf(ActionType actionType, long money) {
+		return (actionType == null) ? 0 : actionType.getDirection() * money;
+	}
+	
+	/**
+	 * @effects 
+	 *  return the effect of <tt>t</tt> on the balance of the account <tt>accountId</tt>: 
+	 *  minus its amount out of <tt>t.fromAccount</tt>, its amount into <tt>t.toAccount</tt>, 
+	 *  and 0 on any other account
+	 */
+	static long effectOf(Transfer t, String accountId) {
+		if (t.getFromAccount() != null && t.getFromAccount().getId().equals(accountId))
+			return -t.getAmountMinor();
+		if (t.getToAccount() != null && t.getToAccount().getId().equals(accountId))
+			return t.getAmountMinor();
+		return 0;
+	}
+	
+	/**
+	 * @effects 
+	 *  turn checking of every incremental posting against a full recompute on or off
+	 */
+	public static void setVerifyPosting(boolean verify) {
+		verifyPosting = verify;
 	}
 	
 	// getter methods
@@ -431,6 +1363,13 @@ public class Account {
 		return balance ;
 	}
 	
+	/**
+	 * @effects return balance in minor units
+	 */
+	public long getBalanceMinor() {
+		return balanceMinor;
+	}
+	
 	public TotalBalance getTotalBalance() {
 		return totalBalance;
 	}
@@ -462,6 +1401,24 @@ public class Account {
 		return borrowAndLendCount;
 	}
 	
+	public Collection<Transfer> getTransferOut() {
+		return transferOut;
+	}
+	
+	@DOpt(type=DOpt.Type.LinkCountGetter)
+	public int getTransferOutCount() {
+		return transferOutCount;
+	}
+	
+	public Collection<Transfer> getTransferIn() {
+		return transferIn;
+	}
+	
+	@DOpt(type=DOpt.Type.LinkCountGetter)
+	public int getTransferInCount() {
+		return transferInCount;
+	}
+	
 	public Collection<DailyIncome> getDailyIncome() {
 		return dailyIncome;
 	}
@@ -485,10 +1442,25 @@ public class Account {
 	}
 
 	public void setBalance(double balance)  throws ConstraintViolationException {
-		if (balance < 0) {
-			throw new ConstraintViolationException(DExCode.INVALID_BALANCE, balance);
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			if (balance < 0) {
+				throw new ConstraintViolationException(DExCode.INVALID_BALANCE, balance);
+			}
+			long newBalance = Money.toMinor(balance);
+			long delta = newBalance - balanceMinor;
+			if (delta != 0) {
+				unsynced = Math.max(unsynced, BalanceJournal.getInstance().append(this, 
+						BalanceJournal.KIND_BALANCE, 0, balanceMinor, newBalance, balanceMinor));
+			}
+			ledger(BalanceJournal.KIND_BALANCE, 0, null, delta);
+			this.balanceMinor = Ledger.getInstance().getBalance(Ledger.BOOK_ACCOUNT, id);
+			this.balance = Money.toMajor(balanceMinor);
+			balanceIndex.add(Dates.today(), delta);
+		} finally {
+			unlock(lock);
 		}
-		this.balance = balance;
 	}
 	
 	public void setTotalBalance(TotalBalance totalBalance) {
@@ -496,8 +1468,25 @@ public class Account {
 	}
 	
 	public void setDailyExpense(Collection<DailyExpense> dailyExpense) {
-		this.dailyExpense = dailyExpense;
-		dailyExpenseCount = dailyExpense.size();
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (DailyExpense t : this.dailyExpense) {
+				if (posted.isPosted(t))
+					index(t, -effectOf(t));
+			}
+			this.dailyExpense = new LinkedHashSet<>(dailyExpense);
+			dailyExpenseCount = dailyExpense.size();
+		
+			posted.resetDailyExpense();
+			for (DailyExpense t : dailyExpense) {
+				if (posted.post(t))
+					index(t, effectOf(t));
+			}
+			postedNet = computePostedNet();
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type=DOpt.Type.LinkCountSetter)
@@ -506,8 +1495,25 @@ public class Account {
 	}
 	
 	public void setSavingsTransaction(Collection<SavingsTransaction> savingsTransaction) {
-		this.savingsTransaction = savingsTransaction;
-		savingsTransactionCount = savingsTransaction.size();
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (SavingsTransaction t : this.savingsTransaction) {
+				if (posted.isPosted(t))
+					index(t, -effectOf(t));
+			}
+			this.savingsTransaction = new LinkedHashSet<>(savingsTransaction);
+			savingsTransactionCount = savingsTransaction.size();
+		
+			posted.resetSavingsTransaction();
+			for (SavingsTransaction t : savingsTransaction) {
+				if (posted.post(t))
+					index(t, effectOf(t));
+			}
+			postedNet = computePostedNet();
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type=DOpt.Type.LinkCountSetter)
@@ -516,8 +1522,25 @@ public class Account {
 	}
 	
 	public void setBorrowAndLend(Collection<BorrowAndLend> borrowAndLend) {
-		this.borrowAndLend = borrowAndLend;
-		borrowAndLendCount = borrowAndLend.size();
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (BorrowAndLend t : this.borrowAndLend) {
+				if (posted.isPosted(t))
+					index(t, -effectOf(t));
+			}
+			this.borrowAndLend = new LinkedHashSet<>(borrowAndLend);
+			borrowAndLendCount = borrowAndLend.size();
+		
+			posted.resetBorrowAndLend();
+			for (BorrowAndLend t : borrowAndLend) {
+				if (posted.post(t))
+					index(t, effectOf(t));
+			}
+			postedNet = computePostedNet();
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type=DOpt.Type.LinkCountSetter)
@@ -526,8 +1549,25 @@ public class Account {
 	}
 	
 	public void setDailyIncome(Collection<DailyIncome> dailyIncome) {
-		this.dailyIncome = dailyIncome;
-		dailyIncomeCount = dailyIncome.size();
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (DailyIncome t : this.dailyIncome) {
+				if (posted.isPosted(t))
+					index(t, -effectOf(t));
+			}
+			this.dailyIncome = new LinkedHashSet<>(dailyIncome);
+			dailyIncomeCount = dailyIncome.size();
+		
+			posted.resetDailyIncome();
+			for (DailyIncome t : dailyIncome) {
+				if (posted.post(t))
+					index(t, effectOf(t));
+			}
+			postedNet = computePostedNet();
+		} finally {
+			unlock(lock);
+		}
 	}
 	
 	@DOpt(type=DOpt.Type.LinkCountSetter)
@@ -535,6 +1575,58 @@ public class Account {
 		this.dailyIncomeCount = dailyIncomeCount;
 	}
 	
+	public void setTransferOut(Collection<Transfer> transferOut) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (Transfer t : this.transferOut) {
+				if (posted.unpost(t))
+					index(t, -effectOf(t, id));
+			}
+			this.transferOut = new LinkedHashSet<>(transferOut);
+			transferOutCount = transferOut.size();
+		
+			for (Transfer t : transferOut) {
+				if (posted.post(t))
+					index(t, effectOf(t, id));
+			}
+			postedNet = computePostedNet();
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	@DOpt(type=DOpt.Type.LinkCountSetter)
+	public void setTransferOutCount(int transferOutCount) {
+		this.transferOutCount = transferOutCount;
+	}
+	
+	public void setTransferIn(Collection<Transfer> transferIn) {
+		ReentrantLock lock = postingLock();
+		lock.lock();
+		try {
+			for (Transfer t : this.transferIn) {
+				if (posted.unpost(t))
+					index(t, -effectOf(t, id));
+			}
+			this.transferIn = new LinkedHashSet<>(transferIn);
+			transferInCount = transferIn.size();
+		
+			for (Transfer t : transferIn) {
+				if (posted.post(t))
+					index(t, effectOf(t, id));
+			}
+			postedNet = computePostedNet();
+		} finally {
+			unlock(lock);
+		}
+	}
+	
+	@DOpt(type=DOpt.Type.LinkCountSetter)
+	public void setTransferInCount(int transferInCount) {
+		this.transferInCount = transferInCount;
+	}
+	
 //	public void setTotalBalance(TotalBalance totalBalance) {
 //		this.totalBalance = totalBalance;
 //	}
@@ -586,12 +1678,7 @@ public class Account {
 	// automatically generate the next account id
 	private String nextID(String id) throws ConstraintViolationException {
 		if (id == null) { // generate a new id
-			if (idCounter == 0) {
-				idCounter = Calendar.getInstance().get(Calendar.YEAR);
-			} else {
-				idCounter++;
-			}
-			return "A" + idCounter;
+			return "A" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -602,9 +1689,7 @@ public class Account {
 						new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 
 			return id;
 		}
@@ -632,8 +1717,7 @@ public class Account {
 	  		  try {
 	  		    int maxIdNum = Integer.parseInt(maxId.substring(1));
 	  		    
-	  		    if (maxIdNum > idCounter) // extra check
-	  		      idCounter = maxIdNum;
+	  		    idSequence.seed(maxIdNum);
 	  		    
 	  		  } catch (RuntimeException e) {
 	  		    throw new ConstraintViolationException(
@@ -0,0 +1,441 @@
+package vn.com.personalfinance.services.account;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import vn.com.personalfinance.datasource.BatchWriter;
+import vn.com.personalfinance.exceptions.DExCode;
+import vn.com.personalfinance.services.borrowandlend.model.BorrowAndLend;
+import vn.com.personalfinance.services.expenseandincome.model.Category;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.ledger.Ledger;
+import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.services.transfer.Transfer;
+import vn.com.personalfinance.utils.LongHashSet;
+
+/**
+ * @overview 
+ * 	Serialises the mutations of each {@link Account} with a fixed array of striped locks. 
+ * 	Every {@link Account} mutator takes the lock of its stripe, so postings from the UI and from
+ *  background importers to the same account are applied one at a time, while postings to accounts 
+ *  on different stripes run in parallel. Reading a balance never takes a lock.
+ *  
+ *  <p>Importers should post through the methods of this class rather than through the 
+ *  <tt>Account</tt> link methods, so that a transaction and its account are updated together.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class AccountPostingService {
+	// must be a power of two
+	private static final int NUM_STRIPES = 64;
+	
+	private static final AccountPostingService instance = new AccountPostingService(NUM_STRIPES);
+	
+	private final ReentrantLock[] locks;
+	
+	// the serialisable attributes of DailyExpense and DailyIncome, in declaration order
+	private static final String[] DAILY_TRANSACTION_ATTRIBUTES = {
+		"id", "idNumber", "amount", "date", "dateToString", "epochDay", "yearKey", "monthKey", "category", "account", "description"
+	};
+	
+	// created on first use, after the software has set up its object store
+	private BatchWriter<DailyExpense> dailyExpenseWriter;
+	private BatchWriter<DailyIncome> dailyIncomeWriter;
+	
+	private AccountPostingService(int numStripes) {
+		locks = new ReentrantLock[numStripes];
+		for (int i = 0; i < numStripes; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	public static AccountPostingService getInstance() {
+		return instance;
+	}
+	
+	/**
+	 * @effects return the lock that guards the mutations of <tt>a</tt>
+	 */
+	public ReentrantLock lockFor(Account a) {
+		return locks[stripeOf(a)];
+	}
+	
+	/**
+	 * @effects return the index of the stripe of <tt>a</tt>, which depends only on its id
+	 */
+	private int stripeOf(Account a) {
+		int h = a.hashCode();
+		h ^= (h >>> 16);
+		return h & (locks.length - 1);
+	}
+	
+	/**
+	 * @effects 
+	 *  take the locks of all stripes, in stripe order, so that no account can be changed 
+	 *  until {@link #unlockAll()}
+	 */
+	void lockAll() {
+		for (ReentrantLock lock : locks) {
+			lock.lock();
+		}
+	}
+	
+	void unlockAll() {
+		for (int i = locks.length - 1; i >= 0; i--) {
+			locks[i].unlock();
+		}
+	}
+	
+	/**
+	 * @requires e.account != null
+	 * @effects post the new daily expense <tt>e</tt> to its account
+	 */
+	public void postDailyExpense(DailyExpense e) {
+		e.getAccount().addNewDailyExpense(e);
+	}
+	
+	/**
+	 * @requires e.account != null
+	 * @effects remove <tt>e</tt> from its account and reverse its posting
+	 */
+	public void unpostDailyExpense(DailyExpense e) {
+		e.getAccount().removeDailyExpense(e);
+	}
+	
+	/**
+	 * @requires i.account != null
+	 * @effects post the new daily income <tt>i</tt> to its account
+	 */
+	public void postDailyIncome(DailyIncome i) {
+		i.getAccount().addNewDailyIncome(i);
+	}
+	
+	/**
+	 * @requires i.account != null
+	 * @effects remove <tt>i</tt> from its account and reverse its posting
+	 */
+	public void unpostDailyIncome(DailyIncome i) {
+		i.getAccount().removeDailyIncome(i);
+	}
+	
+	/**
+	 * @requires s.account != null
+	 * @effects post the new savings transaction <tt>s</tt> to its account
+	 */
+	public void postSavingsTransaction(SavingsTransaction s) {
+		s.getAccount().addNewSavingsTransaction(s);
+	}
+	
+	/**
+	 * @requires s.account != null
+	 * @effects remove <tt>s</tt> from its account and reverse its posting
+	 */
+	public void unpostSavingsTransaction(SavingsTransaction s) {
+		s.getAccount().removeSavingsTransaction(s);
+	}
+	
+	/**
+	 * @requires bL.account != null
+	 * @effects post the new borrow-and-lend <tt>bL</tt> to its account
+	 */
+	public void postBorrowAndLend(BorrowAndLend bL) {
+		bL.getAccount().addNewborrowAndLend(bL);
+	}
+	
+	/**
+	 * @requires bL.account != null
+	 * @effects remove <tt>bL</tt> from its account and reverse its posting
+	 */
+	public void unpostBorrowAndLend(BorrowAndLend bL) {
+		bL.getAccount().removeBorrowAndLend(bL);
+	}
+	
+	/**
+	 * @effects 
+	 *  post the transfer <tt>t</tt> to both of its accounts at once, if it is not posted yet.
+	 *  The total balance is not changed when both accounts belong to the same one.
+	 *  
+	 *  <p>If <tt>t</tt> is not a valid transfer, throws ConstraintViolationException.
+	 */
+	public void postTransfer(Transfer t) throws ConstraintViolationException {
+		String reason = null;
+		if (t.getFromAccount() == null)
+			reason = "no account to transfer from";
+		else if (t.getToAccount() == null)
+			reason = "no account to transfer to";
+		else if (t.getFromAccount().equals(t.getToAccount()))
+			reason = "same account";
+		else if (t.getAmountMinor() <= 0)
+			reason = "amount not positive";
+		
+		if (reason != null)
+			throw new ConstraintViolationException(DExCode.INVALID_TRANSFER, t, reason);
+		
+		changeTransfer(t, true);
+	}
+	
+	/**
+	 * @effects 
+	 *  record the new transfer <tt>t</tt> in the balance journal of both of its accounts, without 
+	 *  changing their balances, and wait until the records are on disk. 
+	 *  
+	 *  <p>Called before <tt>t</tt> is stored, so that recovery accounts for <tt>t</tt> as soon 
+	 *  as it is stored, even if the software stops before <tt>t</tt> is posted.
+	 */
+	public void recordTransfer(Transfer t) {
+		if (t.getFromAccount() == null || t.getToAccount() == null || t.getFromAccount().equals(t.getToAccount()))
+			return;
+		
+		long seq;
+		ReentrantLock[] pair = lock(t);
+		try {
+			seq = BalanceJournal.getInstance().recordTransfer(t);
+		} finally {
+			unlock(pair);
+		}
+		BalanceJournal.getInstance().sync(seq);
+	}
+	
+	/**
+	 * @effects reverse the posting of the transfer <tt>t</tt> on both of its accounts at once
+	 */
+	public void unpostTransfer(Transfer t) {
+		if (t.getFromAccount() != null && t.getToAccount() != null)
+			changeTransfer(t, false);
+	}
+	
+	/**
+	 * @effects 
+	 *  post or unpost <tt>t</tt> on the accounts where it is not yet in that state, journalling 
+	 *  both changes before applying either, and forcing the journal to disk once the locks are 
+	 *  released.
+	 */
+	private void changeTransfer(Transfer t, boolean post) {
+		Account from = t.getFromAccount();
+		Account to = t.getToAccount();
+		
+		long seq = -1;
+		ReentrantLock[] pair = lock(t);
+		try {
+			boolean changeFrom = from.isPosted(t) != post;
+			boolean changeTo = to.isPosted(t) != post;
+			if (!changeFrom && !changeTo)
+				return;
+			
+			long amount = t.getAmountMinor();
+			if (changeFrom)
+				seq = Math.max(seq, from.journalTransfer(t, post ? 0 : -amount, post ? -amount : 0));
+			if (changeTo)
+				seq = Math.max(seq, to.journalTransfer(t, post ? 0 : amount, post ? amount : 0));
+			
+			Ledger ledger = Ledger.getInstance();
+			long fromDelta = post ? -amount : amount;
+			if (changeFrom && changeTo) {
+				from.openBook();
+				to.openBook();
+				ledger.post(BalanceJournal.KIND_TRANSFER, t.getIdNumber(), t, from.getId(), 
+						Ledger.BOOK_ACCOUNT, to.getId(), fromDelta);
+			} else if (changeFrom) {
+				from.openBook();
+				ledger.post(BalanceJournal.KIND_TRANSFER, t.getIdNumber(), t, from.getId(), 
+						Ledger.BOOK_ADJUSTMENT, "", fromDelta);
+			} else {
+				to.openBook();
+				ledger.post(BalanceJournal.KIND_TRANSFER, t.getIdNumber(), t, to.getId(), 
+						Ledger.BOOK_ADJUSTMENT, "", -fromDelta);
+			}
+			
+			// the accounts take their balances from their books
+			if (changeFrom)
+				from.applyTransfer(t, post);
+			if (changeTo)
+				to.applyTransfer(t, post);
+			if (post)
+				BalanceJournal.getInstance().posted(t);
+		} finally {
+			unlock(pair);
+		}
+		if (seq >= 0)
+			BalanceJournal.getInstance().sync(seq);
+	}
+	
+	/**
+	 * @effects 
+	 *  lock the posting locks of the two accounts of <tt>t</tt> and return them. The locks are 
+	 *  taken in stripe order, so that concurrent transfers between the same accounts in opposite
+	 *  directions cannot deadlock.
+	 */
+	private ReentrantLock[] lock(Transfer t) {
+		int fromStripe = stripeOf(t.getFromAccount());
+		int toStripe = stripeOf(t.getToAccount());
+		ReentrantLock first = locks[Math.min(fromStripe, toStripe)];
+		ReentrantLock second = locks[Math.max(fromStripe, toStripe)];
+		
+		first.lock();
+		if (second != first)
+			second.lock();
+		return new ReentrantLock[] { first, second };
+	}
+	
+	private static void unlock(ReentrantLock[] pair) {
+		if (pair[1] != pair[0])
+			pair[1].unlock();
+		pair[0].unlock();
+	}
+	
+	/**
+	 * @requires 
+	 *  the objects in <tt>batch</tt> are new and have not been posted
+	 * @effects 
+	 *  validate all of <tt>batch</tt>, store it with one data source batch, then post it 
+	 *  with one balance update per account and one link update per category.
+	 *  
+	 *  <p>If an entry is invalid, throws ConstraintViolationException; if storing fails, 
+	 *  throws DataSourceException. In both cases nothing is stored or posted. 
+	 *  
+	 *  <p>The batch is stored before it is posted. If posting fails, the postings already made 
+	 *  are reversed and the batch is deleted from the data source again, then the failure is 
+	 *  rethrown. If that fails too, its error is added to the failure as a suppressed exception, 
+	 *  and the batch may stay stored and partly posted.
+	 */
+	public void postDailyExpenses(Collection<DailyExpense> batch) 
+			throws ConstraintViolationException, DataSourceException {
+		LongHashSet ids = new LongHashSet(batch.size());
+		int index = 0;
+		for (DailyExpense e : batch) {
+			validate(index++, e, e == null ? 0 : e.getIdNumber(), ids, 
+					e == null ? 0 : e.getAmountMinor(), e == null ? null : e.getDate(), 
+					e == null ? null : e.getAccount(), e == null ? null : e.getCategory());
+		}
+		
+		synchronized (this) {
+			if (dailyExpenseWriter == null) {
+				dailyExpenseWriter = new BatchWriter<>(QRM.getInstance().getDom(), DailyExpense.class, 
+						DAILY_TRANSACTION_ATTRIBUTES, e -> new Object[] {
+							e.getId(), e.getIdNumber(), e.getAmount(), e.getDate(), e.getDateToString(), 
+							e.getEpochDay(), e.getYearKey(), e.getMonthKey(), 
+							e.getCategory().getId(), e.getAccount().getId(), e.getDescription() });
+			}
+		}
+		dailyExpenseWriter.write(batch);
+		
+		try {
+			Map<Account, List<DailyExpense>> byAccount = new LinkedHashMap<>();
+			Map<Category, List<DailyExpense>> byCategory = new LinkedHashMap<>();
+			for (DailyExpense e : batch) {
+				byAccount.computeIfAbsent(e.getAccount(), k -> new ArrayList<>()).add(e);
+				byCategory.computeIfAbsent(e.getCategory(), k -> new ArrayList<>()).add(e);
+			}
+			
+			byAccount.forEach(Account::addNewDailyExpense);
+			byCategory.forEach(Category::addNewDailyExpense);
+		} catch (RuntimeException ex) {
+			undo(batch, dailyExpenseWriter, e -> {
+				e.getAccount().removeDailyExpense(e);
+				e.getCategory().removeDailyExpense(e);
+			}, ex);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * @requires 
+	 *  the objects in <tt>batch</tt> are new and have not been posted
+	 * @effects 
+	 *  the same as {@link #postDailyExpenses(Collection)}, for daily incomes
+	 */
+	public void postDailyIncomes(Collection<DailyIncome> batch) 
+			throws ConstraintViolationException, DataSourceException {
+		LongHashSet ids = new LongHashSet(batch.size());
+		int index = 0;
+		for (DailyIncome i : batch) {
+			validate(index++, i, i == null ? 0 : i.getIdNumber(), ids, 
+					i == null ? 0 : i.getAmountMinor(), i == null ? null : i.getDate(), 
+					i == null ? null : i.getAccount(), i == null ? null : i.getCategory());
+		}
+		
+		synchronized (this) {
+			if (dailyIncomeWriter == null) {
+				dailyIncomeWriter = new BatchWriter<>(QRM.getInstance().getDom(), DailyIncome.class, 
+						DAILY_TRANSACTION_ATTRIBUTES, i -> new Object[] {
+							i.getId(), i.getIdNumber(), i.getAmount(), i.getDate(), i.getDateToString(), 
+							i.getEpochDay(), i.getYearKey(), i.getMonthKey(), 
+							i.getCategory().getId(), i.getAccount().getId(), i.getDescription() });
+			}
+		}
+		dailyIncomeWriter.write(batch);
+		
+		try {
+			Map<Account, List<DailyIncome>> byAccount = new LinkedHashMap<>();
+			Map<Category, List<DailyIncome>> byCategory = new LinkedHashMap<>();
+			for (DailyIncome i : batch) {
+				byAccount.computeIfAbsent(i.getAccount(), k -> new ArrayList<>()).add(i);
+				byCategory.computeIfAbsent(i.getCategory(), k -> new ArrayList<>()).add(i);
+			}
+			
+			byAccount.forEach(Account::addNewDailyIncome);
+			byCategory.forEach(Category::addNewDailyIncome);
+		} catch (RuntimeException ex) {
+			undo(batch, dailyIncomeWriter, i -> {
+				i.getAccount().removeDailyIncome(i);
+				i.getCategory().removeDailyIncome(i);
+			}, ex);
+			throw ex;
+		}
+	}
+	
+	/**
+	 * @requires <tt>batch</tt> was stored by <tt>writer</tt>
+	 * @effects 
+	 *  reverse the posting of every entry of <tt>batch</tt> with <tt>unpost</tt>, which does 
+	 *  nothing for an entry that is not posted, then delete <tt>batch</tt> with <tt>writer</tt>.
+	 *  If that fails, add its error to <tt>failure</tt>, the error that made the posting fail
+	 */
+	private static <T> void undo(Collection<T> batch, BatchWriter<T> writer, Consumer<T> unpost, 
+			RuntimeException failure) {
+		try {
+			for (T t : batch) {
+				unpost.accept(t);
+			}
+			writer.delete(batch);
+		} catch (DataSourceException | RuntimeException e) {
+			failure.addSuppressed(e);
+		}
+	}
+	
+	/**
+	 * @effects 
+	 *  if the entry at <tt>index</tt> of a batch is not a valid new daily transaction 
+	 *  throws ConstraintViolationException, else record its key in <tt>ids</tt>
+	 */
+	private static void validate(int index, Object entry, long idNumber, LongHashSet ids, 
+			long amountMinor, Date date, Account account, Category category) throws ConstraintViolationException {
+		String reason = null;
+		if (entry == null)
+			reason = "null";
+		else if (account == null)
+			reason = "no account";
+		else if (category == null)
+			reason = "no category";
+		else if (date == null)
+			reason = "no date";
+		else if (amountMinor < 0)
+			reason = "negative amount";
+		else if (!ids.add(idNumber))
+			reason = "duplicate id";
+		
+		if (reason != null)
+			throw new ConstraintViolationException(DExCode.INVALID_BATCH_ENTRY, index, entry, reason);
+	}
+}
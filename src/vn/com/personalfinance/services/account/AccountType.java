@@ -16,6 +16,7 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
+import vn.com.personalfinance.datasource.IdSequence;
 
 /**
  * A domain class whose objects are account types. This class is used as 
@@ -35,7 +36,7 @@ public class AccountType {
 	@DAttr(name="id",id=true,auto=true,length=6,mutable=false,type=Type.Integer)
 	private int id;
 	
-	private static int idCounter;
+	private static final IdSequence idSequence = new IdSequence("AccountType");
 	
 	@DAttr(name = "name", type = Type.String, length = 20, optional = false, cid=true)
 	private String name;
@@ -186,12 +187,10 @@ public class AccountType {
 
 	private static int nextId(Integer currID) {
 		if (currID == null) {
-			idCounter++;
-			return idCounter;
+			return idSequence.nextInt();
 		} else {
 			int num = currID.intValue();
-			if (num > idCounter)
-				idCounter = num;
+			idSequence.seed(num);
 			return currID;
 		}
 	}
@@ -210,8 +209,7 @@ public class AccountType {
 			// TODO: update this for the correct attribute if there are more than one auto
 			// attributes of this class
 			int maxIdVal = (Integer) maxVal;
-			if (maxIdVal > idCounter)
-				idCounter = maxIdVal;
+			idSequence.seed(maxIdVal);
 		}
 	}	
 }
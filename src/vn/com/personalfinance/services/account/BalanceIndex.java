@@ -0,0 +1,127 @@
+package vn.com.personalfinance.services.account;
+
+import java.time.LocalDate;
+
+/**
+ * @overview
+ * 	An index of the changes of one account's balance by the epoch day of the transactions
+ *  that caused them, kept as a Fenwick (binary indexed) tree over a window of days.
+ *  Adding a change and summing the changes after a day both take O(log n) in the number of
+ *  days in the window.
+ *
+ *  <p>The window grows, by doubling, when a change falls outside it; the tree is then rebuilt
+ *  in O(n) from the changes per day. Changes without a date are kept apart and treated as
+ *  earlier than every day. Days before {@link #MIN_DAY} or after {@link #MAX_DAY} are taken as
+ *  those days, so that a mistyped date cannot make the window span thousands of years; the
+ *  balances as of dates inside that range stay exact.
+ *
+ *  <p>Not thread-safe: the owning {@link Account} uses it under its posting lock.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+class BalanceIndex {
+	private static final int INITIAL_CAPACITY = 256;
+
+	// the range of days that the window covers at most
+	static final long MIN_DAY = LocalDate.of(1900, 1, 1).toEpochDay();
+	static final long MAX_DAY = LocalDate.of(2199, 12, 31).toEpochDay();
+
+	// the epoch day of slot 0
+	private long origin;
+	// the change of each day of the window
+	private long[] daily;
+	// the Fenwick tree over daily, 1-based
+	private long[] tree;
+	// the sum of all changes, dated or not
+	private long total;
+	// the sum of the changes without a date
+	private long undated;
+
+	/**
+	 * @effects add the change <tt>delta</tt> (in minor units) on the epoch day <tt>day</tt>
+	 */
+	void add(long day, long delta) {
+		if (delta == 0)
+			return;
+
+		day = clamp(day);
+		total += delta;
+		if (daily == null) {
+			daily = new long[INITIAL_CAPACITY];
+			tree = new long[INITIAL_CAPACITY + 1];
+			origin = day - INITIAL_CAPACITY / 2;
+		} else if (day < origin || day >= origin + daily.length) {
+			resize(day);
+		}
+
+		int slot = (int) (day - origin);
+		daily[slot] += delta;
+		for (int i = slot + 1; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	/**
+	 * @effects add the change <tt>delta</tt> (in minor units) that has no date
+	 */
+	void addUndated(long delta) {
+		total += delta;
+		undated += delta;
+	}
+
+	/**
+	 * @effects return the sum of the changes on the days after the epoch day <tt>day</tt>
+	 */
+	long sumAfter(long day) {
+		return total - sumUpTo(day);
+	}
+
+	/**
+	 * @effects return the sum of the changes without a date or on the days up to <tt>day</tt>
+	 */
+	private long sumUpTo(long day) {
+		day = clamp(day);
+		if (daily == null || day < origin)
+			return undated;
+
+		int last = (int) Math.min(day - origin, daily.length - 1);
+		long sum = undated;
+		for (int i = last + 1; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+
+	private static long clamp(long day) {
+		return Math.max(MIN_DAY, Math.min(MAX_DAY, day));
+	}
+
+	/**
+	 * @effects grow the window, keeping its changes, so that it covers the epoch day <tt>day</tt>
+	 */
+	private void resize(long day) {
+		long first = Math.min(origin, day);
+		long end = Math.max(origin + daily.length, day + 1);
+		int capacity = daily.length;
+		while (capacity < end - first) {
+			capacity *= 2;
+		}
+		// leave room on the side that grew, so that a run of earlier or later days is cheap
+		long newOrigin = (day < origin) ? end - capacity : first;
+
+		long[] newDaily = new long[capacity];
+		System.arraycopy(daily, 0, newDaily, (int) (origin - newOrigin), daily.length);
+		origin = newOrigin;
+		daily = newDaily;
+
+		// build the tree in O(n)
+		tree = new long[capacity + 1];
+		for (int i = 1; i <= capacity; i++) {
+			tree[i] += daily[i - 1];
+			int parent = i + (i & -i);
+			if (parent <= capacity)
+				tree[parent] += tree[i];
+		}
+	}
+}
@@ -0,0 +1,632 @@
+package vn.com.personalfinance.services.account;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotFoundException;
+import domainapp.basics.model.query.Expression.Op;
+import vn.com.personalfinance.datasource.DataSourceToolKit;
+import vn.com.personalfinance.services.borrowandlend.model.BorrowAndLend;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
+import vn.com.personalfinance.services.ledger.Ledger;
+import vn.com.personalfinance.services.ledger.Posting;
+import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.services.transfer.Transfer;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	An append-only write-ahead journal of the balance changes of {@link Account}s.
+ * 	Every change is recorded before it is applied to the balance, and the record is made durable
+ * 	before the posting returns: it is appended while the posting lock of the account is held and
+ * 	forced to disk once the lock is released, so postings to other accounts do not wait for the
+ * 	disk. Records of concurrent postings are forced together (group commit), so one fsync
+ *  serves every posting that is waiting for it.
+ *
+ *  <p>Balances are stored only by a checkpoint: between checkpoints, recovery from the journal
+ *  is the only source of durability of the balances. A change whose record was not yet forced
+ *  when the software stopped is lost, together with its record.
+ *
+ *  <p>A record holds the account, the kind and key of the transaction, the effect of the
+ *  transaction on the balance before and after the change, and the balance before and after.
+ *  A checkpoint stores the balance of every changed account and empties the journal, so
+ *  recovery only reads the records written since the last checkpoint.
+ *
+ *  <p>The journal is kept in <tt>balance.wal</tt> in the directory given by the system property
+ *  <tt>personalfinance.journal.dir</tt> (default: <tt>data</tt>), and can be turned off by setting
+ *  <tt>personalfinance.journal.enabled</tt> to <tt>false</tt>. Checkpoints are taken periodically,
+ *  every <tt>personalfinance.checkpoint.period</tt> seconds (default: 300), once 
+ *  {@link #schedule()} has been called.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class BalanceJournal {
+	// transaction kinds
+	public static final byte KIND_DAILY_EXPENSE = 'E';
+	public static final byte KIND_DAILY_INCOME = 'I';
+	public static final byte KIND_SAVINGS_TRANSACTION = 'S';
+	public static final byte KIND_BORROW_AND_LEND = 'B';
+	public static final byte KIND_TRANSFER = 'T';
+	/** a balance that is set directly rather than posted */
+	public static final byte KIND_BALANCE = 'A';
+
+	// record operations
+	private static final byte OP_POST = 1;
+	private static final byte OP_CHECKPOINT = 2;
+
+	private static final int ACCOUNT_ID_LENGTH = 16;
+	// seq, op, kind, key, account id, effect before/after, balance before/after, crc
+	private static final int RECORD_SIZE = 8 + 1 + 1 + 8 + ACCOUNT_ID_LENGTH + 4 * 8 + 4;
+	// records buffered between two forces to disk
+	private static final int BUFFER_RECORDS = 256;
+
+	private static final long CHECKPOINT_PERIOD = Long.getLong("personalfinance.checkpoint.period", 300);
+
+	private static final Logger LOG = Logger.getLogger(BalanceJournal.class.getName());
+
+	private static final BalanceJournal instance = new BalanceJournal();
+
+	private final File file;
+	private FileChannel channel;
+
+	// guards buffer and nextSeq
+	private final Object appendLock = new Object();
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(RECORD_SIZE * BUFFER_RECORDS);
+	private long nextSeq;
+
+	// guards the forces to disk; durableSeq is the last record on disk
+	private final Object syncLock = new Object();
+	private volatile long durableSeq;
+
+	// the accounts changed since the last checkpoint
+	private final Map<String, Account> dirty = new ConcurrentHashMap<>();
+	
+	// the new transfers recorded by recordTransfer(Transfer) and not posted yet, by idNumber
+	private final Map<Long, Transfer> unposted = new ConcurrentHashMap<>();
+	
+	// the records after the last checkpoint that were found at start-up, per account
+	private volatile Map<String, RecoveredAccount> pendingTail = new LinkedHashMap<>();
+
+	private final CRC32 crc = new CRC32();
+
+	private ScheduledExecutorService scheduler;
+
+	private BalanceJournal() {
+		File dir = new File(System.getProperty("personalfinance.journal.dir", "data"));
+		file = new File(dir, "balance.wal");
+
+		if (!Boolean.parseBoolean(System.getProperty("personalfinance.journal.enabled", "true")))
+			return;
+
+		try {
+			dir.mkdirs();
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			pendingTail = readTail();
+		} catch (IOException e) {
+			// run without a journal
+			LOG.log(Level.WARNING, "Cannot open balance journal " + file + "; balance changes are not journalled", e);
+			channel = null;
+		}
+	}
+
+	public static BalanceJournal getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @effects return true if changes are journalled
+	 */
+	public boolean isEnabled() {
+		return channel != null;
+	}
+	
+	/**
+	 * @effects 
+	 *  return true if the journal had records of changes to the account <tt>accountId</tt>
+	 *  after the last checkpoint when the software started, and they have not been recovered yet 
+	 */
+	public boolean hasPendingChanges(String accountId) {
+		return pendingTail.containsKey(accountId);
+	}
+	
+	/**
+	 * @effects return true if {@link #hasPendingChanges(String)} for some account
+	 */
+	public boolean hasPendingChanges() {
+		return !pendingTail.isEmpty();
+	}
+
+	/**
+	 * @requires the caller holds the posting lock of <tt>a</tt>
+	 * @effects
+	 *  append a record of the change of the effect of transaction <tt>(kind, key)</tt> on the
+	 *  balance of <tt>a</tt>, from <tt>effectBefore</tt> to <tt>effectAfter</tt> (in minor units),
+	 *  which changes the balance from <tt>balanceBefore</tt>; return the record's sequence number.
+	 *  The record is durable only after {@link #sync(long)}.
+	 */
+	long append(Account a, byte kind, long key, long effectBefore, long effectAfter, long balanceBefore) {
+		dirty.put(a.getId(), a);
+		if (channel == null)
+			return -1;
+
+		long balanceAfter = balanceBefore + effectAfter - effectBefore;
+
+		synchronized (appendLock) {
+			if (!buffer.hasRemaining())
+				flush();
+
+			long seq = ++nextSeq;
+			putRecord(seq, OP_POST, kind, key, a.getId(), effectBefore, effectAfter, balanceBefore, balanceAfter);
+			return seq;
+		}
+	}
+
+	/**
+	 * @requires the caller holds the posting locks of both accounts of <tt>t</tt>
+	 * @effects
+	 *  append, for each account of the new transfer <tt>t</tt>, a record of <tt>t</tt> that leaves 
+	 *  the balance unchanged; return the sequence number of the last record. 
+	 *  The records are appended again at every checkpoint until {@link #posted(Transfer)}.
+	 *  
+	 *  <p>Recovery adds the stored effect of every transaction in the journal, so once <tt>t</tt> 
+	 *  is stored, it is accounted for whether or not it was posted.
+	 */
+	long recordTransfer(Transfer t) {
+		if (channel == null)
+			return -1;
+		
+		unposted.put(t.getIdNumber(), t);
+		append(t.getFromAccount(), KIND_TRANSFER, t.getIdNumber(), 0, 0, t.getFromAccount().getBalanceMinor());
+		return append(t.getToAccount(), KIND_TRANSFER, t.getIdNumber(), 0, 0, t.getToAccount().getBalanceMinor());
+	}
+	
+	/**
+	 * @effects forget the record of the transfer <tt>t</tt>, which has been posted
+	 */
+	void posted(Transfer t) {
+		unposted.remove(t.getIdNumber());
+	}
+
+	/**
+	 * @effects
+	 *  return when the record <tt>seq</tt> and all records before it are on disk;
+	 *  if <tt>seq</tt> is negative, return at once
+	 */
+	void sync(long seq) {
+		if (channel == null || seq < 0 || durableSeq >= seq)
+			return;
+
+		synchronized (syncLock) {
+			// an earlier force may have covered seq
+			if (durableSeq >= seq)
+				return;
+
+			long last;
+			synchronized (appendLock) {
+				last = nextSeq;
+				flush();
+			}
+			force();
+			durableSeq = last;
+		}
+	}
+
+	/**
+	 * @effects
+	 *  store the balances of all accounts changed since the last checkpoint in one data source 
+	 *  transaction; then empty the journal and record a checkpoint in it. 
+	 *  Throws DataSourceException if the balances cannot be stored.
+	 *
+	 *  <p>Postings are held back while the checkpoint is taken, so that no change is recorded
+	 *  before the checkpoint but applied after the balances are stored.
+	 */
+	public void checkpoint() throws DataSourceException {
+		AccountPostingService service = AccountPostingService.getInstance();
+		service.lockAll();
+		try {
+			Map<String, Account> changed = new LinkedHashMap<>(dirty);
+			if (changed.isEmpty() && channel == null && !Ledger.getInstance().hasPending()
+					&& !ExpenseAndIncomeRollup.getInstance().hasPending())
+				return;
+			
+			storeBalances(changed.values());
+			dirty.keySet().removeAll(changed.keySet());
+
+			if (channel == null)
+				return;
+			
+			synchronized (syncLock) {
+				synchronized (appendLock) {
+					// every journalled change is now stored
+					buffer.clear();
+					try {
+						channel.truncate(0);
+						channel.position(0);
+					} catch (IOException e) {
+						throw new IllegalStateException("Cannot write balance journal " + file, e);
+					}
+
+					putRecord(++nextSeq, OP_CHECKPOINT, (byte) 0, 0, "", 0, 0, 0, 0);
+					// the transfers recorded before they were stored must still be found by recovery
+					for (Transfer t : unposted.values()) {
+						for (Account a : new Account[] { t.getFromAccount(), t.getToAccount() }) {
+							if (!buffer.hasRemaining())
+								flush();
+							putRecord(++nextSeq, OP_POST, KIND_TRANSFER, t.getIdNumber(), a.getId(), 
+									0, 0, a.getBalanceMinor(), a.getBalanceMinor());
+						}
+					}
+					flush();
+					force();
+					durableSeq = nextSeq;
+				}
+			}
+		} finally {
+			service.unlockAll();
+		}
+	}
+
+	/**
+	 * @effects
+	 *  take a checkpoint every {@link #CHECKPOINT_PERIOD} seconds, on a background thread
+	 */
+	public synchronized void schedule() {
+		if (scheduler != null || CHECKPOINT_PERIOD <= 0)
+			return;
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "balance-checkpoint");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				checkpoint();
+			} catch (Exception e) {
+				// try again at the next period
+				LOG.log(Level.WARNING, "Balance checkpoint failed; retrying in " + CHECKPOINT_PERIOD + "s", e);
+			}
+		}, CHECKPOINT_PERIOD, CHECKPOINT_PERIOD, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @effects
+	 *  read the records written since the last checkpoint and correct the balance of every
+	 *  account they touch, so that it agrees with the stored transactions; then take a checkpoint.
+	 *
+	 *  <p>The balance of an account is recovered as its balance at the checkpoint plus, for each
+	 *  journalled transaction, the difference between its stored effect and its effect at the
+	 *  checkpoint. Only the transactions in the tail of the journal are read. The correction
+	 *  is not journalled again, nor dated: the transactions it accounts for are already in the
+	 *  balance index of the account, on their own dates. The ledger book of every such account
+	 *  is reconciled with its recovered balance.
+	 */
+	public void recover() throws DataSourceException {
+		if (channel == null)
+			return;
+
+		Map<String, RecoveredAccount> tail = pendingTail;
+		DOMBasic dom = QRM.getInstance().getDom();
+		addTransferCounterparts(dom, tail);
+		for (RecoveredAccount r : tail.values()) {
+			long expected = r.base;
+			for (Map.Entry<String, Long> t : r.effectBefore.entrySet()) {
+				String txn = t.getKey();
+				expected += storedEffect(dom, (byte) txn.charAt(0), Long.parseLong(txn.substring(1)), r.accountId) 
+						- t.getValue();
+			}
+
+			Account a = retrieveOne(dom, Account.class, "id", r.accountId);
+			if (a == null)
+				continue;
+			if (a.getBalanceMinor() != expected) {
+				// stored at the checkpoint below
+				dirty.put(a.getId(), a);
+			}
+			// also reconciles the book of a, whose legs posted since the checkpoint were lost
+			a.recoverBalance(expected);
+		}
+
+		checkpoint();
+		pendingTail = new LinkedHashMap<>();
+	}
+
+	// recovery
+	/**
+	 * @effects
+	 *  read the journal from the start and return, per account, the records after the last
+	 *  checkpoint; drop a torn record at the end, if any. 
+	 *  Runs once, when the journal is opened.
+	 */
+	private Map<String, RecoveredAccount> readTail() throws IOException {
+		Map<String, RecoveredAccount> tail = new LinkedHashMap<>();
+		ByteBuffer rec = ByteBuffer.allocate(RECORD_SIZE);
+		byte[] idBytes = new byte[ACCOUNT_ID_LENGTH];
+		long pos = 0;
+
+		channel.position(0);
+		while (true) {
+			rec.clear();
+			while (rec.hasRemaining() && channel.read(rec) > 0);
+			if (rec.hasRemaining() || !checksumOK(rec))
+				break;
+
+			rec.flip();
+			long seq = rec.getLong();
+			byte op = rec.get();
+			byte kind = rec.get();
+			long key = rec.getLong();
+			rec.get(idBytes);
+			String accountId = new String(idBytes, StandardCharsets.UTF_8).trim();
+			long effectBefore = rec.getLong();
+			rec.getLong(); // effect after
+			long balanceBefore = rec.getLong();
+			long balanceAfter = rec.getLong();
+
+			nextSeq = seq;
+			pos += RECORD_SIZE;
+
+			if (op == OP_CHECKPOINT) {
+				tail.clear();
+			} else {
+				RecoveredAccount r = tail.get(accountId);
+				if (r == null) {
+					r = new RecoveredAccount(accountId, balanceBefore);
+					tail.put(accountId, r);
+				}
+				if (kind == KIND_BALANCE) {
+					// a balance set directly overrides the postings before it
+					r.base = balanceAfter;
+					r.effectBefore.clear();
+				} else {
+					r.effectBefore.putIfAbsent((char) kind + Long.toString(key), effectBefore);
+				}
+			}
+		}
+
+		channel.truncate(pos);
+		channel.position(pos);
+		durableSeq = nextSeq;
+		return tail;
+	}
+
+	/**
+	 * @effects 
+	 *  for each stored transfer in <tt>tail</tt>, add its other account to <tt>tail</tt>, with 
+	 *  the opposite effect before, if that account's record of the transfer did not survive.
+	 *  
+	 *  <p>The two records of a transfer are forced to disk together, but a crash can still tear
+	 *  the second. A transfer that is no longer stored has lost its accounts, so only the account
+	 *  whose record survived can be recovered.
+	 */
+	private static void addTransferCounterparts(DOMBasic dom, Map<String, RecoveredAccount> tail) 
+			throws DataSourceException {
+		for (RecoveredAccount r : new ArrayList<>(tail.values())) {
+			for (Map.Entry<String, Long> t : new ArrayList<>(r.effectBefore.entrySet())) {
+				String txn = t.getKey();
+				if (txn.charAt(0) != KIND_TRANSFER)
+					continue;
+				
+				Transfer transfer = retrieveOne(dom, Transfer.class, Transfer.T_idNumber, Long.parseLong(txn.substring(1)));
+				if (transfer == null || transfer.getFromAccount() == null || transfer.getToAccount() == null)
+					continue;
+				
+				Account other = transfer.getFromAccount().getId().equals(r.accountId) 
+						? transfer.getToAccount() : transfer.getFromAccount();
+				RecoveredAccount o = tail.computeIfAbsent(other.getId(), 
+						id -> new RecoveredAccount(id, other.getBalanceMinor()));
+				// a transfer's effects on its two accounts are opposite
+				o.effectBefore.putIfAbsent(txn, -t.getValue());
+			}
+		}
+	}
+
+	/**
+	 * @effects return the effect on the balance of the account <tt>accountId</tt> of the stored 
+	 *  transaction <tt>(kind, key)</tt>, or 0 if it is not stored
+	 */
+	private static long storedEffect(DOMBasic dom, byte kind, long key, String accountId) throws DataSourceException {
+		switch (kind) {
+		case KIND_DAILY_EXPENSE:
+			DailyExpense e = retrieveOne(dom, DailyExpense.class, "idNumber", key);
+			return e == null ? 0 : Account.effectOf(e);
+		case KIND_DAILY_INCOME:
+			DailyIncome i = retrieveOne(dom, DailyIncome.class, "idNumber", key);
+			return i == null ? 0 : Account.effectOf(i);
+		case KIND_SAVINGS_TRANSACTION:
+			SavingsTransaction s = retrieveOne(dom, SavingsTransaction.class, "idNumber", key);
+			return s == null ? 0 : Account.effectOf(s);
+		case KIND_BORROW_AND_LEND:
+			BorrowAndLend bL = retrieveOne(dom, BorrowAndLend.class, "id", (int) key);
+			return bL == null ? 0 : Account.effectOf(bL);
+		case KIND_TRANSFER:
+			Transfer t = retrieveOne(dom, Transfer.class, Transfer.T_idNumber, key);
+			return t == null ? 0 : Account.effectOf(t, accountId);
+		default:
+			return 0;
+		}
+	}
+
+	private static <T> T retrieveOne(DOMBasic dom, Class<T> cls, String attrib, Object val)
+			throws DataSourceException {
+		try {
+			Collection<T> objs = dom.retrieveObjects(cls, attrib, Op.EQ, val);
+			Iterator<T> it = (objs != null) ? objs.iterator() : null;
+			return (it != null && it.hasNext()) ? it.next() : null;
+		} catch (NotFoundException e) {
+			return null;
+		}
+	}
+
+	private static class RecoveredAccount {
+		final String accountId;
+		// balance at the checkpoint, or set directly after it
+		long base;
+		// effect of each journalled transaction before its first change in the tail
+		final Map<String, Long> effectBefore = new HashMap<>();
+
+		RecoveredAccount(String accountId, long base) {
+			this.accountId = accountId;
+			this.base = base;
+		}
+	}
+
+	// record I/O
+	private void putRecord(long seq, byte op, byte kind, long key, String accountId,
+			long effectBefore, long effectAfter, long balanceBefore, long balanceAfter) {
+		int start = buffer.position();
+		byte[] id = accountId.getBytes(StandardCharsets.UTF_8);
+
+		buffer.putLong(seq);
+		buffer.put(op);
+		buffer.put(kind);
+		buffer.putLong(key);
+		for (int i = 0; i < ACCOUNT_ID_LENGTH; i++) {
+			buffer.put(i < id.length ? id[i] : (byte) ' ');
+		}
+		buffer.putLong(effectBefore);
+		buffer.putLong(effectAfter);
+		buffer.putLong(balanceBefore);
+		buffer.putLong(balanceAfter);
+
+		crc.reset();
+		ByteBuffer body = buffer.duplicate();
+		body.position(start).limit(start + RECORD_SIZE - 4);
+		crc.update(body);
+		buffer.putInt((int) crc.getValue());
+	}
+
+	/**
+	 * @requires rec is a full record read from the journal
+	 */
+	private boolean checksumOK(ByteBuffer rec) {
+		crc.reset();
+		crc.update(rec.array(), 0, RECORD_SIZE - 4);
+		return (int) crc.getValue() == rec.getInt(RECORD_SIZE - 4);
+	}
+
+	/**
+	 * @requires the caller holds appendLock
+	 * @effects write the buffered records to the journal file (without forcing them to disk)
+	 */
+	private void flush() {
+		buffer.flip();
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write balance journal " + file, e);
+		} finally {
+			buffer.clear();
+		}
+	}
+
+	private void force() {
+		try {
+			channel.force(false);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write balance journal " + file, e);
+		}
+	}
+
+	/**
+	 * @effects 
+	 *  store the balances of <tt>accounts</tt> and of their total balances in one data source 
+	 *  transaction
+	 */
+	private static void storeBalances(Collection<Account> accounts) 
+			throws DataSourceException {
+		Ledger ledger = Ledger.getInstance();
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (accounts.isEmpty() && !ledger.hasPending() && !rollup.hasPending())
+			return;
+
+		DOMBasic dom = QRM.getInstance().getDom();
+		String sqlAccount = "UPDATE " + DataSourceToolKit.table(Account.class.getSimpleName())
+			+ " SET " + DataSourceToolKit.columnOf(dom, Account.class, Account.A_balance) + " = ?, "
+			+ DataSourceToolKit.columnOf(dom, Account.class, Account.A_balanceMinor) + " = ?"
+			+ " WHERE " + DataSourceToolKit.columnOf(dom, Account.class, "id") + " = ?";
+		String sqlTotal = "UPDATE " + DataSourceToolKit.table(TotalBalance.class.getSimpleName())
+			+ " SET " + DataSourceToolKit.columnOf(dom, TotalBalance.class, TotalBalance.A_totalBalance) + " = ?, "
+			+ DataSourceToolKit.columnOf(dom, TotalBalance.class, TotalBalance.A_totalBalanceMinor) + " = ?"
+			+ " WHERE " + DataSourceToolKit.columnOf(dom, TotalBalance.class, "id") + " = ?";
+		
+		Map<String, TotalBalance> totals = new LinkedHashMap<>();
+		for (Account a : accounts) {
+			TotalBalance t = a.getTotalBalance();
+			if (t != null)
+				totals.putIfAbsent(t.getId(), t);
+		}
+
+		List<Posting> postings = Collections.emptyList();
+		Map<ExpenseAndIncomeRollup.Cell, long[]> rollupChanges = Collections.emptyMap();
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			conn.setAutoCommit(false);
+			try {
+				try (PreparedStatement stmt = conn.prepareStatement(sqlAccount)) {
+					for (Account a : accounts) {
+						long balance = a.getBalanceMinor();
+						stmt.setDouble(1, Money.toMajor(balance));
+						stmt.setLong(2, balance);
+						stmt.setString(3, a.getId());
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
+				try (PreparedStatement stmt = conn.prepareStatement(sqlTotal)) {
+					for (TotalBalance t : totals.values()) {
+						long total = t.getTotalBalanceMinor();
+						stmt.setDouble(1, Money.toMajor(total));
+						stmt.setLong(2, total);
+						stmt.setString(3, t.getId());
+						stmt.addBatch();
+					}
+					stmt.executeBatch();
+				}
+				// the ledger and the rollups agree with the stored balances
+				postings = ledger.flush(conn);
+				rollupChanges = rollup.flush(conn);
+				conn.commit();
+				rollup.written();
+			} catch (SQLException e) {
+				conn.rollback();
+				ledger.restorePending(postings);
+				rollup.restorePending(rollupChanges);
+				throw e;
+			}
+		} catch (SQLException e) {
+			throw new DataSourceException(DataSourceException.Code.FAIL_TO_UPDATE_OBJECT_ATTRIB, e,
+					"Account.balance");
+		}
+	}
+}
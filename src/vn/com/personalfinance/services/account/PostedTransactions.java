@@ -0,0 +1,120 @@
+package vn.com.personalfinance.services.account;
+
+import vn.com.personalfinance.services.borrowandlend.model.BorrowAndLend;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.services.transfer.Transfer;
+import vn.com.personalfinance.utils.LongHashSet;
+
+/**
+ * @overview 
+ * 	Records which transactions linked to an {@link Account} have already been posted to its balance.
+ * 	There is one primitive-keyed hash set per association, so that checking, marking and 
+ *  unmarking a transaction take constant time however long the account history is.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+class PostedTransactions {
+	private final LongHashSet dailyExpense;
+	private final LongHashSet dailyIncome;
+	private final LongHashSet savingsTransaction;
+	private final LongHashSet borrowAndLend;
+	// both the transfers out of and into the account
+	private final LongHashSet transfer;
+	
+	PostedTransactions() {
+		dailyExpense = new LongHashSet();
+		dailyIncome = new LongHashSet();
+		savingsTransaction = new LongHashSet();
+		borrowAndLend = new LongHashSet();
+		transfer = new LongHashSet();
+	}
+	
+	// DailyExpense
+	/**
+	 * @effects 
+	 *  mark <tt>e</tt> as posted; return true if it was not posted before
+	 */
+	boolean post(DailyExpense e) {
+		return dailyExpense.add(e.getIdNumber());
+	}
+	
+	boolean unpost(DailyExpense e) {
+		return dailyExpense.remove(e.getIdNumber());
+	}
+	
+	boolean isPosted(DailyExpense e) {
+		return dailyExpense.contains(e.getIdNumber());
+	}
+	
+	// DailyIncome
+	boolean post(DailyIncome i) {
+		return dailyIncome.add(i.getIdNumber());
+	}
+	
+	boolean unpost(DailyIncome i) {
+		return dailyIncome.remove(i.getIdNumber());
+	}
+	
+	boolean isPosted(DailyIncome i) {
+		return dailyIncome.contains(i.getIdNumber());
+	}
+	
+	// SavingsTransaction
+	boolean post(SavingsTransaction s) {
+		return savingsTransaction.add(s.getIdNumber());
+	}
+	
+	boolean unpost(SavingsTransaction s) {
+		return savingsTransaction.remove(s.getIdNumber());
+	}
+	
+	boolean isPosted(SavingsTransaction s) {
+		return savingsTransaction.contains(s.getIdNumber());
+	}
+	
+	// BorrowAndLend
+	boolean post(BorrowAndLend bL) {
+		return borrowAndLend.add(bL.getId());
+	}
+	
+	boolean unpost(BorrowAndLend bL) {
+		return borrowAndLend.remove(bL.getId());
+	}
+	
+	boolean isPosted(BorrowAndLend bL) {
+		return borrowAndLend.contains(bL.getId());
+	}
+	
+	// Transfer
+	boolean post(Transfer t) {
+		return transfer.add(t.getIdNumber());
+	}
+	
+	boolean unpost(Transfer t) {
+		return transfer.remove(t.getIdNumber());
+	}
+	
+	boolean isPosted(Transfer t) {
+		return transfer.contains(t.getIdNumber());
+	}
+	
+	// rebuild after an association collection has been replaced
+	void resetDailyExpense() {
+		dailyExpense.clear();
+	}
+	
+	void resetDailyIncome() {
+		dailyIncome.clear();
+	}
+	
+	void resetSavingsTransaction() {
+		savingsTransaction.clear();
+	}
+	
+	void resetBorrowAndLend() {
+		borrowAndLend.clear();
+	}
+}
@@ -3,6 +3,9 @@ package vn.com.personalfinance.services.account;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.model.meta.DAssoc;
@@ -16,18 +19,35 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
+import vn.com.personalfinance.services.ledger.Ledger;
+import vn.com.personalfinance.services.ledger.PostingListener;
 
 @DClass(schema="personalfinancemanager")
 public class TotalBalance {
 	public static final String A_totalBalance = "totalBalance";
+	public static final String A_totalBalanceMinor = "totalBalanceMinor";
 	public static final String A_accounts = "accounts";
 	
 	@DAttr(name = "id", id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	private String id;
-	private static int idCounter = 0;
+	// ids start from the current year
+	private static final IdSequence idSequence = new IdSequence("TotalBalance", Calendar.getInstance().get(Calendar.YEAR));
 	
 	@DAttr(name = A_totalBalance, type = Type.Double, auto = true, length = 15, mutable = false, optional = true)
 	private double totalBalance;
+	// totalBalance in minor units, as stored so that it is read back exactly; like totalBalance, 
+	// it is read through its getter, which derives it from totalBalanceAdder
+	@DAttr(name = A_totalBalanceMinor, type = Type.Long, auto = true, mutable = false, optional = true)
+	private long totalBalanceMinor;
+	// totalBalance in minor units, kept exact by integer arithmetic. 
+	// Accounts on different posting stripes add to it concurrently, so it is the only copy
+	// kept up to date: getTotalBalance() and getTotalBalanceMinor() derive from it
+	private final LongAdder totalBalanceAdder = new LongAdder();
+	// the listeners that add the postings to the ledger books of the accounts to totalBalance, 
+	// by account id
+	private final Map<String, PostingListener> watching = new ConcurrentHashMap<>();
 	
 	@DAttr(name = A_accounts, type = Type.Collection, optional = false,
 	serialisable = false, filter = @Select(clazz = Account.class))
@@ -39,15 +59,14 @@ public class TotalBalance {
 	
 	@DOpt(type=DOpt.Type.ObjectFormConstructor)
 	public TotalBalance() {
-		this(null, 0.0);
+		this(null, 0.0, null);
 	}
 	
 	@DOpt(type=DOpt.Type.DataSourceConstructor)
-	public TotalBalance(String id, Double totalBalance) {    
+	public TotalBalance(String id, Double totalBalance, Long totalBalanceMinor) {    
 	    // assign other values
 		this.id = nextID(id);
-//	    this.totalBalance = totalBalance;
-	    computeTotalBalance(totalBalance);
+	    this.totalBalanceAdder.add((totalBalanceMinor != null) ? totalBalanceMinor : Money.toMinor(totalBalance));
 	    
 	    accounts = new ArrayList<>();
 	    accountsCount = 0;
@@ -57,8 +76,18 @@ public class TotalBalance {
 		return id;
 	}
 
+	/**
+	 * @effects return totalBalance, as of the deltas posted so far
+	 */
 	public double getTotalBalance() {
-		return totalBalance;
+		return Money.toMajor(totalBalanceAdder.sum());
+	}
+	
+	/**
+	 * @effects return totalBalance in minor units
+	 */
+	public long getTotalBalanceMinor() {
+		return totalBalanceAdder.sum();
 	}
 
 	@DOpt(type = DOpt.Type.LinkAdder)
@@ -66,6 +95,7 @@ public class TotalBalance {
 		if (!this.accounts.contains(a)) {
 			accounts.add(a);
 		}
+		watch(a);
 		// no other attributes changed
 		return false;
 	}
@@ -75,8 +105,10 @@ public class TotalBalance {
 		accounts.add(a);
 		accountsCount++;
 
-		// no other attributes changed
-		computeTotalBalance(0.0);
+		// a is stored now
+		a.openBook();
+		watch(a);
+		postDelta(a.getBalanceMinor());
 		return true;
 	}
 	
@@ -86,6 +118,7 @@ public class TotalBalance {
 			if (!this.accounts.contains(a)) {
 				this.accounts.add(a);
 			}
+			watch(a);
 		}
 		// no other attributes changed
 		return false;
@@ -96,14 +129,17 @@ public class TotalBalance {
 		this.accounts.addAll(accounts);
 		accountsCount += accounts.size();
 		
-		// no other attributes changed
-		computeTotalBalance(0.0);
+		for (Account a : accounts) {
+			a.openBook();
+			watch(a);
+			postDelta(a.getBalanceMinor());
+		}
 		return true;
 	}
 	
 	@DOpt(type = DOpt.Type.LinkUpdater)
 	public boolean updateAccount(Account a) {
-		computeTotalBalance(0.0);
+		// balance changes of a have already been posted to its book
 		return true;
 	}
 	
@@ -114,7 +150,8 @@ public class TotalBalance {
 
 		if (removed) {
 			accountsCount--;	
-			computeTotalBalance(0.0);
+			unwatch(a);
+			postDelta(-a.getBalanceMinor());
 		}
 		// no other attributes changed
 		return false;
@@ -131,9 +168,15 @@ public class TotalBalance {
 	}
 	
 	public void setAccounts(Collection<Account> account) {
+		for (Account a : this.accounts) {
+			unwatch(a);
+		}
 		this.accounts = account;
+		for (Account a : account) {
+			watch(a);
+		}
 		accountsCount = account.size();
-		computeTotalBalance(0.0);
+		recomputeTotalBalance();
 	}
 	
 	@DOpt(type=DOpt.Type.LinkCountSetter)
@@ -141,26 +184,50 @@ public class TotalBalance {
 		this.accountsCount = accountsCount;
 	}
 	
-	private void computeTotalBalance(double totalBalance) {
-		if(accountsCount > 0) {
-			double tempBalance = 0.0;
-			for(Account a : accounts) {
-				tempBalance += a.getBalance();
-			}
-			this.totalBalance = tempBalance;
-		} else {
-			this.totalBalance = totalBalance;
+	/**
+	 * @effects 
+	 *  add <tt>delta</tt> (in minor units) to <tt>totalBalance</tt>, for an account that joins 
+	 *  or leaves this
+	 */
+	private void postDelta(long delta) {
+		totalBalanceAdder.add(delta);
+	}
+	
+	/**
+	 * @effects 
+	 *  from now on, add every posting to the ledger book of <tt>a</tt> to <tt>totalBalance</tt>
+	 */
+	private void watch(Account a) {
+		watching.computeIfAbsent(a.getId(), id -> {
+			PostingListener l = p -> totalBalanceAdder.add(p.getAmountOf(Ledger.BOOK_ACCOUNT, id));
+			Ledger.getInstance().watch(Ledger.BOOK_ACCOUNT, id, l);
+			return l;
+		});
+	}
+	
+	private void unwatch(Account a) {
+		PostingListener l = watching.remove(a.getId());
+		if (l != null)
+			Ledger.getInstance().unwatch(Ledger.BOOK_ACCOUNT, a.getId(), l);
+	}
+	
+	/**
+	 * @effects 
+	 *  recompute <tt>totalBalance</tt> as the sum of the ledger books of all accounts
+	 */
+	public synchronized void recomputeTotalBalance() {
+		Ledger ledger = Ledger.getInstance();
+		long sum = 0;
+		for (Account a : accounts) {
+			sum += ledger.getBalance(Ledger.BOOK_ACCOUNT, a.getId());
 		}
+		totalBalanceAdder.reset();
+		totalBalanceAdder.add(sum);
 	}
 	
 	private String nextID(String id) throws ConstraintViolationException {
 		if (id == null) { // generate a new id
-			if (idCounter == 0) {
-				idCounter = Calendar.getInstance().get(Calendar.YEAR);
-			} else {
-				idCounter++;
-			}
-			return "T" + idCounter;
+			return "T" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -171,9 +238,7 @@ public class TotalBalance {
 						new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 			return id;
 		}
 	}
@@ -191,8 +256,7 @@ public class TotalBalance {
 				try {
 					int maxIdNum = Integer.parseInt(maxId.substring(1));
 
-					if (maxIdNum > idCounter) // extra check
-						idCounter = maxIdNum;
+					idSequence.seed(maxIdNum);
 
 				} catch (RuntimeException e) {
 					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
@@ -0,0 +1,211 @@
+package vn.com.personalfinance.services.account.report;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Collection;
+import java.util.Date;
+
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotFoundException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.query.Expression.Op;
+import domainapp.basics.modules.report.model.meta.Output;
+import vn.com.personalfinance.services.account.Account;
+
+/**
+ * @overview
+ * 	Represent the report about the balance of an account at the end of a given date.
+ *  The balance is read from the account's balance index, without re-summing its transactions.
+ *
+ * @author Group 2
+ *
+ * @version 1.0
+ */
+@DClass(schema="personalfinancemanager",serialisable=false)
+public class AccountBalanceAsOfReport {
+	public static final String R_accountId = "accountId";
+	public static final String R_date = "date";
+	public static final String R_dateToString = "dateToString";
+
+	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+	private int id;
+	private static int idCounter = 0;
+
+	/** input: the id of the account */
+	@DAttr(name = R_accountId, type = Type.String, length = 6, optional = false)
+	private String accountId;
+
+	/** input: the date */
+	@DAttr(name = R_date, type = Type.Date, length = 15, optional = false)
+	private Date date;
+
+	@DAttr(name = R_dateToString, type = Type.String, length = 15, mutable= false, auto = true, derivedFrom = {R_date})
+	private String dateToString;
+
+	/** output: the name of the account whose id is {@link #accountId} */
+	@DAttr(name = "accountName", type = Type.String, length = 20, auto = true, mutable = false)
+	@Output
+	private String accountName;
+
+	/** output: the balance of the account at the end of {@link #date} */
+	@DAttr(name = "balance", type = Type.Double, length = 15, auto = true, mutable = false)
+	@Output
+	private double balance;
+
+	/**
+	 * @effects
+	 * initialise this with <tt>accountId</tt> and <tt>date</tt> and compute the balance of
+	 * the account <tt>accountId</tt> at the end of <tt>date</tt>.
+	 *
+	 * <p>
+	 * throws NotPossibleException if failed to generate data source query;
+	 * DataSourceException if fails to read from the data source
+	 */
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public AccountBalanceAsOfReport(@AttrRef("accountId") String accountId, @AttrRef("date") Date date)
+			throws NotPossibleException, DataSourceException {
+		this.id = ++idCounter;
+
+		this.accountId = accountId;
+		this.date = date;
+
+		updateDateToString();
+		doReportQuery();
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public String getDateToString() {
+		return dateToString;
+	}
+
+	public String getAccountName() {
+		return accountName;
+	}
+
+	public double getBalance() {
+		return balance;
+	}
+
+	/**
+	 * @effects
+	 *  set this.accountId = accountId and update the output attributes
+	 */
+	public void setAccountId(String accountId) throws NotPossibleException, DataSourceException {
+		this.accountId = accountId;
+
+		doReportQuery();
+	}
+
+	/**
+	 * @effects
+	 *  set this.date = date and update the output attributes
+	 */
+	public void setDate(Date date) throws NotPossibleException, DataSourceException {
+		this.date = date;
+
+		updateDateToString();
+		doReportQuery();
+	}
+
+	/**
+	 * This method is invoked when the report input has be set by the user.
+	 *
+	 * @effects
+	 *
+	 *          <pre>
+	 *   retrieve the account whose id is accountId
+	 *   if it exists
+	 *     set the output attributes to its name and to its balance at the end of date
+	 *   else
+	 *     reset the output attributes
+	 *
+	 *  <p>throws DataSourceException if fails to read from the data source.
+	 *          </pre>
+	 */
+	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value = "balance")
+	public void doReportQuery() throws NotPossibleException, DataSourceException {
+		Account account = null;
+		if (accountId != null && date != null) {
+			try {
+				Collection<Account> result = QRM.getInstance().getDom().retrieveObjects(Account.class,
+						Account.A_id, Op.EQ, accountId);
+				if (result != null && !result.isEmpty())
+					account = result.iterator().next();
+			} catch (NotFoundException e) {
+				// no such account
+			}
+		}
+
+		if (account != null) {
+			accountName = account.getName();
+			balance = account.getBalanceAsOf(date);
+		} else {
+			// no data found: reset output
+			resetOutput();
+		}
+	}
+
+	/**
+	 * @effects reset all output attributes to their initial values
+	 */
+	private void resetOutput() {
+		accountName = null;
+		balance = 0;
+	}
+
+	/**
+	 * @effects return id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + id;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		AccountBalanceAsOfReport other = (AccountBalanceAsOfReport) obj;
+		if (id != other.id)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "AccountBalanceAsOfReport (" + id + ", " + accountId + ", " + date + ")";
+	}
+
+	@DOpt(type=DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value=R_dateToString)
+	public void updateDateToString() {
+		DateFormat dateFormat = new SimpleDateFormat("ddMMyyyy");
+		dateToString = dateFormat.format(date);
+	}
+}
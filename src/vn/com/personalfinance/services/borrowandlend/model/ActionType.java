@@ -16,15 +16,22 @@ import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
 import domainapp.basics.model.meta.Select;
+import vn.com.personalfinance.datasource.IdSequence;
 
 @DClass (schema = "personalfinancemanager")
 public class ActionType {
 	public static final String A_name = "name";
 	
+	// ids of the standard action types, created in this order by DomMainData
+	public static final int COLLECT_DEBTS = 1;
+	public static final int BORROW_MONEY = 2;
+	public static final int REPAY_MONEY = 3;
+	public static final int LEND_MONEY = 4;
+	
 	@DAttr (name = "id", type = Type.Integer, length = 8, id = true, auto = true, mutable = false, optional = false)
 	private int id;
 	
-	private static int idCounter;
+	private static final IdSequence idSequence = new IdSequence("ActionType");
 	
 	@DAttr (name = A_name, type = Type.String, length = 30, optional = false, cid = true)
 	private String name;
@@ -60,6 +67,24 @@ public class ActionType {
 		return name;
 	}
 	
+	/**
+	 * @effects 
+	 *  return 1 if this action brings money into the account, -1 if it takes money out of it, 
+	 *  0 otherwise
+	 */
+	public int getDirection() {
+		switch (id) {
+		case COLLECT_DEBTS:
+		case BORROW_MONEY:
+			return 1;
+		case REPAY_MONEY:
+		case LEND_MONEY:
+			return -1;
+		default:
+			return 0;
+		}
+	}
+	
 	@DOpt(type=DOpt.Type.Getter)
 	public Collection<BorrowAndLend> getBorrowAndLend() {
 		return borrowAndLend;
@@ -133,13 +158,10 @@ public class ActionType {
 	
 	private static int nextId(Integer currId) {
 		if (currId == null) {
-			idCounter++;
-			return idCounter;
+			return idSequence.nextInt();
 		} else {
 			int num = currId.intValue();
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 			return currId;
 		}
 	}
@@ -185,8 +207,7 @@ public class ActionType {
 			// attributes of this class
 			if (attrib.name().equals("id")) {
 				int maxIdVal = (Integer) maxVal;
-				if (maxIdVal > idCounter)
-					idCounter = maxIdVal;
+				idSequence.seed(maxIdVal);
 			}
 		}
 	}	
@@ -17,6 +17,9 @@ import domainapp.basics.util.Tuple;
 import domainapp.basics.util.cache.StateHistory;
 import vn.com.personalfinance.services.account.Account;
 import vn.com.personalfinance.services.borrowandlend.report.BorrowAndLendByActionTypeReport;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
+import vn.com.personalfinance.services.report.ReportCache;
 
 @DClass(schema="personalfinancemanager")
 public class BorrowAndLend {
@@ -38,7 +41,7 @@ public class BorrowAndLend {
 		private int id;
 		
 //		static variable to keep track of account id
-		private static int idCounter = 0;
+		private static final IdSequence idSequence = new IdSequence("BorrowAndLend");
 		
 		@DAttr (name = T_account, type = Type.Domain, length = 20, optional = false, cid = true)
 		@DAssoc (ascName = "account-has-borrowAndLend", role = "borrowAndLend", ascType = AssocType.One2Many, endType = AssocEndType.Many,
@@ -60,6 +63,8 @@ public class BorrowAndLend {
 		
 		@DAttr (name = T_money, type = Type.Double, length = 15, optional = false, min = 0)
 		private double money;
+		// money in minor units, used for all balance arithmetic
+		private long moneyMinor;
 		
 		@DAttr (name = T_start_date, type = Type.Date, length = 20, optional = false)
 		private Date startDate;
@@ -74,6 +79,7 @@ public class BorrowAndLend {
 		@DAttr (name = T_finalMoney, type = Type.Double, auto = true, length = 20, mutable = false, optional = true,
 				serialisable=false, derivedFrom={T_money, T_interestedRate, T_period})
 		private double finalMoney;
+		private long finalMoneyMinor;
 		
 		@DAttr (name = T_rptBorrowAndLendByType, type = Type.Domain, serialisable = false, virtual = true)
 		private BorrowAndLendByActionTypeReport rptBorrowAndLendByType;
@@ -98,7 +104,8 @@ public class BorrowAndLend {
 			this.name = name;
 			this.subject = subject;
 			this.actionType = actionType;
-			this.money = money;
+			this.moneyMinor = Money.toMinor(money);
+			this.money = Money.toMajor(moneyMinor);
 			this.startDate = startDate;
 			this.period = period;
 			this.interestedRate = interestedRate;
@@ -132,6 +139,20 @@ public class BorrowAndLend {
 			return money;
 		}
 		
+		/**
+		 * @effects return money in minor units
+		 */
+		public long getMoneyMinor() {
+			return moneyMinor;
+		}
+		
+		/**
+		 * @effects return finalMoney in minor units
+		 */
+		public long getFinalMoneyMinor() {
+			return finalMoneyMinor;
+		}
+		
 		public Date getStartDate() {
 			return startDate;
 		}
@@ -182,7 +203,13 @@ public class BorrowAndLend {
 		}
 		
 		public void setActionType(ActionType actionType) {
+			ActionType oldActionType = this.actionType;
 			this.actionType = actionType;
+			
+			if (account != null)
+				account.updateBorrowAndLend(this, moneyMinor, oldActionType);
+			invalidateReports(oldActionType);
+			invalidateReports(actionType);
 		}
 		
 		public void setMoney(double money) {
@@ -190,13 +217,23 @@ public class BorrowAndLend {
 		}
 		
 		public void setMoney(double money, boolean computeFinalMoney) {
-			this.money = money;
+			long oldMoney = this.moneyMinor;
+			this.moneyMinor = Money.toMinor(money);
+			this.money = Money.toMajor(moneyMinor);
+			
+			if (account != null)
+				account.updateBorrowAndLend(this, oldMoney, actionType);
 			if (computeFinalMoney)
 				computeFinalMoney();
+			invalidateReports(actionType);
 		}
 		
 		public void setStartDate (Date startDate) {
+			Date oldStartDate = this.startDate;
 			this.startDate = startDate;
+			
+			if (account != null)
+				account.updateBorrowAndLendStartDate(this, oldStartDate);
 		}
 		
 		public void setPeriod (int period) {
@@ -207,6 +244,7 @@ public class BorrowAndLend {
 			this.period = period;
 			if (computeFinalMoney)
 				computeFinalMoney();
+			invalidateReports(actionType);
 		}
 
 		public void setInterestedRate(double interestedRate) {
@@ -217,6 +255,16 @@ public class BorrowAndLend {
 			this.interestedRate = interestedRate;
 			if (computeFinalMoney)
 				computeFinalMoney();
+			invalidateReports(actionType);
+		}
+		
+		/**
+		 * @effects drop the cached report results about <tt>actionType</tt>, which this is 
+		 *  or was of
+		 */
+		public void invalidateReports(ActionType actionType) {
+			ReportCache.getInstance().invalidate(new ReportCache.Write(BorrowAndLend.class, startDate, null, 
+					(actionType != null) ? actionType.getName() : null));
 		}
 
 		@Override
@@ -250,15 +298,12 @@ public class BorrowAndLend {
 
 		private static int nextId (Integer currId) {
 			if (currId == null) {
-				idCounter++;
-				return idCounter;
+				return idSequence.nextInt();
 			} else {
 				int num;
 				num = currId.intValue();
 				
-				if (num > idCounter) {
-					idCounter = num;
-				}
+				idSequence.seed(num);
 				return currId;
 			}
 		}
@@ -269,7 +314,9 @@ public class BorrowAndLend {
 		public void computeFinalMoney() {
 			stateHist.put(T_finalMoney, finalMoney);
 			
-			finalMoney = money + (money * (interestedRate / 100 / (double)period));
+			long interest = (period > 0) ? Money.scale(moneyMinor, interestedRate / 100 / (double)period) : 0;
+			finalMoneyMinor = moneyMinor + interest;
+			finalMoney = Money.toMajor(finalMoneyMinor);
 		}
 
 		@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
@@ -279,8 +326,7 @@ public class BorrowAndLend {
 				// check the right attribute
 				if (attrib.name().equals("id")) {
 					int maxIdVal = (Integer) maxVal;
-					if (maxIdVal > idCounter)
-						idCounter = maxIdVal;
+					idSequence.seed(maxIdVal);
 				}
 			}
 		}
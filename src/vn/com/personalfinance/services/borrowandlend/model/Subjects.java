@@ -16,6 +16,7 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
+import vn.com.personalfinance.datasource.IdSequence;
 
 @DClass(schema="personalfinancemanager")
 public class Subjects {
@@ -24,7 +25,7 @@ public class Subjects {
 	private int id; 
 	
 //	static variable to keep track of account id
-	private static int idCounter;
+	private static final IdSequence idSequence = new IdSequence("Subjects");
 	
 	@DAttr(name = "name", type = Type.String, length = 20, optional = false, cid = true) 
 	private String name;
@@ -144,12 +145,10 @@ public class Subjects {
 
 	private static int nextId(Integer currID) {
 		if (currID == null) {
-			idCounter++;
-			return idCounter;
+			return idSequence.nextInt();
 		} else {
 			int num = currID.intValue();
-			if (num > idCounter)
-				idCounter = num;
+			idSequence.seed(num);
 			return currID;
 		}
 	}
@@ -193,8 +192,7 @@ public class Subjects {
 
 		if (minVal != null && maxVal != null) {
 			int maxIdVal = (Integer) maxVal;
-			if (maxIdVal > idCounter)
-				idCounter = maxIdVal;
+			idSequence.seed(maxIdVal);
 		}
 	}	
 }
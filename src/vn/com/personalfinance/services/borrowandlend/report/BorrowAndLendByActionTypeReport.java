@@ -2,12 +2,12 @@ package vn.com.personalfinance.services.borrowandlend.report;
 
 import java.util.Collection; 
 import java.util.Map;
+import java.util.function.Predicate;
 
-import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.dom.DOMBasic;
 import domainapp.basics.core.dodm.qrm.QRM;
 import domainapp.basics.exceptions.DataSourceException;
 import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAttr;
@@ -19,12 +19,14 @@ import domainapp.basics.model.meta.DAssoc.AssocEndType;
 import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
-import domainapp.basics.model.query.Expression.Op;
 import domainapp.basics.modules.report.model.meta.Output;
+import vn.com.personalfinance.datasource.QueryTemplate;
 import vn.com.personalfinance.services.borrowandlend.model.ActionType;
 import vn.com.personalfinance.services.borrowandlend.model.BorrowAndLend;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.services.report.ReportCache.Result;
+import vn.com.personalfinance.services.report.ReportCache.Write;
+import vn.com.personalfinance.utils.Money;
 
 @DClass(schema="personalfinancemanager",serialisable=false)
 public class BorrowAndLendByActionTypeReport {
@@ -132,8 +134,9 @@ public class BorrowAndLendByActionTypeReport {
 	 * @effects
 	 * 
 	 *          <pre>
-	 *   formulate the object query
-	 *   execute the query to retrieve from the data source the domain objects that satisfy it 
+	 *   have the data source compute the totals and the number of the matching domain objects
+	 *   with an aggregate query, grouped by action type, and leave the objects to be loaded 
+	 *   when they are first shown
 	 *   update the output attributes accordingly.
 	 *  
 	 *  <p>throws NotPossibleException if failed to generate data source query; 
@@ -143,60 +146,87 @@ public class BorrowAndLendByActionTypeReport {
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "borrowAndLend")
 	public void doReportQuery() throws NotPossibleException, DataSourceException {
-		// the query manager instance
+		final String input = actionType;
+		final DOMBasic dom = QRM.getInstance().getDom();
+		Result<BorrowAndLend> result = ReportCache.getInstance().get(
+				ReportCache.key(BorrowAndLendByActionTypeReport.class, "totalBorrowAndLend", input),
+				affectedBy(input),
+				() -> {
+					Map<Object, long[]> found = QueryTemplate.joinTotals(dom, 
+							"BorrowAndLend.actionType.name.total", BorrowAndLend.class, 
+							finalMoneyMinor(dom), BorrowAndLend.T_actionType, BorrowAndLend.T_actionType, 
+							ActionType.class, "id", ActionType.A_name)
+							.executeTotals("%"+input+"%");
 
-		QRM qrm = QRM.getInstance();
-
-		DSMBasic dsm = qrm.getDsm();
+					// totals by action type, then the number of borrow and lends
+					long[] totals = new long[5];
+					for (Map.Entry<Object, long[]> e : found.entrySet()) {
+						switch (((Number) e.getKey()).intValue()) {
+						case ActionType.COLLECT_DEBTS:
+							totals[0] += e.getValue()[0];
+							break;
+						case ActionType.BORROW_MONEY:
+							totals[1] += e.getValue()[0];
+							break;
+						case ActionType.REPAY_MONEY:
+							totals[2] += e.getValue()[0];
+							break;
+						case ActionType.LEND_MONEY:
+							totals[3] += e.getValue()[0];
+							break;
+						}
+						totals[4] += e.getValue()[1];
+					}
+					return new Result<>(null, totals);
+				});
+		
+		borrowAndLend = null;
+		numBorrowAndLend = (int) result.getTotal(4);
+		totalCollectedDebts = Money.toMajor(result.getTotal(0));
+		totalBorrowedMoney = Money.toMajor(result.getTotal(1));
+		totalRepayedMoney = Money.toMajor(result.getTotal(2));
+		totalLendedMoney = Money.toMajor(result.getTotal(3));
+	}
 
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q = QueryToolKit.createSimpleJoinQuery(dsm, BorrowAndLend.class, ActionType.class,
-				BorrowAndLend.T_actionType, 
-				ActionType.A_name, 
-		        Op.MATCH, 
-		        "%"+actionType+"%");
+	/**
+	 * @effects 
+	 *  return the borrow and lends whose action types match <tt>input</tt>; the result is 
+	 *  cached until one of them is written
+	 */
+	private Collection<BorrowAndLend> queryBorrowAndLend(final String input) throws NotPossibleException, DataSourceException {
+		return ReportCache.getInstance().get(
+				ReportCache.key(BorrowAndLendByActionTypeReport.class, "borrowAndLend", input),
+				affectedBy(input),
+				() -> new Result<>(QueryTemplate.join(QRM.getInstance().getDom(), 
+						"BorrowAndLend.actionType.name", BorrowAndLend.class, 
+						BorrowAndLend.T_id, BorrowAndLend.T_id, true, BorrowAndLend.T_actionType, 
+						ActionType.class, "id", ActionType.A_name)
+						.execute("%"+input+"%")))
+				.getObjects();
+	}
 
-		Map<Oid, BorrowAndLend> result = qrm.getDom().retrieveObjects(BorrowAndLend.class, q);
-		
-		if (result != null) {
-			borrowAndLend = result.values();
-			numBorrowAndLend = borrowAndLend.size();
-			
-			double tempTotalCollectedDebts = 0.0;
-			double tempTotalBorrowedMoney = 0.0;
-			double tempTotalRepayedMoney = 0.0;
-			double tempTotalLendedMoney = 0.0;
-			for (BorrowAndLend a : borrowAndLend) {
-				if (a.getActionType().getId() == 1) {
-					tempTotalCollectedDebts += a.getFinalMoney();
-				}
-				else if (a.getActionType().getId() == 2) {
-					tempTotalBorrowedMoney += a.getFinalMoney();
-				}
-				else if (a.getActionType().getId() == 3) {
-					tempTotalRepayedMoney += a.getFinalMoney();
-				}
-				else if (a.getActionType().getId() == 4) {
-					tempTotalLendedMoney += a.getFinalMoney();
-				}
-			}
-			totalCollectedDebts = tempTotalCollectedDebts;
-			totalBorrowedMoney = tempTotalBorrowedMoney;
-			totalRepayedMoney = tempTotalRepayedMoney;
-			totalLendedMoney = tempTotalLendedMoney;
-		} else {
-			// no data found: reset output
-			resetOutput();
-		}
+	/**
+	 * @effects return whether a write affects the borrow and lends whose action types match 
+	 *  <tt>input</tt>
+	 */
+	private static Predicate<Write> affectedBy(final String input) {
+		return w -> w.getType() == BorrowAndLend.class && w.getActionTypeName() != null 
+				&& w.getActionTypeName().contains(String.valueOf(input));
 	}
 
 	/**
-	 * @effects reset all output attributes to their initial values
+	 * @effects 
+	 *  return the SQL expression of the final money of a borrow and lend in minor units, 
+	 *  rounded as by {@link BorrowAndLend#computeFinalMoney()}; the final money itself is 
+	 *  not stored
 	 */
-	private void resetOutput() {
-		borrowAndLend = null;
-		numBorrowAndLend = 0;
+	private static String finalMoneyMinor(DOMBasic dom) {
+		String money = QueryTemplate.minorUnits(dom, BorrowAndLend.class, BorrowAndLend.T_money);
+		String period = QueryTemplate.column(dom, BorrowAndLend.class, BorrowAndLend.T_period);
+		String rate = QueryTemplate.column(dom, BorrowAndLend.class, BorrowAndLend.T_interestedRate);
+		return money + " + CASE WHEN " + period + " > 0"
+				+ " THEN FLOOR(" + money + " * (" + rate + " / 1E2 / " + period + ") + 0.5)"
+				+ " ELSE 0 END";
 	}
 
 	/**
@@ -211,9 +241,16 @@ public class BorrowAndLendByActionTypeReport {
 	}
 
 	/**
-	 * @effects return dailyExpense
+	 * @effects return borrowAndLend, loading it from the data source if it has not been loaded
 	 */
 	public Collection<BorrowAndLend> getBorrowAndLend() {
+		if (borrowAndLend == null && actionType != null) {
+			try {
+				borrowAndLend = queryBorrowAndLend(actionType);
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "BorrowAndLend");
+			}
+		}
 		return borrowAndLend;
 	}
 
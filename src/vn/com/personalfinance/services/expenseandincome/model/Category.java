@@ -16,6 +16,8 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
+import vn.com.personalfinance.datasource.IdSequence;
+import vn.com.personalfinance.services.report.ReportCache;
 
 @DClass(schema="personalfinancemanager")
 public class Category {
@@ -23,7 +25,7 @@ public class Category {
 
 	@DAttr(name="id",id=true,auto=true,length=6,mutable=false,type=Type.Integer)
 	private int id;
-	private static int idCounter;
+	private static final IdSequence idSequence = new IdSequence("Category");
 	
 	@DAttr(name = C_name, type = Type.String, length = 20, optional = false, cid=true)
 	private String name;
@@ -58,6 +60,7 @@ public class Category {
 	public Category(@AttrRef("id") Integer id, @AttrRef("name") String name ) {
 		this.id = nextId(id);
 		this.name = name;	
+		CategoryIndex.getInstance().put(null, name, this.id);
 		
 		dailyExpense = new ArrayList<>();
 		dailyExpenseCount = 0;
@@ -216,7 +219,16 @@ public class Category {
 	
 	@DOpt(type=DOpt.Type.Setter)
 	public void setName(String name) {
+		String oldName = this.name;
 		this.name = name;
+		CategoryIndex.getInstance().put(oldName, name, id);
+		
+		// the cached report results of either name are stale
+		ReportCache cache = ReportCache.getInstance();
+		for (String n : new String[] { oldName, name }) {
+			cache.invalidate(new ReportCache.Write(DailyExpense.class, null, n, null));
+			cache.invalidate(new ReportCache.Write(DailyIncome.class, null, n, null));
+		}
 	}
 	
 	@DOpt(type=DOpt.Type.Getter)
@@ -258,12 +270,10 @@ public class Category {
 
 	private static int nextId(Integer currID) {
 		if (currID == null) {
-			idCounter++;
-			return idCounter;
+			return idSequence.nextInt();
 		} else {
 			int num = currID.intValue();
-			if (num > idCounter)
-				idCounter = num;
+			idSequence.seed(num);
 			return currID;
 		}
 	}
@@ -282,8 +292,7 @@ public class Category {
 			// TODO: update this for the correct attribute if there are more than one auto
 			// attributes of this class
 			int maxIdVal = (Integer) maxVal;
-			if (maxIdVal > idCounter)
-				idCounter = maxIdVal;
+			idSequence.seed(maxIdVal);
 		}
 	}	
 }
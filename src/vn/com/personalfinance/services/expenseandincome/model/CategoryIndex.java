@@ -0,0 +1,193 @@
+package vn.com.personalfinance.services.expenseandincome.model;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import vn.com.personalfinance.datasource.DataSourceToolKit;
+import vn.com.personalfinance.datasource.SchemaExtensions;
+
+/**
+ * @overview
+ * 	The ids of the categories by name, kept in memory, so that a category report resolves its
+ *  input to category ids first and then seeks the daily expenses and incomes by the indexed
+ *  foreign key column of their category, instead of matching a pattern against the join of
+ *  every transaction with its category.
+ *
+ *  <p>A name is matched in one of three modes: {@link #EXACT} (one look-up), {@link #PREFIX}
+ *  (a range of the sorted names) or {@link #CONTAINS} (a scan of the names, not of the
+ *  transactions).
+ *
+ *  <p>The names are read from the data source once, and {@link Category} keeps them up to date
+ *  as categories are created and renamed.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class CategoryIndex {
+	public static final String EXACT = "exact";
+	public static final String PREFIX = "prefix";
+	public static final String CONTAINS = "contains";
+
+	private static final CategoryIndex instance = new CategoryIndex();
+
+	// the category ids by name, sorted by name; guarded by this
+	private final TreeMap<String, Integer> ids = new TreeMap<>();
+	// guarded by this
+	private boolean loaded;
+
+	private CategoryIndex() {
+		// singleton
+	}
+
+	public static CategoryIndex getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @effects
+	 *  return <tt>match</tt> as a match mode, {@link #CONTAINS} if it is null or empty;
+	 *  throws ConstraintViolationException if it is not a match mode
+	 */
+	public static String mode(String match) throws ConstraintViolationException {
+		if (match == null || match.trim().isEmpty())
+			return CONTAINS;
+
+		String mode = match.trim().toLowerCase();
+		if (!mode.equals(EXACT) && !mode.equals(PREFIX) && !mode.equals(CONTAINS))
+			throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE,
+					new Object[] { match });
+		return mode;
+	}
+
+	/**
+	 * @requires <tt>mode</tt> is a match mode
+	 * @effects return whether the category name <tt>name</tt> matches <tt>input</tt> in <tt>mode</tt>
+	 */
+	public static boolean matches(String name, String input, String mode) {
+		if (name == null)
+			return false;
+		String in = (input != null) ? input : "";
+		switch (mode) {
+		case EXACT:
+			return name.equals(in);
+		case PREFIX:
+			return name.startsWith(in);
+		default:
+			return name.contains(in);
+		}
+	}
+
+	/**
+	 * @effects
+	 *  create the indexes of the foreign key columns of the categories of the daily expenses
+	 *  and incomes if they do not exist, and read the names of the categories;
+	 *  throws SQLException if the data source cannot be read or updated
+	 */
+	public void load() throws SQLException {
+		DOMBasic dom = QRM.getInstance().getDom();
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			SchemaExtensions.createIndex(conn, "DailyExpense",
+					DataSourceToolKit.columnOf(dom, DailyExpense.class, DailyExpense.E_category));
+			SchemaExtensions.createIndex(conn, "DailyIncome",
+					DataSourceToolKit.columnOf(dom, DailyIncome.class, DailyIncome.I_category));
+			read(conn, dom);
+		}
+	}
+
+	/**
+	 * @requires <tt>mode</tt> is a match mode
+	 * @effects
+	 *  return the ids of the categories whose names match <tt>input</tt> in <tt>mode</tt>,
+	 *  reading the names from the data source if they have not been read;
+	 *  throws DataSourceException if fails to read from the data source
+	 */
+	public List<Integer> find(String input, String mode) throws DataSourceException {
+		String in = (input != null) ? input : "";
+		synchronized (this) {
+			if (!loaded) {
+				DOMBasic dom = QRM.getInstance().getDom();
+				try (Connection conn = DataSourceToolKit.getConnection()) {
+					read(conn, dom);
+				} catch (SQLException e) {
+					throw new DataSourceException(DataSourceException.Code.FAIL_TO_EXECUTE_QUERY, e, "Category");
+				}
+			}
+
+			switch (mode) {
+			case EXACT:
+				Integer id = ids.get(in);
+				return (id != null) ? List.of(id) : List.of();
+			case PREFIX:
+				// the names that start with in are those from in up to the first that does not
+				List<Integer> found = new ArrayList<>();
+				for (Map.Entry<String, Integer> e : ids.tailMap(in, true).entrySet()) {
+					if (!e.getKey().startsWith(in))
+						break;
+					found.add(e.getValue());
+				}
+				return found;
+			default:
+				List<Integer> all = new ArrayList<>();
+				for (Map.Entry<String, Integer> e : ids.entrySet()) {
+					if (e.getKey().contains(in))
+						all.add(e.getValue());
+				}
+				return all;
+			}
+		}
+	}
+
+	/**
+	 * @effects return the name of the category <tt>id</tt>, or null if it is not known
+	 */
+	public synchronized String nameOf(int id) {
+		for (Map.Entry<String, Integer> e : ids.entrySet()) {
+			if (e.getValue() == id)
+				return e.getKey();
+		}
+		return null;
+	}
+
+	/**
+	 * @effects record that the category <tt>id</tt> is named <tt>name</tt>, and no longer
+	 *  <tt>oldName</tt> if it is not null
+	 */
+	synchronized void put(String oldName, String name, int id) {
+		if (oldName != null)
+			ids.remove(oldName, id);
+		if (name != null)
+			ids.put(name, id);
+	}
+
+	/**
+	 * @effects read the names of the categories from <tt>conn</tt>, keeping those recorded
+	 *  since the software started
+	 */
+	private synchronized void read(Connection conn, DOMBasic dom) throws SQLException {
+		String sql = "SELECT " + DataSourceToolKit.columnOf(dom, Category.class, "id") + ", "
+				+ DataSourceToolKit.columnOf(dom, Category.class, Category.C_name)
+				+ " FROM " + DataSourceToolKit.table("Category");
+		Set<Integer> recorded = new HashSet<>(ids.values());
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				String name = rs.getString(2);
+				int id = rs.getInt(1);
+				if (name != null && !recorded.contains(id))
+					ids.putIfAbsent(name, id);
+			}
+		}
+		loaded = true;
+	}
+}
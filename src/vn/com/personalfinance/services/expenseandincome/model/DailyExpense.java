@@ -17,9 +17,14 @@ import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
 import vn.com.personalfinance.services.account.Account;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByCategoryReport;
+import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByDateRangeReport;
+import vn.com.personalfinance.services.expenseandincome.report.TopTransactionsReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByDateReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByMonthReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByYearReport;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
 
 /**
  * Represents daily expense. The account ID is auto-incremented.
@@ -30,6 +35,7 @@ import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeB
 @DClass(schema="personalfinancemanager")
 public class DailyExpense {
 	public static final String E_id = "id";
+	public static final String E_idNumber = "idNumber";
 	public static final String E_amount = "amount";
 	public static final String E_date = "date";
 	public static final String E_category = "category";
@@ -39,16 +45,27 @@ public class DailyExpense {
 	public static final String E_rptExpenseAndIncomeByDate = "rptExpenseAndIncomeByDate";
 	public static final String E_rptExpenseAndIncomeByMonth = "rptExpenseAndIncomeByMonth";
 	public static final String E_rptExpenseAndIncomeByYear = "rptExpenseAndIncomeByYear";
+	public static final String E_rptExpenseAndIncomeByDateRange = "rptExpenseAndIncomeByDateRange";
+	public static final String E_rptTopTransactions = "rptTopTransactions";
 	public static final String E_dateToString = "dateToString";
+	public static final String E_epochDay = "epochDay";
+	public static final String E_yearKey = "yearKey";
+	public static final String E_monthKey = "monthKey";
 
 	// attributes of daily expense
 	@DAttr(name = E_id, id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	private String id;
 	// static variable to keep track of account id
-	public static int idCounter = 0;
+	private static final IdSequence idSequence = new IdSequence("DailyExpense");
+	
+	// the number part of id, used as the key in equals, hashCode and association look-ups
+	@DAttr(name = E_idNumber, type = Type.Long, auto = true, mutable = false, optional = false)
+	private long idNumber;
 
 	@DAttr(name = E_amount, type = Type.Double, length = 15, optional = false, min = 0)
 	private double amount;
+	// amount in minor units, used for all balance and report arithmetic
+	private long amountMinor;
 
 	@DAttr(name = E_date, type = Type.Date, length = 15, optional = false)
 	private Date date;
@@ -56,6 +73,17 @@ public class DailyExpense {
 	@DAttr(name = E_dateToString, type = Type.String, auto = true, length = 15, mutable = false, serialisable = true, derivedFrom = {E_date})
 	private String dateToString;
 
+	// the date as numbers, so that reports can find transactions by an index seek: 
+	// the epoch day, the year and the year * 100 + month
+	@DAttr(name = E_epochDay, type = Type.Long, auto = true, mutable = false, serialisable = true, derivedFrom = {E_date})
+	private long epochDay;
+	
+	@DAttr(name = E_yearKey, type = Type.Integer, auto = true, mutable = false, serialisable = true, derivedFrom = {E_date})
+	private int yearKey;
+	
+	@DAttr(name = E_monthKey, type = Type.Integer, auto = true, mutable = false, serialisable = true, derivedFrom = {E_date})
+	private int monthKey;
+
 	@DAttr(name = E_category, type = Type.Domain, optional = false)
 	@DAssoc(ascName = "category-has-dailyExpense", role = "dailyExpense", ascType = AssocType.One2Many, endType = AssocEndType.Many, associate = @Associate(type = Category.class, cardMin = 1, cardMax = 1), dependsOn = true)
 	private Category category;
@@ -79,30 +107,47 @@ public class DailyExpense {
 	@DAttr(name = E_rptExpenseAndIncomeByYear, type = Type.Domain, serialisable = false, virtual = true)
 	private ExpenseAndIncomeByYearReport rptExpenseAndIncomeByYear;
 	
+	@DAttr(name = E_rptExpenseAndIncomeByDateRange, type = Type.Domain, serialisable = false, virtual = true)
+	private ExpenseAndIncomeByDateRangeReport rptExpenseAndIncomeByDateRange;
+	
+	@DAttr(name = E_rptTopTransactions, type = Type.Domain, serialisable = false, virtual = true)
+	private TopTransactionsReport rptTopTransactions;
+	
 	// constructor methods
 	@DOpt(type = DOpt.Type.ObjectFormConstructor)
 	public DailyExpense(@AttrRef("amount") Double amount, @AttrRef("date") Date date, 
 			@AttrRef("category") Category category, @AttrRef("account") Account account,
 			@AttrRef("description") String description) {
-		this(null, amount, date, null, category, account, description);
+		this(null, null, amount, date, null, null, null, null, category, account, description);
 	}
 
 	// a shared constructor that is invoked by other constructors
 	@DOpt(type = DOpt.Type.DataSourceConstructor)
-	public DailyExpense(String id, Double amount, Date date, String dateToString, Category category, Account account,
+	public DailyExpense(String id, Long idNumber, Double amount, Date date, String dateToString, 
+			Long epochDay, Integer yearKey, Integer monthKey, Category category, Account account,
 			String description) {
 		// generate an id
 		this.id = nextID(id);
+		// the number part of id, as stored or, for a new object, as generated
+		this.idNumber = (idNumber != null) ? idNumber : Long.parseLong(this.id.substring(1));
 
 		// assign other values
-		this.amount = amount;
+		this.amountMinor = Money.toMinor(amount);
+		this.amount = Money.toMajor(amountMinor);
 		this.date = date;
 		this.dateToString = dateToString;
 		this.category = category;
 		this.account = account;
 		this.description = description;
 		
-		updateDateToString();
+		if (dateToString != null && epochDay != null && yearKey != null && monthKey != null) {
+			// the date keys as stored
+			this.epochDay = epochDay;
+			this.yearKey = yearKey;
+			this.monthKey = monthKey;
+		} else {
+			updateDateToString();
+		}
 	}
 	// getter and setter method
 
@@ -110,12 +155,31 @@ public class DailyExpense {
 		return id;
 	}
 
+	/**
+	 * @effects return the number part of id
+	 */
+	public long getIdNumber() {
+		return idNumber;
+	}
+
 	public double getAmount() {
 		return amount;
 	}
 
+	/**
+	 * @effects return amount in minor units
+	 */
+	public long getAmountMinor() {
+		return amountMinor;
+	}
+
 	public void setAmount(double amount) {
-		this.amount = amount;
+		long oldAmount = this.amountMinor;
+		this.amountMinor = Money.toMinor(amount);
+		this.amount = Money.toMajor(amountMinor);
+		
+		if (account != null)
+			account.updateDailyExpenseAmount(this, oldAmount);
 	}
 
 	public Date getDate() {
@@ -123,9 +187,12 @@ public class DailyExpense {
 	}
 
 	public void setDate(Date date) {
+		Date oldDate = this.date;
 		this.date = date;
 		
 		updateDateToString();
+		if (account != null)
+			account.updateDailyExpenseDate(this, oldDate);
 	}
 
 	public Category getCategory() {
@@ -133,7 +200,11 @@ public class DailyExpense {
 	}
 
 	public void setCategory(Category category) {
+		Category oldCategory = this.category;
 		this.category = category;
+		
+		if (account != null)
+			account.updateDailyExpenseCategory(this, oldCategory);
 	}
 
 	public Account getAccount() {
@@ -168,15 +239,43 @@ public class DailyExpense {
 		return rptExpenseAndIncomeByYear;
 	}
 	
+	public ExpenseAndIncomeByDateRangeReport getRptExpenseAndIncomeByDateRange() {
+		return rptExpenseAndIncomeByDateRange;
+	}
+	
+	public TopTransactionsReport getRptTopTransactions() {
+		return rptTopTransactions;
+	}
+	
 	public String getDateToString() {
 		return dateToString;
 	}
 
+	/**
+	 * @effects return the epoch day of date
+	 */
+	public long getEpochDay() {
+		return epochDay;
+	}
+
+	/**
+	 * @effects return the year of date
+	 */
+	public int getYearKey() {
+		return yearKey;
+	}
+
+	/**
+	 * @effects return the year * 100 + month of date
+	 */
+	public int getMonthKey() {
+		return monthKey;
+	}
+
 	// automatically generate the next account id
 	public String nextID(String id) throws ConstraintViolationException {
 		if (id == null) { // generate a new id
-			idCounter++;
-			return "E" + idCounter;
+			return "E" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -186,9 +285,7 @@ public class DailyExpense {
 				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 
 			return id;
 		}
@@ -214,7 +311,7 @@ public class DailyExpense {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Integer.parseInt(id.substring(1));
+		result = prime * result + Long.hashCode(idNumber);
 		return result;
 	}
 
@@ -228,7 +325,7 @@ public class DailyExpense {
 			return false;
 		DailyExpense other = (DailyExpense) obj;
 
-		if (!(id.equals(other.id))) {
+		if (idNumber != other.idNumber) {
 			return false;
 		}
 		return true;
@@ -243,21 +340,10 @@ public class DailyExpense {
 	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
 			throws ConstraintViolationException {
 		if (minVal != null && maxVal != null) {
-			// check the right attribute
-			if (attrib.name().equals("id")) {
-				String maxID = (String) maxVal;
-
-				try {
-					int maxIDNum = Integer.parseInt(maxID.substring(1));
-
-					if (maxIDNum > idCounter) {
-						idCounter = maxIDNum;
-					}
-
-				} catch (RuntimeException e) {
-					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-							new Object[] { maxID });
-				}
+			// check the right attribute: the number part of id, whose maximum is the greatest number
+			// in use (the maximum of id itself is a string maximum, e.g. "E99" > "E100")
+			if (attrib.name().equals(E_idNumber)) {
+				idSequence.seed(((Number) maxVal).longValue());
 			}
 		}
 	}
@@ -267,5 +353,8 @@ public class DailyExpense {
 	public void updateDateToString() {
 		DateFormat dateFormat = new SimpleDateFormat("ddMMyyyy");
 		this.dateToString = dateFormat.format(date);
+		this.epochDay = Dates.epochDay(date);
+		this.yearKey = Dates.yearKey(date);
+		this.monthKey = Dates.monthKey(date);
 	}
 }
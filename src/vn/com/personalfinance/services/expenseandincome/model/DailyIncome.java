@@ -17,9 +17,14 @@ import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
 import vn.com.personalfinance.services.account.Account;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByCategoryReport;
+import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByDateRangeReport;
+import vn.com.personalfinance.services.expenseandincome.report.TopTransactionsReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByDateReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByMonthReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByYearReport;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
 
 /**
  * Represents income.
@@ -30,6 +35,7 @@ import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeB
 @DClass(schema="personalfinancemanager")
 public class DailyIncome {
 	public static final String I_id = "id";
+	public static final String I_idNumber = "idNumber";
 	public static final String I_amount = "amount";
 	public static final String I_date = "date";
 	public static final String I_category = "category";
@@ -39,16 +45,27 @@ public class DailyIncome {
 	public static final String I_rptExpenseAndIncomeByDate = "rptExpenseAndIncomeByDate";
 	public static final String I_rptExpenseAndIncomeByMonth = "rptExpenseAndIncomeByMonth";
 	public static final String I_rptExpenseAndIncomeByYear = "rptExpenseAndIncomeByYear";
+	public static final String I_rptExpenseAndIncomeByDateRange = "rptExpenseAndIncomeByDateRange";
+	public static final String I_rptTopTransactions = "rptTopTransactions";
 	public static final String I_dateToString = "dateToString";
+	public static final String I_epochDay = "epochDay";
+	public static final String I_yearKey = "yearKey";
+	public static final String I_monthKey = "monthKey";
 
 	// attributes of daily expense
 	@DAttr(name = I_id, id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	private String id;
 	// static variable to keep track of account id
-	public static int idCounter = 0;
+	private static final IdSequence idSequence = new IdSequence("DailyIncome");
+	
+	// the number part of id, used as the key in equals, hashCode and association look-ups
+	@DAttr(name = I_idNumber, type = Type.Long, auto = true, mutable = false, optional = false)
+	private long idNumber;
 
 	@DAttr(name = I_amount, type = Type.Double, length = 15, optional = false, min = 0)
 	private double amount;
+	// amount in minor units, used for all balance and report arithmetic
+	private long amountMinor;
 
 	@DAttr(name = I_date, type = Type.Date, length = 15, optional = false)
 	private Date date;
@@ -56,6 +73,17 @@ public class DailyIncome {
 	@DAttr(name = I_dateToString, type = Type.String, auto = true, length = 15, mutable = false, serialisable =true)
 	private String dateToString;
 
+	// the date as numbers, so that reports can find transactions by an index seek: 
+	// the epoch day, the year and the year * 100 + month
+	@DAttr(name = I_epochDay, type = Type.Long, auto = true, mutable = false, serialisable = true, derivedFrom = {I_date})
+	private long epochDay;
+	
+	@DAttr(name = I_yearKey, type = Type.Integer, auto = true, mutable = false, serialisable = true, derivedFrom = {I_date})
+	private int yearKey;
+	
+	@DAttr(name = I_monthKey, type = Type.Integer, auto = true, mutable = false, serialisable = true, derivedFrom = {I_date})
+	private int monthKey;
+
 	@DAttr(name = I_category, type = Type.Domain, optional = false)
 	@DAssoc(ascName = "category-has-dailyIncome", role = "dailyIncome", ascType = AssocType.One2Many, endType = AssocEndType.Many, associate = @Associate(type = Category.class, cardMin = 1, cardMax = 1), dependsOn = true)
 	private Category category;
@@ -78,31 +106,48 @@ public class DailyIncome {
 	
 	@DAttr(name = I_rptExpenseAndIncomeByYear, type = Type.Domain, serialisable = false, virtual = true)
 	private ExpenseAndIncomeByYearReport rptExpenseAndIncomeByYear;
+	
+	@DAttr(name = I_rptExpenseAndIncomeByDateRange, type = Type.Domain, serialisable = false, virtual = true)
+	private ExpenseAndIncomeByDateRangeReport rptExpenseAndIncomeByDateRange;
+	
+	@DAttr(name = I_rptTopTransactions, type = Type.Domain, serialisable = false, virtual = true)
+	private TopTransactionsReport rptTopTransactions;
 
 	// constructor methods
 	@DOpt(type = DOpt.Type.ObjectFormConstructor)
 	public DailyIncome(@AttrRef("amount") Double amount, @AttrRef("date") Date date, 
 			@AttrRef("category") Category category, @AttrRef("account") Account account,
 			@AttrRef("description") String description) {
-		this(null, amount, date, null, category, account, description);
+		this(null, null, amount, date, null, null, null, null, category, account, description);
 	}
 
 	// a shared constructor that is invoked by other constructors
 	@DOpt(type = DOpt.Type.DataSourceConstructor)
-	public DailyIncome(String id, Double amount, Date date, String dateToString, Category category, Account account,
+	public DailyIncome(String id, Long idNumber, Double amount, Date date, String dateToString, 
+			Long epochDay, Integer yearKey, Integer monthKey, Category category, Account account,
 			String description) {
 		// generate an id
 		this.id = nextID(id);
+		// the number part of id, as stored or, for a new object, as generated
+		this.idNumber = (idNumber != null) ? idNumber : Long.parseLong(this.id.substring(1));
 
 		// assign other values
-		this.amount = amount;
+		this.amountMinor = Money.toMinor(amount);
+		this.amount = Money.toMajor(amountMinor);
 		this.date = date;
 		this.dateToString = dateToString;
 		this.category = category;
 		this.account = account;
 		this.description = description;
 
-		updateDateToString();
+		if (dateToString != null && epochDay != null && yearKey != null && monthKey != null) {
+			// the date keys as stored
+			this.epochDay = epochDay;
+			this.yearKey = yearKey;
+			this.monthKey = monthKey;
+		} else {
+			updateDateToString();
+		}
 //		computeNewBalance();
 	}
 	// getter and setter method
@@ -111,12 +156,31 @@ public class DailyIncome {
 		return id;
 	}
 
+	/**
+	 * @effects return the number part of id
+	 */
+	public long getIdNumber() {
+		return idNumber;
+	}
+
 	public double getAmount() {
 		return amount;
 	}
 
+	/**
+	 * @effects return amount in minor units
+	 */
+	public long getAmountMinor() {
+		return amountMinor;
+	}
+
 	public void setAmount(double amount) {
-		this.amount = amount;
+		long oldAmount = this.amountMinor;
+		this.amountMinor = Money.toMinor(amount);
+		this.amount = Money.toMajor(amountMinor);
+		
+		if (account != null)
+			account.updateDailyIncomeAmount(this, oldAmount);
 	}
 
 	public Date getDate() {
@@ -124,9 +188,12 @@ public class DailyIncome {
 	}
 
 	public void setDate(Date date) {
+		Date oldDate = this.date;
 		this.date = date;
 		
 		updateDateToString();
+		if (account != null)
+			account.updateDailyIncomeDate(this, oldDate);
 	}
 
 	public Category getCategory() {
@@ -134,7 +201,11 @@ public class DailyIncome {
 	}
 
 	public void setCategory(Category category) {
+		Category oldCategory = this.category;
 		this.category = category;
+		
+		if (account != null)
+			account.updateDailyIncomeCategory(this, oldCategory);
 	}
 
 	public Account getAccount() {
@@ -169,15 +240,43 @@ public class DailyIncome {
 		return rptExpenseAndIncomeByYear;
 	}
 	
+	public ExpenseAndIncomeByDateRangeReport getRptExpenseAndIncomeByDateRange() {
+		return rptExpenseAndIncomeByDateRange;
+	}
+	
+	public TopTransactionsReport getRptTopTransactions() {
+		return rptTopTransactions;
+	}
+	
 	public String getDateToString() {
 		return dateToString;
 	}
+
+	/**
+	 * @effects return the epoch day of date
+	 */
+	public long getEpochDay() {
+		return epochDay;
+	}
+
+	/**
+	 * @effects return the year of date
+	 */
+	public int getYearKey() {
+		return yearKey;
+	}
+
+	/**
+	 * @effects return the year * 100 + month of date
+	 */
+	public int getMonthKey() {
+		return monthKey;
+	}
 	
 	// automatically generate the next account id
 	public String nextID(String id) throws ConstraintViolationException {
 		if (id == null) { // generate a new id
-			idCounter++;
-			return "I" + idCounter;
+			return "I" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -187,9 +286,7 @@ public class DailyIncome {
 				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 
 			return id;
 		}
@@ -220,7 +317,7 @@ public class DailyIncome {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Integer.parseInt(id.substring(1));
+		result = prime * result + Long.hashCode(idNumber);
 		return result;
 	}
 
@@ -234,7 +331,7 @@ public class DailyIncome {
 			return false;
 		DailyIncome other = (DailyIncome) obj;
 
-		if (!(id.equals(other.id))) {
+		if (idNumber != other.idNumber) {
 			return false;
 		}
 		return true;
@@ -249,21 +346,10 @@ public class DailyIncome {
 	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
 			throws ConstraintViolationException {
 		if (minVal != null && maxVal != null) {
-			// check the right attribute
-			if (attrib.name().equals("id")) {
-				String maxID = (String) maxVal;
-
-				try {
-					int maxIDNum = Integer.parseInt(maxID.substring(1));
-
-					if (maxIDNum > idCounter) {
-						idCounter = maxIDNum;
-					}
-
-				} catch (RuntimeException e) {
-					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-							new Object[] { maxID });
-				}
+			// check the right attribute: the number part of id, whose maximum is the greatest number
+			// in use (the maximum of id itself is a string maximum, e.g. "E99" > "E100")
+			if (attrib.name().equals(I_idNumber)) {
+				idSequence.seed(((Number) maxVal).longValue());
 			}
 		}
 	}
@@ -273,5 +359,8 @@ public class DailyIncome {
 	public void updateDateToString() {
 		DateFormat dateFormat = new SimpleDateFormat("ddMMyyyy");
 		this.dateToString = dateFormat.format(date);
+		this.epochDay = Dates.epochDay(date);
+		this.yearKey = Dates.yearKey(date);
+		this.monthKey = Dates.monthKey(date);
 	}
 }
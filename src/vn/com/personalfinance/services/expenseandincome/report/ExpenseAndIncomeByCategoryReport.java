@@ -1,13 +1,15 @@
 package vn.com.personalfinance.services.expenseandincome.report;
 
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Map;
+import java.util.List;
+import java.util.function.Predicate;
 
-import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.dom.DOMBasic;
 import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.ConstraintViolationException;
 import domainapp.basics.exceptions.DataSourceException;
 import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAssoc.AssocEndType;
@@ -19,13 +21,16 @@ import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
 import domainapp.basics.model.meta.Select;
-import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
 import domainapp.basics.modules.report.model.meta.Output;
-import vn.com.personalfinance.services.expenseandincome.model.Category;
+import vn.com.personalfinance.datasource.QueryTemplate;
+import vn.com.personalfinance.services.expenseandincome.model.CategoryIndex;
 import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
 import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.services.report.ReportCache.Result;
+import vn.com.personalfinance.services.report.ReportCache.Write;
+import vn.com.personalfinance.services.report.ReportExecutor;
+import vn.com.personalfinance.utils.Money;
 
 /**
  * @overview 
@@ -40,11 +45,18 @@ public class ExpenseAndIncomeByCategoryReport {
 	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
 	private int id;
 	private static int idCounter = 0;
+	
+	// the runs of the report queries
+	private final ReportExecutor.Run run = new ReportExecutor.Run();
 
 	/** input: daily expense category */
 	@DAttr(name = "category", type = Type.String, length = 30, optional = false)
 	private String category;
 
+	/** input: how category is matched against the category names: exact, prefix or contains (default) */
+	@DAttr(name = "match", type = Type.String, length = 10, optional = true)
+	private String match;
+
 	/** output: daily expense which categories match {@link #category} */
 	@DAttr(name = "dailyExpense", type = Type.Collection, optional = false, mutable = false,
 		serialisable = false, filter = @Select(clazz = DailyExpense.class),
@@ -95,15 +107,29 @@ public class ExpenseAndIncomeByCategoryReport {
 	   *  DataSourceException if fails to read from the data source
 	   * 
 	   */
-	  @DOpt(type=DOpt.Type.ObjectFormConstructor)
 	  @DOpt(type=DOpt.Type.RequiredConstructor)
 	  public ExpenseAndIncomeByCategoryReport(@AttrRef("category") String category) throws NotPossibleException, DataSourceException {
+	    this(category, null);
+	  }
+
+	/**
+	   * @effects 
+	   *  initialise this with <tt>category</tt>, matched against the category names in the mode
+	   *  <tt>match</tt> (see {@link CategoryIndex#mode(String)}), and retrieve the outputs as
+	   *  {@link #ExpenseAndIncomeByCategoryReport(String)}.
+	   *  
+	   *  <p>throws ConstraintViolationException if <tt>match</tt> is not a match mode;
+	   *  DataSourceException if fails to read from the data source
+	   */
+	  @DOpt(type=DOpt.Type.ObjectFormConstructor)
+	  public ExpenseAndIncomeByCategoryReport(@AttrRef("category") String category, @AttrRef("match") String match) 
+	      throws ConstraintViolationException, NotPossibleException, DataSourceException {
 	    this.id=++idCounter;
 	    
 	    this.category = category;
+	    this.match = CategoryIndex.mode(match);
 	    
-	    doReportQuery1();
-	    doReportQuery2();
+	    doReportQueries();
 	  }
 
 	/**
@@ -113,6 +139,10 @@ public class ExpenseAndIncomeByCategoryReport {
 		return category;
 	}
 	
+	public String getMatch() {
+		return match;
+	}
+
 	public double getTotalExpense() {
 		return totalExpense;
 	}
@@ -135,8 +165,19 @@ public class ExpenseAndIncomeByCategoryReport {
 	public void setCategory(String category) throws NotPossibleException, DataSourceException {
 		this.category = category;
 
-		doReportQuery1();
-		doReportQuery2();
+		doReportQueries();
+	}
+
+	/**
+	 * @effects
+	 *  set this.match = match as a match mode and update the output attribute values as 
+	 *  {@link #setCategory(String)};
+	 *  throws ConstraintViolationException if <tt>match</tt> is not a match mode
+	 */
+	public void setMatch(String match) throws ConstraintViolationException, NotPossibleException, DataSourceException {
+		this.match = CategoryIndex.mode(match);
+
+		doReportQueries();
 	}
 
 	/**
@@ -145,8 +186,8 @@ public class ExpenseAndIncomeByCategoryReport {
 	 * @effects
 	 * 
 	 *          <pre>
-	 *   formulate the object query
-	 *   execute the query to retrieve from the data source the domain objects that satisfy it 
+	 *   have the data source compute the total and the number of the matching domain objects
+	 *   with an aggregate query, and leave the objects to be loaded when they are first shown
 	 *   update the output attributes accordingly.
 	 *  
 	 *  <p>throws NotPossibleException if failed to generate data source query; 
@@ -156,35 +197,66 @@ public class ExpenseAndIncomeByCategoryReport {
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "dailyExpense")
 	public void doReportQuery1() throws NotPossibleException, DataSourceException {
-		// the query manager instance
-
-		QRM qrm = QRM.getInstance();
-
-		DSMBasic dsm = qrm.getDsm();
-
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q1 = QueryToolKit.createSimpleJoinQuery(dsm, DailyExpense.class, Category.class,
-				DailyExpense.E_category, 
-				Category.C_name, 
-		        Op.MATCH, 
-		        "%"+category+"%");
-
-		Map<Oid, DailyExpense> result1 = qrm.getDom().retrieveObjects(DailyExpense.class, q1);
-		
-		if (result1 != null) {
-			dailyExpense = result1.values();
-			numDailyExpense = dailyExpense.size();
-			
-			double tempAmount = 0.0;
-			for(DailyExpense d: dailyExpense) {
-				tempAmount+=d.getAmount();
-			}
-			totalExpense = tempAmount;
-		} else {
-			// no data found: reset output
-			resetOutput1();
-		}
+		publishDailyExpense(computeDailyExpense());
+	}
+
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily expenses whose categories match category, 
+	 *  computed by the data source with an index seek per matching category, without 
+	 *  retrieving them; the result is cached until one of them is written
+	 */
+	private Result<DailyExpense> computeDailyExpense() throws NotPossibleException, DataSourceException {
+		final String input = category;
+		final String mode = match;
+		final DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByCategoryReport.class, "totalDailyExpense", mode, input),
+				affectedBy(DailyExpense.class, input, mode),
+				() -> {
+					QueryTemplate<DailyExpense> totals = QueryTemplate.searchTotals(dom, "DailyExpense.category.total", 
+							DailyExpense.class, QueryTemplate.minorUnits(dom, DailyExpense.class, DailyExpense.E_amount), null, 
+							DailyExpense.E_category);
+
+					long[] total = new long[2];
+					for (int categoryId : CategoryIndex.getInstance().find(input, mode)) {
+						long[] t = totals.executeTotal(categoryId);
+						total[0] += t[0];
+						total[1] += t[1];
+					}
+					return new Result<>(null, total);
+				});
+	}
+
+	/**
+	 * @effects 
+	 *  return the daily expenses whose categories match <tt>input</tt> in <tt>mode</tt>, 
+	 *  retrieved with an index seek per matching category; the result is cached until one 
+	 *  of them is written
+	 */
+	private Result<DailyExpense> queryDailyExpense(final String input, final String mode) throws NotPossibleException, DataSourceException {
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByCategoryReport.class, "dailyExpense", mode, input),
+				affectedBy(DailyExpense.class, input, mode),
+				() -> {
+					QueryTemplate<DailyExpense> search = QueryTemplate.search(QRM.getInstance().getDom(), "DailyExpense.category",
+							DailyExpense.class, DailyExpense.E_id, DailyExpense.E_idNumber, false, DailyExpense.E_category);
+
+					List<DailyExpense> found = new ArrayList<>();
+					for (int categoryId : CategoryIndex.getInstance().find(input, mode)) {
+						found.addAll(search.execute(categoryId));
+					}
+					return new Result<>(found);
+				});
+	}
+
+	/**
+	 * @effects update the daily expense outputs with <tt>result</tt>
+	 */
+	private void publishDailyExpense(Result<DailyExpense> result) {
+		dailyExpense = result.getObjects();
+		numDailyExpense = (int) result.getTotal(1);
+		totalExpense = Money.toMajor(result.getTotal(0));
 	}
 	
 	/**
@@ -193,8 +265,8 @@ public class ExpenseAndIncomeByCategoryReport {
 	 * @effects
 	 * 
 	 *          <pre>
-	 *   formulate the object query
-	 *   execute the query to retrieve from the data source the domain objects that satisfy it 
+	 *   have the data source compute the total and the number of the matching domain objects
+	 *   with an aggregate query, and leave the objects to be loaded when they are first shown
 	 *   update the output attributes accordingly.
 	 *  
 	 *  <p>throws NotPossibleException if failed to generate data source query; 
@@ -204,51 +276,86 @@ public class ExpenseAndIncomeByCategoryReport {
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "dailyIncome")
 	public void doReportQuery2() throws NotPossibleException, DataSourceException {
-		// the query manager instance
-
-		QRM qrm = QRM.getInstance();
-
-		DSMBasic dsm = qrm.getDsm();
-
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q2 = QueryToolKit.createSimpleJoinQuery(dsm, DailyIncome.class, Category.class,
-				DailyIncome.I_category, 
-				Category.C_name, 
-		        Op.MATCH, 
-		        "%"+category+"%");
-
-		Map<Oid, DailyIncome> result2 = qrm.getDom().retrieveObjects(DailyIncome.class, q2);
-		
-		if (result2 != null) {	
-			dailyIncome = result2.values();
-			numDailyIncome = dailyIncome.size();
-			
-			double tempAmount = 0.0;
-			for(DailyIncome d: dailyIncome) {
-				tempAmount+=d.getAmount();
-			}
-			totalIncome = tempAmount;
-		} else {
-			// no data found: reset output
-			resetOutput2();
-		}
+		publishDailyIncome(computeDailyIncome());
 	}
 
 	/**
-	 * @effects reset all output attributes to their initial values
+	 * @effects 
+	 *  return the total and the number of the daily incomes whose categories match category, 
+	 *  computed by the data source with an index seek per matching category, without 
+	 *  retrieving them; the result is cached until one of them is written
 	 */
-	private void resetOutput1() {
-		dailyExpense = null;
-		numDailyExpense = 0;
+	private Result<DailyIncome> computeDailyIncome() throws NotPossibleException, DataSourceException {
+		final String input = category;
+		final String mode = match;
+		final DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByCategoryReport.class, "totalDailyIncome", mode, input),
+				affectedBy(DailyIncome.class, input, mode),
+				() -> {
+					QueryTemplate<DailyIncome> totals = QueryTemplate.searchTotals(dom, "DailyIncome.category.total", 
+							DailyIncome.class, QueryTemplate.minorUnits(dom, DailyIncome.class, DailyIncome.I_amount), null, 
+							DailyIncome.I_category);
+
+					long[] total = new long[2];
+					for (int categoryId : CategoryIndex.getInstance().find(input, mode)) {
+						long[] t = totals.executeTotal(categoryId);
+						total[0] += t[0];
+						total[1] += t[1];
+					}
+					return new Result<>(null, total);
+				});
 	}
-	
+
+	/**
+	 * @effects 
+	 *  return the daily incomes whose categories match <tt>input</tt> in <tt>mode</tt>, 
+	 *  retrieved with an index seek per matching category; the result is cached until one 
+	 *  of them is written
+	 */
+	private Result<DailyIncome> queryDailyIncome(final String input, final String mode) throws NotPossibleException, DataSourceException {
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByCategoryReport.class, "dailyIncome", mode, input),
+				affectedBy(DailyIncome.class, input, mode),
+				() -> {
+					QueryTemplate<DailyIncome> search = QueryTemplate.search(QRM.getInstance().getDom(), "DailyIncome.category",
+							DailyIncome.class, DailyIncome.I_id, DailyIncome.I_idNumber, false, DailyIncome.I_category);
+
+					List<DailyIncome> found = new ArrayList<>();
+					for (int categoryId : CategoryIndex.getInstance().find(input, mode)) {
+						found.addAll(search.execute(categoryId));
+					}
+					return new Result<>(found);
+				});
+	}
+
 	/**
-	 * @effects reset all output attributes to their initial values
+	 * @effects update the daily income outputs with <tt>result</tt>
 	 */
-	private void resetOutput2() {
-		dailyIncome = null;
-		numDailyIncome = 0;
+	private void publishDailyIncome(Result<DailyIncome> result) {
+		dailyIncome = result.getObjects();
+		numDailyIncome = (int) result.getTotal(1);
+		totalIncome = Money.toMajor(result.getTotal(0));
+	}
+
+	/**
+	 * @effects return whether a write of a transaction of class <tt>type</tt> affects the 
+	 *  results of the categories that match <tt>input</tt> in <tt>mode</tt>
+	 */
+	private static Predicate<Write> affectedBy(Class<?> type, String input, String mode) {
+		return w -> w.getType() == type && CategoryIndex.matches(w.getCategoryName(), input, mode);
+	}
+
+	/**
+	 * @effects 
+	 *  compute the daily expense and the daily income outputs at the same time, and update 
+	 *  both once both are computed, unless the input has changed meanwhile
+	 */
+	private void doReportQueries() throws NotPossibleException, DataSourceException {
+		ReportExecutor.execute(run, this::computeDailyExpense, this::computeDailyIncome, (expense, income) -> {
+			publishDailyExpense(expense);
+			publishDailyIncome(income);
+		});
 	}
 
 	/**
@@ -264,9 +371,16 @@ public class ExpenseAndIncomeByCategoryReport {
 	}
 
 	/**
-	 * @effects return dailyExpense
+	 * @effects return dailyExpense, loading it from the data source if it has not been loaded
 	 */
 	public Collection<DailyExpense> getDailyExpense() {
+		if (dailyExpense == null && category != null) {
+			try {
+				dailyExpense = queryDailyExpense(category, match).getObjects();
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "DailyExpense");
+			}
+		}
 		return dailyExpense;
 	}
 
@@ -290,9 +404,16 @@ public class ExpenseAndIncomeByCategoryReport {
 	}
 
 	/**
-	 * @effects return dailyIncome
+	 * @effects return dailyIncome, loading it from the data source if it has not been loaded
 	 */
 	public Collection<DailyIncome> getDailyIncome() {
+		if (dailyIncome == null && category != null) {
+			try {
+				dailyIncome = queryDailyIncome(category, match).getObjects();
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "DailyIncome");
+			}
+		}
 		return dailyIncome;
 	}
 
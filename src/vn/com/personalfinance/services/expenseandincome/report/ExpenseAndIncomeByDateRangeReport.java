@@ -0,0 +1,446 @@
+package vn.com.personalfinance.services.expenseandincome.report;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.function.Predicate;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import vn.com.personalfinance.datasource.QueryTemplate;
+import vn.com.personalfinance.services.account.BalanceJournal;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.services.report.ReportCache.Result;
+import vn.com.personalfinance.services.report.ReportCache.Write;
+import vn.com.personalfinance.services.report.ReportExecutor;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	Represent the reports about daily expense and income between two dates, such as the last
+ *  90 days or a quarter. The totals of any range are read from the prefix sums of the expense
+ *  and income rollups, in two look-ups whatever the width of the range.
+ *
+ * @author Group 2
+ *
+ * @version 1.0
+ */
+@DClass(schema="personalfinancemanager",serialisable=false)
+public class ExpenseAndIncomeByDateRangeReport {
+	public static final String R_fromDate = "fromDate";
+	public static final String R_toDate = "toDate";
+	public static final String R_dailyExpense = "dailyExpense";
+	public static final String R_dailyIncome = "dailyIncome";
+	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+	private int id;
+	private static int idCounter = 0;
+
+	// the runs of the report queries
+	private final ReportExecutor.Run run = new ReportExecutor.Run();
+
+	/** input: the first date of the range */
+	@DAttr(name = R_fromDate, type = Type.Date, length = 15, optional = false)
+	private Date fromDate;
+
+	/** input: the last date of the range */
+	@DAttr(name = R_toDate, type = Type.Date, length = 15, optional = false)
+	private Date toDate;
+
+	/** output: daily expense which date is between {@link #fromDate} and {@link #toDate} */
+	@DAttr(name = R_dailyExpense, type = Type.Collection, optional = false, mutable = false, serialisable = false, filter = @Select(clazz = DailyExpense.class), derivedFrom = {
+			R_fromDate, R_toDate })
+	@DAssoc(ascName = "expense-and-income-by-date-range-report-has-dailyExpense", role = "report", ascType = AssocType.One2Many, endType = AssocEndType.One, associate = @Associate(type = DailyExpense.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE))
+	@Output
+	private Collection<DailyExpense> dailyExpense;
+
+	/** output: daily income which date is between {@link #fromDate} and {@link #toDate} */
+	@DAttr(name = R_dailyIncome, type = Type.Collection, optional = false, mutable = false, serialisable = false, filter = @Select(clazz = DailyIncome.class), derivedFrom = {
+			R_fromDate, R_toDate })
+	@DAssoc(ascName = "expense-and-income-by-date-range-report-has-dailyIncome", role = "report", ascType = AssocType.One2Many, endType = AssocEndType.One, associate = @Associate(type = DailyIncome.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE))
+	@Output
+	private Collection<DailyIncome> dailyIncome;
+
+	/** output: number of daily expenses found (if any) */
+	@DAttr(name = "numDailyExpense", type = Type.Integer, length = 10, auto = true, mutable = false)
+	@Output
+	private int numDailyExpense;
+
+	/** output: number of daily incomes found (if any) */
+	@DAttr(name = "numDailyIncome", type = Type.Integer, length = 10, auto = true, mutable = false)
+	@Output
+	private int numDailyIncome;
+
+	@DAttr(name = "totalExpense", type = Type.Double, length = 20, auto = true, mutable = false)
+	@Output
+	private double totalExpense;
+
+	@DAttr(name = "totalIncome", type = Type.Double, length = 20, auto = true, mutable = false)
+	@Output
+	private double totalIncome;
+
+	/**
+	 * @effects
+	 * initialise this with <tt>fromDate</tt> and <tt>toDate</tt> and compute the totals and
+	 * the numbers of the daily expenses and incomes between them (inclusive).
+	 *
+	 * <p>
+	 * throws NotPossibleException if failed to generate data source query;
+	 * DataSourceException if fails to read from the data source
+	 */
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public ExpenseAndIncomeByDateRangeReport(@AttrRef(R_fromDate) Date fromDate, @AttrRef(R_toDate) Date toDate)
+			throws NotPossibleException, DataSourceException {
+		this.id = ++idCounter;
+
+		this.fromDate = fromDate;
+		this.toDate = toDate;
+
+		doReportQueries();
+	}
+
+	public Date getFromDate() {
+		return fromDate;
+	}
+
+	public Date getToDate() {
+		return toDate;
+	}
+
+	public double getTotalExpense() {
+		return totalExpense;
+	}
+
+	public double getTotalIncome() {
+		return totalIncome;
+	}
+
+	/**
+	 * @effects
+	 *  set this.fromDate = fromDate and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setFromDate(Date fromDate) throws NotPossibleException, DataSourceException {
+		this.fromDate = fromDate;
+
+		doReportQueries();
+	}
+
+	/**
+	 * @effects
+	 *  set this.toDate = toDate and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setToDate(Date toDate) throws NotPossibleException, DataSourceException {
+		this.toDate = toDate;
+
+		doReportQueries();
+	}
+
+	/**
+	 * This method is invoked when the report input has be set by the user.
+	 *
+	 * @effects
+	 *
+	 *          <pre>
+	 *   read the total and the number of the daily expenses of the range from the prefix sums
+	 *   of the expense and income rollups, if they are loaded, and leave the daily expenses to
+	 *   be loaded when they are first shown; otherwise
+	 *   have the data source compute them with an aggregate query, without retrieving
+	 *   the domain objects
+	 *   update the output attributes accordingly.
+	 *
+	 *  <p>throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 *          </pre>
+	 */
+	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value = R_dailyExpense)
+	public void doReportQueryDailyExpense() throws NotPossibleException, DataSourceException {
+		publishDailyExpense(computeDailyExpense());
+	}
+
+	/**
+	 * @effects
+	 *  return the total and the number of the daily expenses of the range, leaving the daily
+	 *  expenses to be loaded when they are first shown; they are read from the prefix sums of
+	 *  the expense and income rollups if they are loaded, otherwise computed by the data source
+	 */
+	private Result<DailyExpense> computeDailyExpense() throws NotPossibleException, DataSourceException {
+		long[] days = days();
+		if (days == null)
+			return new Result<>(null, 0, 0);
+
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (rollup.isLoaded()) {
+			ExpenseAndIncomeRollup.Totals totals = rollup.getRangeTotals(BalanceJournal.KIND_DAILY_EXPENSE,
+					null, null, days[0], days[1]);
+			return new Result<>(null, totals.getAmountMinor(), totals.getCount());
+		}
+
+		final DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateRangeReport.class, "totalDailyExpense", days[0], days[1]),
+				affectedBy(DailyExpense.class, days),
+				() -> new Result<>(null, QueryTemplate.searchRangeTotals(dom, "DailyExpense.epochDay.range.total",
+						DailyExpense.class, QueryTemplate.minorUnits(dom, DailyExpense.class, DailyExpense.E_amount),
+						null, DailyExpense.E_epochDay)
+						.executeTotal(days[0], days[1])));
+	}
+
+	/**
+	 * @effects update the daily expense outputs with <tt>result</tt>
+	 */
+	private void publishDailyExpense(Result<DailyExpense> result) {
+		dailyExpense = result.getObjects();
+		totalExpense = Money.toMajor(result.getTotal(0));
+		numDailyExpense = (int) result.getTotal(1);
+	}
+
+	/**
+	 * This method is invoked when the report input has be set by the user.
+	 *
+	 * @effects
+	 *
+	 *          <pre>
+	 *   read the total and the number of the daily incomes of the range from the prefix sums
+	 *   of the expense and income rollups, if they are loaded, and leave the daily incomes to
+	 *   be loaded when they are first shown; otherwise
+	 *   have the data source compute them with an aggregate query, without retrieving
+	 *   the domain objects
+	 *   update the output attributes accordingly.
+	 *
+	 *  <p>throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 *          </pre>
+	 */
+	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value = R_dailyIncome)
+	public void doReportQueryDailyIncome() throws NotPossibleException, DataSourceException {
+		publishDailyIncome(computeDailyIncome());
+	}
+
+	/**
+	 * @effects
+	 *  return the total and the number of the daily incomes of the range, leaving the daily
+	 *  incomes to be loaded when they are first shown; they are read from the prefix sums of
+	 *  the expense and income rollups if they are loaded, otherwise computed by the data source
+	 */
+	private Result<DailyIncome> computeDailyIncome() throws NotPossibleException, DataSourceException {
+		long[] days = days();
+		if (days == null)
+			return new Result<>(null, 0, 0);
+
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (rollup.isLoaded()) {
+			ExpenseAndIncomeRollup.Totals totals = rollup.getRangeTotals(BalanceJournal.KIND_DAILY_INCOME,
+					null, null, days[0], days[1]);
+			return new Result<>(null, totals.getAmountMinor(), totals.getCount());
+		}
+
+		final DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateRangeReport.class, "totalDailyIncome", days[0], days[1]),
+				affectedBy(DailyIncome.class, days),
+				() -> new Result<>(null, QueryTemplate.searchRangeTotals(dom, "DailyIncome.epochDay.range.total",
+						DailyIncome.class, QueryTemplate.minorUnits(dom, DailyIncome.class, DailyIncome.I_amount),
+						null, DailyIncome.I_epochDay)
+						.executeTotal(days[0], days[1])));
+	}
+
+	/**
+	 * @effects update the daily income outputs with <tt>result</tt>
+	 */
+	private void publishDailyIncome(Result<DailyIncome> result) {
+		dailyIncome = result.getObjects();
+		totalIncome = Money.toMajor(result.getTotal(0));
+		numDailyIncome = (int) result.getTotal(1);
+	}
+
+	/**
+	 * @effects
+	 *  compute the daily expense and the daily income outputs, from the rollups on this thread
+	 *  if they are loaded and otherwise at the same time, and update both once both are
+	 *  computed, unless the input has changed meanwhile
+	 */
+	private void doReportQueries() throws NotPossibleException, DataSourceException {
+		ReportExecutor.execute(run, ExpenseAndIncomeRollup.getInstance().isLoaded(),
+				this::computeDailyExpense, this::computeDailyIncome, (expense, income) -> {
+			publishDailyExpense(expense);
+			publishDailyIncome(income);
+		});
+	}
+
+	/**
+	 * @effects
+	 *  return the daily expenses of the range <tt>days</tt>, retrieved from the data source by an
+	 *  index range scan on their epoch day; the result is cached until one of them is written
+	 */
+	private Collection<DailyExpense> queryDailyExpense(final long[] days) throws NotPossibleException, DataSourceException {
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateRangeReport.class, "dailyExpense", days[0], days[1]),
+				affectedBy(DailyExpense.class, days),
+				() -> new Result<>(QueryTemplate.searchRange(QRM.getInstance().getDom(), "DailyExpense.epochDay.range",
+						DailyExpense.class, DailyExpense.E_id, DailyExpense.E_idNumber, false, DailyExpense.E_epochDay)
+						.execute(days[0], days[1])))
+				.getObjects();
+	}
+
+	/**
+	 * @effects
+	 *  return the daily incomes of the range <tt>days</tt>, retrieved from the data source by an
+	 *  index range scan on their epoch day; the result is cached until one of them is written
+	 */
+	private Collection<DailyIncome> queryDailyIncome(final long[] days) throws NotPossibleException, DataSourceException {
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateRangeReport.class, "dailyIncome", days[0], days[1]),
+				affectedBy(DailyIncome.class, days),
+				() -> new Result<>(QueryTemplate.searchRange(QRM.getInstance().getDom(), "DailyIncome.epochDay.range",
+						DailyIncome.class, DailyIncome.I_id, DailyIncome.I_idNumber, false, DailyIncome.I_epochDay)
+						.execute(days[0], days[1])))
+				.getObjects();
+	}
+
+	/**
+	 * @effects return whether a write of a transaction of class <tt>type</tt> affects the
+	 *  results of the range <tt>days</tt>
+	 */
+	private static Predicate<Write> affectedBy(Class<?> type, long[] days) {
+		return w -> {
+			if (w.getType() != type || w.getDate() == null)
+				return false;
+			long day = Dates.epochDay(w.getDate());
+			return day >= days[0] && day <= days[1];
+		};
+	}
+
+	/**
+	 * @effects return the epoch days {from, to} of the range, or null if a date is not set
+	 */
+	private long[] days() {
+		if (fromDate == null || toDate == null)
+			return null;
+		return new long[] { Dates.epochDay(fromDate), Dates.epochDay(toDate) };
+	}
+
+	/**
+	 * A link-adder method for {@link #dailyExpense}, required for the object form
+	 * to function. However, this method is empty because dailyExpense have already
+	 * be recorded in the attribute {@link #dailyExpense}.
+	 */
+	@DOpt(type = DOpt.Type.LinkAdder)
+	@AttrRef(value = R_dailyExpense)
+	public boolean addDailyExpense(Collection<DailyExpense> dailyExpense) {
+		// do nothing
+		return false;
+	}
+
+	/**
+	 * @effects return dailyExpense, loading it from the data source if it has not been loaded
+	 */
+	public Collection<DailyExpense> getDailyExpense() {
+		long[] days = days();
+		if (dailyExpense == null && days != null) {
+			try {
+				dailyExpense = queryDailyExpense(days);
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "DailyExpense");
+			}
+		}
+		return dailyExpense;
+	}
+
+	/**
+	 * @effects return numDailyExpense
+	 */
+	public int getNumDailyExpense() {
+		return numDailyExpense;
+	}
+
+	/**
+	 * A link-adder method for {@link #dailyIncome}, required for the object form
+	 * to function. However, this method is empty because dailyIncome have already
+	 * be recorded in the attribute {@link #dailyIncome}.
+	 */
+	@DOpt(type = DOpt.Type.LinkAdder)
+	@AttrRef(value = R_dailyIncome)
+	public boolean addDailyIncome(Collection<DailyIncome> dailyIncome) {
+		// do nothing
+		return false;
+	}
+
+	/**
+	 * @effects return dailyIncome, loading it from the data source if it has not been loaded
+	 */
+	public Collection<DailyIncome> getDailyIncome() {
+		long[] days = days();
+		if (dailyIncome == null && days != null) {
+			try {
+				dailyIncome = queryDailyIncome(days);
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "DailyIncome");
+			}
+		}
+		return dailyIncome;
+	}
+
+	/**
+	 * @effects return numDailyIncome
+	 */
+	public int getNumDailyIncome() {
+		return numDailyIncome;
+	}
+
+	/**
+	 * @effects return id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + id;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ExpenseAndIncomeByDateRangeReport other = (ExpenseAndIncomeByDateRangeReport) obj;
+		if (id != other.id)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "ExpenseAndIncomeByDateRangeReport (" + id + ", " + fromDate + ", " + toDate + ")";
+	}
+}
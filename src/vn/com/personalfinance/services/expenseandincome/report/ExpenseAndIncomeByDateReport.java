@@ -4,13 +4,12 @@ import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.Date;
-import java.util.Map;
+import java.util.List;
 
-import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.dom.DOMBasic;
 import domainapp.basics.core.dodm.qrm.QRM;
 import domainapp.basics.exceptions.DataSourceException;
 import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAssoc.AssocEndType;
@@ -22,13 +21,18 @@ import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
 import domainapp.basics.model.meta.Select;
-import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
 import domainapp.basics.modules.report.model.meta.Output;
 import domainapp.basics.util.cache.StateHistory;
+import vn.com.personalfinance.datasource.QueryTemplate;
+import vn.com.personalfinance.services.account.BalanceJournal;
 import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
 import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.services.report.ReportCache.Result;
+import vn.com.personalfinance.services.report.ReportExecutor;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
 
 /**
  * @overview 
@@ -45,6 +49,9 @@ public class ExpenseAndIncomeByDateReport {
 	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
 	private int id;
 	private static int idCounter = 0;
+	
+	// the runs of the report queries
+	private final ReportExecutor.Run run = new ReportExecutor.Run();
 
 	/** input: daily expense date */
 	@DAttr(name = R_date, type = Type.Date, length = 15, optional = false)
@@ -114,8 +121,7 @@ public class ExpenseAndIncomeByDateReport {
 		stateHist = new StateHistory<>();
 
 		updateDateToString();
-		doReportQuery1();
-		doReportQuery2();
+		doReportQueries();
 	}
 
 	/**
@@ -152,8 +158,7 @@ public class ExpenseAndIncomeByDateReport {
 		this.date = date;
 
 		updateDateToString();
-		doReportQuery1();
-		doReportQuery2();
+		doReportQueries();
 	}
 
 	/**
@@ -162,8 +167,11 @@ public class ExpenseAndIncomeByDateReport {
 	 * @effects
 	 * 
 	 *          <pre>
-	 *   formulate the object query
-	 *   execute the query to retrieve from the data source the domain objects that satisfy it 
+	 *   read the total and the number of the daily expenses of the date from the expense 
+	 *   and income rollups, if they are loaded, and leave the daily expenses to be loaded 
+	 *   when they are first shown; otherwise
+	 *   have the data source compute them with an aggregate query, without retrieving
+	 *   the domain objects
 	 *   update the output attributes accordingly.
 	 *  
 	 *  <p>throws NotPossibleException if failed to generate data source query; 
@@ -173,33 +181,32 @@ public class ExpenseAndIncomeByDateReport {
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "dailyExpense")
 	public void doReportQuery1() throws NotPossibleException, DataSourceException {
-		// the query manager instance
-
-		QRM qrm = QRM.getInstance();
-
-		DSMBasic dsm = qrm.getDsm();
-
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q1 = QueryToolKit.createSearchQuery(dsm, DailyExpense.class, new String[] { DailyExpense.E_dateToString },
-				new Op[] { Op.MATCH },
-
-				new Object[] { "%"+dateToString+"%" });
-
-		Map<Oid, DailyExpense> result1 = qrm.getDom().retrieveObjects(DailyExpense.class, q1);
+		publishDailyExpense(computeDailyExpense());
+	}
 
-		if (!(result1 == null)) {
-			// update the main output data
-			dailyExpense = result1.values();
-			// update other output (if any)
-			numDailyExpense = dailyExpense.size();
-			for(DailyExpense d: dailyExpense) {
-				totalExpense+=d.getAmount();
-			}
-		} else {
-			// no data found: reset output
-			resetOutput1();
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily expenses of the date, leaving the daily 
+	 *  expenses to be loaded when they are first shown; they are read from the expense and income
+	 *  rollups if they are loaded, otherwise computed by the data source
+	 */
+	private Result<DailyExpense> computeDailyExpense() throws NotPossibleException, DataSourceException {
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (rollup.isLoaded()) {
+			ExpenseAndIncomeRollup.Totals totals = rollup.getDayTotals(BalanceJournal.KIND_DAILY_EXPENSE, Dates.epochDay(date));
+			return new Result<>(null, totals.getAmountMinor(), totals.getCount());
 		}
+		
+		return totalDailyExpense();
+	}
+
+	/**
+	 * @effects update the daily expense outputs with <tt>result</tt>
+	 */
+	private void publishDailyExpense(Result<DailyExpense> result) {
+		dailyExpense = result.getObjects();
+		totalExpense = Money.toMajor(result.getTotal(0));
+		numDailyExpense = (int) result.getTotal(1);
 	}
 	
 	/**
@@ -208,8 +215,11 @@ public class ExpenseAndIncomeByDateReport {
 	 * @effects
 	 * 
 	 *          <pre>
-	 *   formulate the object query
-	 *   execute the query to retrieve from the data source the domain objects that satisfy it 
+	 *   read the total and the number of the daily incomes of the date from the expense 
+	 *   and income rollups, if they are loaded, and leave the daily incomes to be loaded 
+	 *   when they are first shown; otherwise
+	 *   have the data source compute them with an aggregate query, without retrieving
+	 *   the domain objects
 	 *   update the output attributes accordingly.
 	 *  
 	 *  <p>throws NotPossibleException if failed to generate data source query; 
@@ -219,49 +229,126 @@ public class ExpenseAndIncomeByDateReport {
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "dailyIncome")
 	public void doReportQuery2() throws NotPossibleException, DataSourceException {
-		// the query manager instance
-
-		QRM qrm = QRM.getInstance();
+		publishDailyIncome(computeDailyIncome());
+	}
 
-		DSMBasic dsm = qrm.getDsm();
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily incomes of the date, leaving the daily 
+	 *  incomes to be loaded when they are first shown; they are read from the expense and income
+	 *  rollups if they are loaded, otherwise computed by the data source
+	 */
+	private Result<DailyIncome> computeDailyIncome() throws NotPossibleException, DataSourceException {
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (rollup.isLoaded()) {
+			ExpenseAndIncomeRollup.Totals totals = rollup.getDayTotals(BalanceJournal.KIND_DAILY_INCOME, Dates.epochDay(date));
+			return new Result<>(null, totals.getAmountMinor(), totals.getCount());
+		}
+		
+		return totalDailyIncome();
+	}
 
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q2 = QueryToolKit.createSearchQuery(dsm, DailyIncome.class, new String[] { DailyIncome.I_dateToString },
-				new Op[] { Op.MATCH },
+	/**
+	 * @effects update the daily income outputs with <tt>result</tt>
+	 */
+	private void publishDailyIncome(Result<DailyIncome> result) {
+		dailyIncome = result.getObjects();
+		totalIncome = Money.toMajor(result.getTotal(0));
+		numDailyIncome = (int) result.getTotal(1);
+	}
 
-				new Object[] { "%"+dateToString+"%" });
+	/**
+	 * @effects 
+	 *  compute the daily expense and the daily income outputs, from the rollups on this thread
+	 *  if they are loaded and otherwise at the same time, and update both once both are 
+	 *  computed, unless the input has changed meanwhile
+	 */
+	private void doReportQueries() throws NotPossibleException, DataSourceException {
+		ReportExecutor.execute(run, ExpenseAndIncomeRollup.getInstance().isLoaded(),
+				this::computeDailyExpense, this::computeDailyIncome, (expense, income) -> {
+			publishDailyExpense(expense);
+			publishDailyIncome(income);
+		});
+	}
 
-		Map<Oid, DailyIncome> result2 = qrm.getDom().retrieveObjects(DailyIncome.class, q2);
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily expenses of the date, computed by the data 
+	 *  source without retrieving them; the result is cached until one of them is written
+	 */
+	private Result<DailyExpense> totalDailyExpense() throws NotPossibleException, DataSourceException {
+		final long day = Dates.epochDay(date);
+		DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateReport.class, "totalDailyExpense", day),
+				w -> w.getType() == DailyExpense.class && w.getDate() != null && Dates.epochDay(w.getDate()) == day,
+				() -> new Result<>(null, QueryTemplate.searchTotals(dom, "DailyExpense.epochDay.total", DailyExpense.class,
+						QueryTemplate.minorUnits(dom, DailyExpense.class, DailyExpense.E_amount), null, DailyExpense.E_epochDay)
+						.executeTotal(day)));
+	}
 
-		if (!(result2 == null)) {
-			// update the main output data
-			dailyIncome = result2.values();
-			// update other output (if any)
-			numDailyIncome = dailyIncome.size();
-			for(DailyIncome d: dailyIncome) {
-				totalIncome+=d.getAmount();
-			}
-		} else {
-			// no data found: reset output
-			resetOutput2();
-		}
+	/**
+	 * @effects 
+	 *  return the daily expenses of date, retrieved from the data source by an index seek 
+	 *  on their epoch day
+	 *  and their total; the result is cached until one of them is written
+	 */
+	private Result<DailyExpense> queryDailyExpense() throws NotPossibleException, DataSourceException {
+		final long day = Dates.epochDay(date);
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateReport.class, "dailyExpense", day),
+				w -> w.getType() == DailyExpense.class && w.getDate() != null && Dates.epochDay(w.getDate()) == day,
+				() -> {
+					List<DailyExpense> found = QueryTemplate.search(QRM.getInstance().getDom(), "DailyExpense.epochDay",
+							DailyExpense.class, DailyExpense.E_id, DailyExpense.E_idNumber, false, DailyExpense.E_epochDay)
+							.execute(day);
+
+					long tempAmount = 0;
+					for(DailyExpense d: found) {
+						tempAmount+=d.getAmountMinor();
+					}
+					return new Result<>(found, tempAmount);
+				});
 	}
 
 	/**
-	 * @effects reset all output attributes to their initial values
+	 * @effects 
+	 *  return the total and the number of the daily incomes of the date, computed by the data 
+	 *  source without retrieving them; the result is cached until one of them is written
 	 */
-	private void resetOutput1() {
-		dailyExpense = null;
-		numDailyExpense = 0;
+	private Result<DailyIncome> totalDailyIncome() throws NotPossibleException, DataSourceException {
+		final long day = Dates.epochDay(date);
+		DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateReport.class, "totalDailyIncome", day),
+				w -> w.getType() == DailyIncome.class && w.getDate() != null && Dates.epochDay(w.getDate()) == day,
+				() -> new Result<>(null, QueryTemplate.searchTotals(dom, "DailyIncome.epochDay.total", DailyIncome.class,
+						QueryTemplate.minorUnits(dom, DailyIncome.class, DailyIncome.I_amount), null, DailyIncome.I_epochDay)
+						.executeTotal(day)));
 	}
-	
+
 	/**
-	 * @effects reset all output attributes to their initial values
+	 * @effects 
+	 *  return the daily incomes of date, retrieved from the data source by an index seek 
+	 *  on their epoch day
+	 *  and their total; the result is cached until one of them is written
 	 */
-	private void resetOutput2() {
-		dailyIncome = null;
-		numDailyIncome = 0;
+	private Result<DailyIncome> queryDailyIncome() throws NotPossibleException, DataSourceException {
+		final long day = Dates.epochDay(date);
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByDateReport.class, "dailyIncome", day),
+				w -> w.getType() == DailyIncome.class && w.getDate() != null && Dates.epochDay(w.getDate()) == day,
+				() -> {
+					List<DailyIncome> found = QueryTemplate.search(QRM.getInstance().getDom(), "DailyIncome.epochDay",
+							DailyIncome.class, DailyIncome.I_id, DailyIncome.I_idNumber, false, DailyIncome.I_epochDay)
+							.execute(day);
+
+					long tempAmount = 0;
+					for(DailyIncome d: found) {
+						tempAmount+=d.getAmountMinor();
+					}
+					return new Result<>(found, tempAmount);
+				});
 	}
 
 	/**
@@ -277,9 +364,16 @@ public class ExpenseAndIncomeByDateReport {
 	}
 
 	/**
-	 * @effects return dailyExpense
+	 * @effects return dailyExpense, loading it from the data source if it has not been loaded
 	 */
 	public Collection<DailyExpense> getDailyExpense() {
+		if (dailyExpense == null && date != null) {
+			try {
+				dailyExpense = queryDailyExpense().getObjects();
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "DailyExpense");
+			}
+		}
 		return dailyExpense;
 	}
 
@@ -303,9 +397,16 @@ public class ExpenseAndIncomeByDateReport {
 	}
 
 	/**
-	 * @effects return dailyIncome
+	 * @effects return dailyIncome, loading it from the data source if it has not been loaded
 	 */
 	public Collection<DailyIncome> getDailyIncome() {
+		if (dailyIncome == null && date != null) {
+			try {
+				dailyIncome = queryDailyIncome().getObjects();
+			} catch (DataSourceException e) {
+				throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "DailyIncome");
+			}
+		}
 		return dailyIncome;
 	}
 
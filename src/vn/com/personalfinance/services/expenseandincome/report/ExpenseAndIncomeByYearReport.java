@@ -1,12 +1,10 @@
 package vn.com.personalfinance.services.expenseandincome.report;
 import java.util.Collection;
-import java.util.Map;
 
-import domainapp.basics.core.dodm.dsm.DSMBasic;
+import domainapp.basics.core.dodm.dom.DOMBasic;
 import domainapp.basics.core.dodm.qrm.QRM;
 import domainapp.basics.exceptions.DataSourceException;
 import domainapp.basics.exceptions.NotPossibleException;
-import domainapp.basics.model.Oid;
 import domainapp.basics.model.meta.AttrRef;
 import domainapp.basics.model.meta.DAssoc;
 import domainapp.basics.model.meta.DAssoc.AssocEndType;
@@ -18,12 +16,17 @@ import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.MetaConstants;
 import domainapp.basics.model.meta.Select;
-import domainapp.basics.model.query.Expression.Op;
-import domainapp.basics.model.query.Query;
-import domainapp.basics.model.query.QueryToolKit;
 import domainapp.basics.modules.report.model.meta.Output;
+import vn.com.personalfinance.datasource.QueryTemplate;
+import vn.com.personalfinance.services.account.BalanceJournal;
 import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
 import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.services.report.ReportCache.Result;
+import vn.com.personalfinance.services.report.ReportExecutor;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
 /**
  * @overview 
  * 	Represent the reports about daily expense by date.
@@ -41,6 +44,9 @@ public class ExpenseAndIncomeByYearReport {
 	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
 	private int id;
 	private static int idCounter = 0;
+	
+	// the runs of the report queries
+	private final ReportExecutor.Run run = new ReportExecutor.Run();
 
 	/** input: daily expense date */
 	
@@ -65,6 +71,9 @@ public class ExpenseAndIncomeByYearReport {
 	@DAttr(name = "numDailyTransaction", type = Type.Integer, length = 20, auto = true, mutable = false)
 	@Output
 	private int numDailyTransaction;
+	// the parts of numDailyTransaction
+	private int numDailyExpense;
+	private int numDailyIncome;
 	
 	@DAttr(name = "totalExpense", type = Type.Double, length = 20, auto = true, mutable = false)
 	@Output
@@ -91,8 +100,7 @@ public class ExpenseAndIncomeByYearReport {
 	public ExpenseAndIncomeByYearReport(@AttrRef("year") String year) throws NotPossibleException, DataSourceException {
 		this.id = ++idCounter;
 		this.year = year;
-		doReportQueryDailyExpense();
-		doReportQueryDailyIncome();
+		doReportQueries();
 	}
 
 	/**
@@ -124,8 +132,7 @@ public class ExpenseAndIncomeByYearReport {
 	public void setYear(String year) throws NotPossibleException, DataSourceException {
 		this.year = year;
 
-		doReportQueryDailyExpense();
-		doReportQueryDailyIncome();
+		doReportQueries();
 	}
 
 	/**
@@ -134,8 +141,11 @@ public class ExpenseAndIncomeByYearReport {
 	 * @effects
 	 * 
 	 *          <pre>
-	 *   formulate the object query
-	 *   execute the query to retrieve from the data source the domain objects that satisfy it 
+	 *   read the total and the number of the daily expenses of the year from the expense 
+	 *   and income rollups, if they are loaded, and leave the daily expenses to be loaded 
+	 *   when they are first shown; otherwise
+	 *   have the data source compute them with an aggregate query, without retrieving
+	 *   the domain objects
 	 *   update the output attributes accordingly.
 	 *  
 	 *  <p>throws NotPossibleException if failed to generate data source query; 
@@ -145,93 +155,154 @@ public class ExpenseAndIncomeByYearReport {
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "dailyExpense")
 	public void doReportQueryDailyExpense() throws NotPossibleException, DataSourceException {
-		// the query manager instance
-
-		QRM qrm = QRM.getInstance();
-
-		DSMBasic dsm = qrm.getDsm();
-
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q = QueryToolKit.createSearchQuery(dsm, DailyExpense.class, new String[] { DailyExpense.E_dateToString },
-				new Op[] { Op.MATCH },
-				new Object[] { "%"+year+"%" });
-
-		Map<Oid, DailyExpense> result = qrm.getDom().retrieveObjects(DailyExpense.class, q);
+		publishDailyExpense(computeDailyExpense());
+	}
 
-		if (!(result == null)) {
-			// update the main output data
-			dailyExpense = result.values();
-			// update other output (if any)
-			numDailyTransaction += dailyExpense.size();
-			
-			if(numDailyTransaction == 0) {
-				totalExpense = 0;
-			} else {
-				double temp = 0.0;
-				for(DailyExpense d: dailyExpense) {
-					temp+=d.getAmount();
-				}
-				totalExpense = temp;
-			}
-		} else {
-			// no data found: reset output
-			resetOutputDailyExpense();
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily expenses of the year, leaving the daily 
+	 *  expenses to be loaded when they are first shown; they are read from the expense and income
+	 *  rollups if they are loaded, otherwise computed by the data source
+	 */
+	private Result<DailyExpense> computeDailyExpense() throws NotPossibleException, DataSourceException {
+		Integer key = yearKey();
+		if (key == null)
+			return new Result<>(null, 0, 0);
+		
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (rollup.isLoaded()) {
+			ExpenseAndIncomeRollup.Totals totals = rollup.getYearTotals(BalanceJournal.KIND_DAILY_EXPENSE, key);
+			return new Result<>(null, totals.getAmountMinor(), totals.getCount());
 		}
+		
+		return totalDailyExpense(key);
+	}
+
+	/**
+	 * @effects update the daily expense outputs with <tt>result</tt>
+	 */
+	private void publishDailyExpense(Result<DailyExpense> result) {
+		dailyExpense = result.getObjects();
+		totalExpense = Money.toMajor(result.getTotal(0));
+		numDailyExpense = (int) result.getTotal(1);
+		numDailyTransaction = numDailyExpense + numDailyIncome;
 	}
 	
 	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
 	@AttrRef(value = "dailyIncome")
 	public void doReportQueryDailyIncome() throws NotPossibleException, DataSourceException {
-		// the query manager instance
-
-		QRM qrm = QRM.getInstance();
+		publishDailyIncome(computeDailyIncome());
+	}
 
-		DSMBasic dsm = qrm.getDsm();
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily incomes of the year, leaving the daily 
+	 *  incomes to be loaded when they are first shown; they are read from the expense and income
+	 *  rollups if they are loaded, otherwise computed by the data source
+	 */
+	private Result<DailyIncome> computeDailyIncome() throws NotPossibleException, DataSourceException {
+		Integer key = yearKey();
+		if (key == null)
+			return new Result<>(null, 0, 0);
+		
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (rollup.isLoaded()) {
+			ExpenseAndIncomeRollup.Totals totals = rollup.getYearTotals(BalanceJournal.KIND_DAILY_INCOME, key);
+			return new Result<>(null, totals.getAmountMinor(), totals.getCount());
+		}
+		
+		return totalDailyIncome(key);
+	}
 
-		// TODO: to conserve memory cache the query and only change the query parameter
-		// value(s)
-		Query q = QueryToolKit.createSearchQuery(dsm, DailyIncome.class, new String[] { DailyIncome.I_dateToString },
-				new Op[] { Op.MATCH },
+	/**
+	 * @effects update the daily income outputs with <tt>result</tt>
+	 */
+	private void publishDailyIncome(Result<DailyIncome> result) {
+		dailyIncome = result.getObjects();
+		totalIncome = Money.toMajor(result.getTotal(0));
+		numDailyIncome = (int) result.getTotal(1);
+		numDailyTransaction = numDailyExpense + numDailyIncome;
+	}
 
-				new Object[] { "%"+year+"%" });
+	/**
+	 * @effects 
+	 *  compute the daily expense and the daily income outputs, from the rollups on this thread
+	 *  if they are loaded and otherwise at the same time, and update both once both are 
+	 *  computed, unless the input has changed meanwhile
+	 */
+	private void doReportQueries() throws NotPossibleException, DataSourceException {
+		ReportExecutor.execute(run, ExpenseAndIncomeRollup.getInstance().isLoaded(),
+				this::computeDailyExpense, this::computeDailyIncome, (expense, income) -> {
+			publishDailyExpense(expense);
+			publishDailyIncome(income);
+		});
+	}
 
-		Map<Oid, DailyIncome> result = qrm.getDom().retrieveObjects(DailyIncome.class, q);
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily expenses of the year <tt>key</tt>, computed by the data 
+	 *  source without retrieving them; the result is cached until one of them is written
+	 */
+	private Result<DailyExpense> totalDailyExpense(final int key) throws NotPossibleException, DataSourceException {
+		DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByYearReport.class, "totalDailyExpense", key),
+				w -> w.getType() == DailyExpense.class && w.getDate() != null && Dates.yearKey(w.getDate()) == key,
+				() -> new Result<>(null, QueryTemplate.searchTotals(dom, "DailyExpense.yearKey.total", DailyExpense.class,
+						QueryTemplate.minorUnits(dom, DailyExpense.class, DailyExpense.E_amount), null, DailyExpense.E_yearKey)
+						.executeTotal(key)));
+	}
 
-		if (!(result == null)) {
-			// update the main output data
-			dailyIncome = result.values();
-			// update other output (if any)
-			numDailyTransaction += dailyIncome.size();
+	/**
+	 * @effects 
+	 *  return the daily expenses of the year <tt>key</tt>, read from the data source by an index 
+	 *  seek on their year key a window at a time, each time they are iterated, as transient 
+	 *  objects, so that no more than a window of them is in memory at once whatever the volume 
+	 *  of the year
+	 */
+	private Collection<DailyExpense> streamDailyExpense(int key) {
+		return QueryTemplate.searchWindow(QRM.getInstance().getDom(), "DailyExpense.yearKey.window",
+				DailyExpense.class, DailyExpense.E_idNumber, false, DailyExpense.E_yearKey)
+				.stream(numDailyExpense, key);
+	}
 
-			if(numDailyTransaction == 0) {
-				totalIncome = 0;
-			} else {
-				double temp = 0.0;
-				for(DailyIncome d: dailyIncome) {
-					temp+=d.getAmount();
-				}
-				totalIncome = temp;
-			}
-		} else {
-			// no data found: reset output
-			resetOutputDailyIncome();
-		}
+	/**
+	 * @effects 
+	 *  return the total and the number of the daily incomes of the year <tt>key</tt>, computed by the data 
+	 *  source without retrieving them; the result is cached until one of them is written
+	 */
+	private Result<DailyIncome> totalDailyIncome(final int key) throws NotPossibleException, DataSourceException {
+		DOMBasic dom = QRM.getInstance().getDom();
+		return ReportCache.getInstance().get(
+				ReportCache.key(ExpenseAndIncomeByYearReport.class, "totalDailyIncome", key),
+				w -> w.getType() == DailyIncome.class && w.getDate() != null && Dates.yearKey(w.getDate()) == key,
+				() -> new Result<>(null, QueryTemplate.searchTotals(dom, "DailyIncome.yearKey.total", DailyIncome.class,
+						QueryTemplate.minorUnits(dom, DailyIncome.class, DailyIncome.I_amount), null, DailyIncome.I_yearKey)
+						.executeTotal(key)));
 	}
 
 	/**
-	 * @effects reset all output attributes to their initial values
+	 * @effects 
+	 *  return the daily incomes of the year <tt>key</tt>, read from the data source by an index 
+	 *  seek on their year key a window at a time, each time they are iterated, as transient 
+	 *  objects, so that no more than a window of them is in memory at once whatever the volume 
+	 *  of the year
 	 */
-	private void resetOutputDailyExpense() {
-		dailyExpense = null;
-		numDailyTransaction = 0;
-		totalExpense = 0;
+	private Collection<DailyIncome> streamDailyIncome(int key) {
+		return QueryTemplate.searchWindow(QRM.getInstance().getDom(), "DailyIncome.yearKey.window",
+				DailyIncome.class, DailyIncome.I_idNumber, false, DailyIncome.I_yearKey)
+				.stream(numDailyIncome, key);
 	}
-	
-	private void resetOutputDailyIncome() {
-		dailyIncome = null;
-		numDailyTransaction = 0;
-		totalIncome = 0;
+
+	/**
+	 * @effects return year as a number, or null if it is not a number
+	 */
+	private Integer yearKey() {
+		try {
+			return Integer.parseInt(year.trim());
+		} catch (RuntimeException e) {
+			return null;
+		}
 	}
 
 	/**
@@ -254,16 +325,22 @@ public class ExpenseAndIncomeByYearReport {
 	}
 
 	/**
-	 * @effects return dailyExpense
+	 * @effects return dailyExpense, streaming it from the data source if it has not been loaded
 	 */
 	public Collection<DailyExpense> getDailyExpense() {
+		Integer key = yearKey();
+		if (dailyExpense == null && key != null)
+			dailyExpense = streamDailyExpense(key);
 		return dailyExpense;
 	}
 	
 	/**
-	 * @effects return dailyExpense
+	 * @effects return dailyIncome, streaming it from the data source if it has not been loaded
 	 */
 	public Collection<DailyIncome> getDailyIncome() {
+		Integer key = yearKey();
+		if (dailyIncome == null && key != null)
+			dailyIncome = streamDailyIncome(key);
 		return dailyIncome;
 	}
 
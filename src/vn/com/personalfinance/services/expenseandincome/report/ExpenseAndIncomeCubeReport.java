@@ -0,0 +1,411 @@
+package vn.com.personalfinance.services.expenseandincome.report;
+
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.modules.report.model.meta.Output;
+import vn.com.personalfinance.services.account.BalanceJournal;
+import vn.com.personalfinance.services.expenseandincome.model.CategoryIndex;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup.Totals;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	Represent the reports that slice the daily expenses and incomes by account, category and
+ *  month at once: the totals of a year, or of a month of it, of one account or all of them and
+ *  of one category or all of them, drilled down by account, category or month if required.
+ *
+ *  <p>The totals are read from the expense and income cube of the rollups, in memory, without
+ *  reading the transactions; they are empty if the rollups are not loaded.
+ *
+ * @author Group 2
+ *
+ * @version 1.0
+ */
+@DClass(schema="personalfinancemanager",serialisable=false)
+public class ExpenseAndIncomeCubeReport {
+	public static final String R_year = "year";
+	public static final String R_month = "month";
+	public static final String R_accountId = "accountId";
+	public static final String R_category = "category";
+	public static final String R_drillDown = "drillDown";
+
+	/** the values of {@link #drillDown} */
+	public static final String BY_ACCOUNT = "account";
+	public static final String BY_CATEGORY = "category";
+	public static final String BY_MONTH = "month";
+
+	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+	private int id;
+	private static int idCounter = 0;
+
+	/** input: the year */
+	@DAttr(name = R_year, type = Type.String, length = 15, optional = false)
+	private String year;
+
+	/** input: the month of {@link #year}, or all of them if empty */
+	@DAttr(name = R_month, type = Type.String, length = 15, optional = true)
+	private String month;
+
+	/** input: the id of the account, or all of them if empty */
+	@DAttr(name = R_accountId, type = Type.String, length = 6, optional = true)
+	private String accountId;
+
+	/** input: the name of the category, or all of them if empty */
+	@DAttr(name = R_category, type = Type.String, length = 30, optional = true)
+	private String category;
+
+	/**
+	 * input: the dimension to drill down by: {@link #BY_ACCOUNT}, {@link #BY_CATEGORY} or
+	 * {@link #BY_MONTH}, or none if empty
+	 */
+	@DAttr(name = R_drillDown, type = Type.String, length = 10, optional = true)
+	private String drillDown;
+
+	/** output: number of daily expenses found (if any) */
+	@DAttr(name = "numDailyExpense", type = Type.Integer, length = 10, auto = true, mutable = false)
+	@Output
+	private int numDailyExpense;
+
+	/** output: number of daily incomes found (if any) */
+	@DAttr(name = "numDailyIncome", type = Type.Integer, length = 10, auto = true, mutable = false)
+	@Output
+	private int numDailyIncome;
+
+	@DAttr(name = "totalExpense", type = Type.Double, length = 20, auto = true, mutable = false)
+	@Output
+	private double totalExpense;
+
+	@DAttr(name = "totalIncome", type = Type.Double, length = 20, auto = true, mutable = false)
+	@Output
+	private double totalIncome;
+
+	/** output: the total expense and income of each member of {@link #drillDown}, one per line */
+	@DAttr(name = "breakdown", type = Type.String, length = 2000, auto = true, mutable = false)
+	@Output
+	private String breakdown;
+
+	/**
+	 * @effects
+	 * initialise this with <tt>year</tt> and compute the totals and the numbers of the daily
+	 * expenses and incomes of all accounts and categories in it.
+	 *
+	 * <p>
+	 * throws ConstraintViolationException if the drill-down is not a dimension;
+	 * DataSourceException if fails to read from the data source
+	 */
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public ExpenseAndIncomeCubeReport(@AttrRef(R_year) String year)
+			throws ConstraintViolationException, DataSourceException {
+		this(year, null, null, null, null);
+	}
+
+	/**
+	 * @effects
+	 * initialise this with <tt>year</tt>, <tt>month</tt>, <tt>accountId</tt>, <tt>category</tt>
+	 * and <tt>drillDown</tt> and compute the totals and the numbers of the daily expenses and
+	 * incomes of the slice, by the members of <tt>drillDown</tt> if it is not empty.
+	 *
+	 * <p>
+	 * throws ConstraintViolationException if the drill-down is not a dimension;
+	 * DataSourceException if fails to read from the data source
+	 */
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	public ExpenseAndIncomeCubeReport(@AttrRef(R_year) String year, @AttrRef(R_month) String month,
+			@AttrRef(R_accountId) String accountId, @AttrRef(R_category) String category,
+			@AttrRef(R_drillDown) String drillDown) throws ConstraintViolationException, DataSourceException {
+		this.id = ++idCounter;
+
+		this.year = year;
+		this.month = month;
+		this.accountId = accountId;
+		this.category = category;
+		this.drillDown = drillDown;
+
+		doReportQuery();
+	}
+
+	public String getYear() {
+		return year;
+	}
+
+	public String getMonth() {
+		return month;
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	public String getDrillDown() {
+		return drillDown;
+	}
+
+	public int getNumDailyExpense() {
+		return numDailyExpense;
+	}
+
+	public int getNumDailyIncome() {
+		return numDailyIncome;
+	}
+
+	public double getTotalExpense() {
+		return totalExpense;
+	}
+
+	public double getTotalIncome() {
+		return totalIncome;
+	}
+
+	public String getBreakdown() {
+		return breakdown;
+	}
+
+	/**
+	 * @effects
+	 *  set this.year = year and update the output attributes
+	 */
+	public void setYear(String year) throws ConstraintViolationException, DataSourceException {
+		this.year = year;
+
+		doReportQuery();
+	}
+
+	/**
+	 * @effects
+	 *  set this.month = month and update the output attributes
+	 */
+	public void setMonth(String month) throws ConstraintViolationException, DataSourceException {
+		this.month = month;
+
+		doReportQuery();
+	}
+
+	/**
+	 * @effects
+	 *  set this.accountId = accountId and update the output attributes
+	 */
+	public void setAccountId(String accountId) throws ConstraintViolationException, DataSourceException {
+		this.accountId = accountId;
+
+		doReportQuery();
+	}
+
+	/**
+	 * @effects
+	 *  set this.category = category and update the output attributes
+	 */
+	public void setCategory(String category) throws ConstraintViolationException, DataSourceException {
+		this.category = category;
+
+		doReportQuery();
+	}
+
+	/**
+	 * @effects
+	 *  set this.drillDown = drillDown and update the output attributes;
+	 *  throws ConstraintViolationException if it is not a dimension
+	 */
+	public void setDrillDown(String drillDown) throws ConstraintViolationException, DataSourceException {
+		this.drillDown = drillDown;
+
+		doReportQuery();
+	}
+
+	/**
+	 * This method is invoked when the report input has be set by the user.
+	 *
+	 * @effects
+	 *
+	 *          <pre>
+	 *   if the slice is valid and the rollups are loaded
+	 *     read the totals of the daily expenses and incomes of the slice from the cube,
+	 *     rolled up over the months and over the accounts and categories not given,
+	 *     and drilled down by the dimension drillDown if it is not empty
+	 *     update the output attributes accordingly
+	 *   else
+	 *     reset the output attributes
+	 *
+	 *  <p>throws ConstraintViolationException if the drill-down is not a dimension;
+	 *  DataSourceException if fails to read from the data source.
+	 *          </pre>
+	 */
+	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value = "breakdown")
+	public void doReportQuery() throws ConstraintViolationException, DataSourceException {
+		int dimension = dimension(drillDown);
+		int[] months = months();
+		ExpenseAndIncomeRollup rollup = ExpenseAndIncomeRollup.getInstance();
+		if (months == null || !rollup.isLoaded()) {
+			resetOutput();
+			return;
+		}
+
+		String account = isEmpty(accountId) ? null : accountId.trim();
+		Integer categoryId = null;
+		if (!isEmpty(category)) {
+			List<Integer> ids = CategoryIndex.getInstance().find(category.trim(), CategoryIndex.EXACT);
+			if (ids.isEmpty()) {
+				// no such category
+				resetOutput();
+				return;
+			}
+			categoryId = ids.get(0);
+		}
+
+		Totals expense = rollup.getCubeTotals(BalanceJournal.KIND_DAILY_EXPENSE, account, categoryId,
+				months[0], months[1]);
+		Totals income = rollup.getCubeTotals(BalanceJournal.KIND_DAILY_INCOME, account, categoryId,
+				months[0], months[1]);
+		totalExpense = expense.getAmount();
+		numDailyExpense = expense.getCount();
+		totalIncome = income.getAmount();
+		numDailyIncome = income.getCount();
+
+		if (dimension < 0) {
+			breakdown = null;
+			return;
+		}
+
+		// the members with expenses or incomes, in the order of their names
+		Map<Object, Totals> expenses = rollup.getCubeBreakdown(BalanceJournal.KIND_DAILY_EXPENSE, dimension,
+				account, categoryId, months[0], months[1]);
+		Map<Object, Totals> incomes = rollup.getCubeBreakdown(BalanceJournal.KIND_DAILY_INCOME, dimension,
+				account, categoryId, months[0], months[1]);
+		Map<String, long[]> members = new TreeMap<>();
+		for (Map.Entry<Object, Totals> e : expenses.entrySet())
+			members.computeIfAbsent(memberName(dimension, e.getKey()), k -> new long[2])[0] += e.getValue().getAmountMinor();
+		for (Map.Entry<Object, Totals> i : incomes.entrySet())
+			members.computeIfAbsent(memberName(dimension, i.getKey()), k -> new long[2])[1] += i.getValue().getAmountMinor();
+
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, long[]> m : members.entrySet()) {
+			if (sb.length() > 0)
+				sb.append('\n');
+			sb.append(m.getKey()).append(": expense ").append(Money.toMajor(m.getValue()[0]))
+					.append(", income ").append(Money.toMajor(m.getValue()[1]));
+		}
+		breakdown = sb.toString();
+	}
+
+	/**
+	 * @effects reset all output attributes to their initial values
+	 */
+	private void resetOutput() {
+		numDailyExpense = 0;
+		numDailyIncome = 0;
+		totalExpense = 0;
+		totalIncome = 0;
+		breakdown = null;
+	}
+
+	/**
+	 * @effects
+	 *  return the month keys {from, to} (year * 100 + month) of the slice, or null if the year
+	 *  or the month is not a number
+	 */
+	private int[] months() {
+		try {
+			int y = Integer.parseInt(year.trim());
+			if (isEmpty(month))
+				return new int[] { y * 100 + 1, y * 100 + 12 };
+			int m = Integer.parseInt(month.trim());
+			if (m < 1 || m > 12)
+				return null;
+			return new int[] { y * 100 + m, y * 100 + m };
+		} catch (RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @effects
+	 *  return the rollup dimension of <tt>drillDown</tt>, -1 if it is empty;
+	 *  throws ConstraintViolationException if it is not a dimension
+	 */
+	private static int dimension(String drillDown) throws ConstraintViolationException {
+		if (isEmpty(drillDown))
+			return -1;
+
+		switch (drillDown.trim().toLowerCase()) {
+		case BY_ACCOUNT:
+			return ExpenseAndIncomeRollup.BY_ACCOUNT;
+		case BY_CATEGORY:
+			return ExpenseAndIncomeRollup.BY_CATEGORY;
+		case BY_MONTH:
+			return ExpenseAndIncomeRollup.BY_MONTH;
+		default:
+			throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE,
+					new Object[] { drillDown });
+		}
+	}
+
+	/**
+	 * @effects return the name of the member <tt>key</tt> of <tt>dimension</tt> to show
+	 */
+	private static String memberName(int dimension, Object key) {
+		switch (dimension) {
+		case ExpenseAndIncomeRollup.BY_CATEGORY:
+			String name = CategoryIndex.getInstance().nameOf((Integer) key);
+			return (name != null) ? name : String.valueOf(key);
+		case ExpenseAndIncomeRollup.BY_MONTH:
+			int monthKey = (Integer) key;
+			return String.format("%04d-%02d", monthKey / 100, monthKey % 100);
+		default:
+			return String.valueOf(key);
+		}
+	}
+
+	private static boolean isEmpty(String s) {
+		return s == null || s.trim().isEmpty();
+	}
+
+	/**
+	 * @effects return id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + id;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		ExpenseAndIncomeCubeReport other = (ExpenseAndIncomeCubeReport) obj;
+		if (id != other.id)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "ExpenseAndIncomeCubeReport (" + id + ", " + year + ", " + month + ", " + accountId + ", "
+				+ category + ", " + drillDown + ")";
+	}
+}
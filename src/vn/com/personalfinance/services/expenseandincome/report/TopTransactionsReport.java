@@ -0,0 +1,498 @@
+package vn.com.personalfinance.services.expenseandincome.report;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.function.Predicate;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.MetaConstants;
+import domainapp.basics.model.meta.Select;
+import domainapp.basics.modules.report.model.meta.Output;
+import vn.com.personalfinance.datasource.QueryTemplate;
+import vn.com.personalfinance.services.expenseandincome.model.CategoryIndex;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.services.report.ReportCache.Result;
+import vn.com.personalfinance.services.report.ReportCache.Write;
+import vn.com.personalfinance.services.report.ReportExecutor;
+import vn.com.personalfinance.utils.Dates;
+
+/**
+ * @overview
+ * 	Represent the reports about the largest daily expenses and incomes between two dates,
+ *  optionally of one account and of one category. The data source reads them down the index
+ *  of their amounts and stops after the first {@link #n}; only those {@link #n} are then
+ *  retrieved, by their keys, so neither the memory nor the time of a report grows with the 
+ *  number of transactions of the range.
+ *
+ * @author Group 2
+ *
+ * @version 1.0
+ */
+@DClass(schema="personalfinancemanager",serialisable=false)
+public class TopTransactionsReport {
+	public static final String R_n = "n";
+	public static final String R_fromDate = "fromDate";
+	public static final String R_toDate = "toDate";
+	public static final String R_accountId = "accountId";
+	public static final String R_category = "category";
+	public static final String R_dailyExpense = "dailyExpense";
+	public static final String R_dailyIncome = "dailyIncome";
+	@DAttr(name = "id", id = true, auto = true, type = Type.Integer, length = 5, optional = false, mutable = false)
+	private int id;
+	private static int idCounter = 0;
+
+	// the runs of the report queries
+	private final ReportExecutor.Run run = new ReportExecutor.Run();
+
+	/** input: the number of daily expenses and of daily incomes to show */
+	@DAttr(name = R_n, type = Type.Integer, length = 5, min = 1, optional = false)
+	private int n;
+
+	/** input: the first date of the range */
+	@DAttr(name = R_fromDate, type = Type.Date, length = 15, optional = false)
+	private Date fromDate;
+
+	/** input: the last date of the range */
+	@DAttr(name = R_toDate, type = Type.Date, length = 15, optional = false)
+	private Date toDate;
+
+	/** input: the id of the account, or all of them if empty */
+	@DAttr(name = R_accountId, type = Type.String, length = 6, optional = true)
+	private String accountId;
+
+	/** input: the name of the category, or all of them if empty */
+	@DAttr(name = R_category, type = Type.String, length = 30, optional = true)
+	private String category;
+
+	/** output: the {@link #n} largest daily expenses of the range, the largest first */
+	@DAttr(name = R_dailyExpense, type = Type.Collection, optional = false, mutable = false, serialisable = false, filter = @Select(clazz = DailyExpense.class), derivedFrom = {
+			R_n, R_fromDate, R_toDate, R_accountId, R_category })
+	@DAssoc(ascName = "top-transactions-report-has-dailyExpense", role = "report", ascType = AssocType.One2Many, endType = AssocEndType.One, associate = @Associate(type = DailyExpense.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE))
+	@Output
+	private Collection<DailyExpense> dailyExpense;
+
+	/** output: the {@link #n} largest daily incomes of the range, the largest first */
+	@DAttr(name = R_dailyIncome, type = Type.Collection, optional = false, mutable = false, serialisable = false, filter = @Select(clazz = DailyIncome.class), derivedFrom = {
+			R_n, R_fromDate, R_toDate, R_accountId, R_category })
+	@DAssoc(ascName = "top-transactions-report-has-dailyIncome", role = "report", ascType = AssocType.One2Many, endType = AssocEndType.One, associate = @Associate(type = DailyIncome.class, cardMin = 0, cardMax = MetaConstants.CARD_MORE))
+	@Output
+	private Collection<DailyIncome> dailyIncome;
+
+	/** output: number of daily expenses found (at most {@link #n}) */
+	@DAttr(name = "numDailyExpense", type = Type.Integer, length = 10, auto = true, mutable = false)
+	@Output
+	private int numDailyExpense;
+
+	/** output: number of daily incomes found (at most {@link #n}) */
+	@DAttr(name = "numDailyIncome", type = Type.Integer, length = 10, auto = true, mutable = false)
+	@Output
+	private int numDailyIncome;
+
+	/**
+	 * @effects
+	 * initialise this with <tt>n</tt>, <tt>fromDate</tt> and <tt>toDate</tt> and find the
+	 * <tt>n</tt> largest daily expenses and incomes between them (inclusive).
+	 *
+	 * <p>
+	 * throws NotPossibleException if failed to generate data source query;
+	 * DataSourceException if fails to read from the data source
+	 */
+	@DOpt(type = DOpt.Type.RequiredConstructor)
+	public TopTransactionsReport(@AttrRef(R_n) Integer n, @AttrRef(R_fromDate) Date fromDate,
+			@AttrRef(R_toDate) Date toDate) throws NotPossibleException, DataSourceException {
+		this(n, fromDate, toDate, null, null);
+	}
+
+	/**
+	 * @effects
+	 * initialise this with <tt>n</tt>, <tt>fromDate</tt>, <tt>toDate</tt>, <tt>accountId</tt> and
+	 * <tt>category</tt> and find the <tt>n</tt> largest daily expenses and incomes between the
+	 * dates (inclusive), of the account and of the category if they are not empty.
+	 *
+	 * <p>
+	 * throws NotPossibleException if failed to generate data source query;
+	 * DataSourceException if fails to read from the data source
+	 */
+	@DOpt(type = DOpt.Type.ObjectFormConstructor)
+	public TopTransactionsReport(@AttrRef(R_n) Integer n, @AttrRef(R_fromDate) Date fromDate,
+			@AttrRef(R_toDate) Date toDate, @AttrRef(R_accountId) String accountId,
+			@AttrRef(R_category) String category) throws NotPossibleException, DataSourceException {
+		this.id = ++idCounter;
+
+		this.n = (n != null) ? n : 0;
+		this.fromDate = fromDate;
+		this.toDate = toDate;
+		this.accountId = accountId;
+		this.category = category;
+
+		doReportQueries();
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	public Date getFromDate() {
+		return fromDate;
+	}
+
+	public Date getToDate() {
+		return toDate;
+	}
+
+	public String getAccountId() {
+		return accountId;
+	}
+
+	public String getCategory() {
+		return category;
+	}
+
+	/**
+	 * @effects
+	 *  set this.n = n and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setN(int n) throws NotPossibleException, DataSourceException {
+		this.n = n;
+
+		doReportQueries();
+	}
+
+	/**
+	 * @effects
+	 *  set this.fromDate = fromDate and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setFromDate(Date fromDate) throws NotPossibleException, DataSourceException {
+		this.fromDate = fromDate;
+
+		doReportQueries();
+	}
+
+	/**
+	 * @effects
+	 *  set this.toDate = toDate and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setToDate(Date toDate) throws NotPossibleException, DataSourceException {
+		this.toDate = toDate;
+
+		doReportQueries();
+	}
+
+	/**
+	 * @effects
+	 *  set this.accountId = accountId and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setAccountId(String accountId) throws NotPossibleException, DataSourceException {
+		this.accountId = accountId;
+
+		doReportQueries();
+	}
+
+	/**
+	 * @effects
+	 *  set this.category = category and update the output attribute values;
+	 *  throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 */
+	public void setCategory(String category) throws NotPossibleException, DataSourceException {
+		this.category = category;
+
+		doReportQueries();
+	}
+
+	/**
+	 * This method is invoked when the report input has be set by the user.
+	 *
+	 * @effects
+	 *
+	 *          <pre>
+	 *   have the data source read the n largest daily expenses of the range, of the account
+	 *   and of the category if they are given, down the index of their amounts
+	 *   update the output attributes accordingly.
+	 *
+	 *  <p>throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 *          </pre>
+	 */
+	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value = R_dailyExpense)
+	public void doReportQueryDailyExpense() throws NotPossibleException, DataSourceException {
+		publishDailyExpense(computeDailyExpense());
+	}
+
+	/**
+	 * @effects
+	 *  return the n largest daily expenses of the range, the largest first; the result is
+	 *  cached until a daily expense of the range is written
+	 */
+	private Result<DailyExpense> computeDailyExpense() throws NotPossibleException, DataSourceException {
+		final Object[] params = params();
+		if (params == null)
+			return new Result<>(null);
+
+		final int top = n;
+		final DOMBasic dom = QRM.getInstance().getDom();
+		final String[] attribs = filterAttribs(DailyExpense.E_account, DailyExpense.E_category);
+		final String name = templateName("DailyExpense", attribs);
+		return ReportCache.getInstance().get(
+				ReportCache.key(TopTransactionsReport.class, name, keyInputs(top, params)),
+				affectedBy(DailyExpense.class, params),
+				() -> new Result<>(QueryTemplate.searchTop(dom, name,
+						DailyExpense.class, DailyExpense.E_id, DailyExpense.E_idNumber, false,
+						DailyExpense.E_amount, DailyExpense.E_epochDay, attribs)
+						.executeTop(top, params)));
+	}
+
+	/**
+	 * @effects update the daily expense outputs with <tt>result</tt>
+	 */
+	private void publishDailyExpense(Result<DailyExpense> result) {
+		dailyExpense = result.getObjects();
+		numDailyExpense = (dailyExpense != null) ? dailyExpense.size() : 0;
+	}
+
+	/**
+	 * This method is invoked when the report input has be set by the user.
+	 *
+	 * @effects
+	 *
+	 *          <pre>
+	 *   have the data source read the n largest daily incomes of the range, of the account
+	 *   and of the category if they are given, down the index of their amounts
+	 *   update the output attributes accordingly.
+	 *
+	 *  <p>throws NotPossibleException if failed to generate data source query;
+	 *  DataSourceException if fails to read from the data source.
+	 *          </pre>
+	 */
+	@DOpt(type = DOpt.Type.DerivedAttributeUpdater)
+	@AttrRef(value = R_dailyIncome)
+	public void doReportQueryDailyIncome() throws NotPossibleException, DataSourceException {
+		publishDailyIncome(computeDailyIncome());
+	}
+
+	/**
+	 * @effects
+	 *  return the n largest daily incomes of the range, the largest first; the result is
+	 *  cached until a daily income of the range is written
+	 */
+	private Result<DailyIncome> computeDailyIncome() throws NotPossibleException, DataSourceException {
+		final Object[] params = params();
+		if (params == null)
+			return new Result<>(null);
+
+		final int top = n;
+		final DOMBasic dom = QRM.getInstance().getDom();
+		final String[] attribs = filterAttribs(DailyIncome.I_account, DailyIncome.I_category);
+		final String name = templateName("DailyIncome", attribs);
+		return ReportCache.getInstance().get(
+				ReportCache.key(TopTransactionsReport.class, name, keyInputs(top, params)),
+				affectedBy(DailyIncome.class, params),
+				() -> new Result<>(QueryTemplate.searchTop(dom, name,
+						DailyIncome.class, DailyIncome.I_id, DailyIncome.I_idNumber, false,
+						DailyIncome.I_amount, DailyIncome.I_epochDay, attribs)
+						.executeTop(top, params)));
+	}
+
+	/**
+	 * @effects update the daily income outputs with <tt>result</tt>
+	 */
+	private void publishDailyIncome(Result<DailyIncome> result) {
+		dailyIncome = result.getObjects();
+		numDailyIncome = (dailyIncome != null) ? dailyIncome.size() : 0;
+	}
+
+	/**
+	 * @effects
+	 *  compute the daily expense and the daily income outputs at the same time, and update
+	 *  both once both are computed, unless the input has changed meanwhile
+	 */
+	private void doReportQueries() throws NotPossibleException, DataSourceException {
+		ReportExecutor.execute(run, this::computeDailyExpense, this::computeDailyIncome, (expense, income) -> {
+			publishDailyExpense(expense);
+			publishDailyIncome(income);
+		});
+	}
+
+	/**
+	 * @effects
+	 *  return the parameters of the top templates: the epoch days of the range, then the
+	 *  account id and the category id if they are given; or null if the input selects nothing
+	 */
+	private Object[] params() throws DataSourceException {
+		if (n < 1 || fromDate == null || toDate == null)
+			return null;
+
+		List<Object> params = new ArrayList<>();
+		params.add(Dates.epochDay(fromDate));
+		params.add(Dates.epochDay(toDate));
+		if (!isEmpty(accountId))
+			params.add(accountId.trim());
+		if (!isEmpty(category)) {
+			List<Integer> ids = CategoryIndex.getInstance().find(category.trim(), CategoryIndex.EXACT);
+			if (ids.isEmpty()) {
+				// no such category
+				return null;
+			}
+			params.add(ids.get(0));
+		}
+		return params.toArray();
+	}
+
+	/**
+	 * @effects return those of <tt>accountAttrib</tt> and <tt>categoryAttrib</tt> whose inputs
+	 *  are given, in the order of {@link #params()}
+	 */
+	private String[] filterAttribs(String accountAttrib, String categoryAttrib) {
+		List<String> attribs = new ArrayList<>();
+		if (!isEmpty(accountId))
+			attribs.add(accountAttrib);
+		if (!isEmpty(category))
+			attribs.add(categoryAttrib);
+		return attribs.toArray(new String[0]);
+	}
+
+	/**
+	 * @effects return the inputs of the cache key of the first <tt>top</tt> objects that match
+	 *  <tt>params</tt>
+	 */
+	private static Object[] keyInputs(int top, Object[] params) {
+		Object[] inputs = new Object[params.length + 1];
+		inputs[0] = top;
+		System.arraycopy(params, 0, inputs, 1, params.length);
+		return inputs;
+	}
+
+	private static String templateName(String cls, String[] attribs) {
+		return cls + ".amount.top" + ((attribs.length > 0) ? "." + String.join(".", attribs) : "");
+	}
+
+	/**
+	 * @effects return whether a write of a transaction of class <tt>type</tt> affects the
+	 *  results of the range of <tt>params</tt>
+	 */
+	private static Predicate<Write> affectedBy(Class<?> type, Object[] params) {
+		final long fromDay = (Long) params[0], toDay = (Long) params[1];
+		return w -> {
+			if (w.getType() != type || w.getDate() == null)
+				return false;
+			long day = Dates.epochDay(w.getDate());
+			return day >= fromDay && day <= toDay;
+		};
+	}
+
+	private static boolean isEmpty(String s) {
+		return s == null || s.trim().isEmpty();
+	}
+
+	/**
+	 * A link-adder method for {@link #dailyExpense}, required for the object form
+	 * to function. However, this method is empty because dailyExpense have already
+	 * be recorded in the attribute {@link #dailyExpense}.
+	 */
+	@DOpt(type = DOpt.Type.LinkAdder)
+	@AttrRef(value = R_dailyExpense)
+	public boolean addDailyExpense(Collection<DailyExpense> dailyExpense) {
+		// do nothing
+		return false;
+	}
+
+	/**
+	 * @effects return dailyExpense
+	 */
+	public Collection<DailyExpense> getDailyExpense() {
+		return dailyExpense;
+	}
+
+	/**
+	 * @effects return numDailyExpense
+	 */
+	public int getNumDailyExpense() {
+		return numDailyExpense;
+	}
+
+	/**
+	 * A link-adder method for {@link #dailyIncome}, required for the object form
+	 * to function. However, this method is empty because dailyIncome have already
+	 * be recorded in the attribute {@link #dailyIncome}.
+	 */
+	@DOpt(type = DOpt.Type.LinkAdder)
+	@AttrRef(value = R_dailyIncome)
+	public boolean addDailyIncome(Collection<DailyIncome> dailyIncome) {
+		// do nothing
+		return false;
+	}
+
+	/**
+	 * @effects return dailyIncome
+	 */
+	public Collection<DailyIncome> getDailyIncome() {
+		return dailyIncome;
+	}
+
+	/**
+	 * @effects return numDailyIncome
+	 */
+	public int getNumDailyIncome() {
+		return numDailyIncome;
+	}
+
+	/**
+	 * @effects return id
+	 */
+	public int getId() {
+		return id;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + id;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		TopTransactionsReport other = (TopTransactionsReport) obj;
+		if (id != other.id)
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return "TopTransactionsReport (" + id + ", " + n + ", " + fromDate + ", " + toDate + ", "
+				+ accountId + ", " + category + ")";
+	}
+}
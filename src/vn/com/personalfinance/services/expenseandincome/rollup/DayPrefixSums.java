@@ -0,0 +1,119 @@
+package vn.com.personalfinance.services.expenseandincome.rollup;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * @overview
+ * 	The running totals {amount, count} of the daily expenses or incomes over epoch days, per
+ *  account and category, per account, per category and over all of them, so that the totals
+ *  of any range of days are the difference of two prefix sums, whatever the width of the range.
+ *
+ *  <p>Each series keeps its totals per day and, over the days from its first to its last, a
+ *  dense array of prefix sums. A change only marks its series stale; the prefix sums of a stale
+ *  series are rebuilt, in one pass over its days, the next time a range of it is read.
+ *
+ *  <p>Not thread-safe: {@link ExpenseAndIncomeRollup} guards it.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+class DayPrefixSums {
+	// the series, by kind, account (null: all) and category (null: all)
+	private final Map<String, Series> series = new HashMap<>();
+
+	/**
+	 * @overview the totals of the days of one series and their prefix sums
+	 */
+	private static final class Series {
+		// the totals {amount, count} by epoch day
+		final TreeMap<Long, long[]> days = new TreeMap<>();
+
+		// the first epoch day of the prefix sums, and the totals of the days before
+		// firstDay + i at i; valid unless stale
+		long firstDay;
+		long[] amounts;
+		long[] counts;
+		boolean stale = true;
+
+		void add(long epochDay, long amount, long count) {
+			long[] d = days.computeIfAbsent(epochDay, k -> new long[2]);
+			d[0] += amount;
+			d[1] += count;
+			stale = true;
+		}
+
+		/**
+		 * @effects return the totals {amount, count} of the days from <tt>fromDay</tt> to
+		 *  <tt>toDay</tt> (inclusive)
+		 */
+		long[] range(long fromDay, long toDay) {
+			if (days.isEmpty() || fromDay > toDay)
+				return new long[2];
+			if (stale)
+				rebuild();
+
+			int span = amounts.length - 1;
+			int i = (int) Math.max(0, Math.min(span, fromDay - firstDay));
+			int j = (int) Math.max(0, Math.min(span, toDay - firstDay + 1));
+			return new long[] { amounts[j] - amounts[i], counts[j] - counts[i] };
+		}
+
+		private void rebuild() {
+			firstDay = days.firstKey();
+			int span = (int) (days.lastKey() - firstDay + 1);
+			amounts = new long[span + 1];
+			counts = new long[span + 1];
+
+			long day = firstDay;
+			long amount = 0, count = 0;
+			for (Map.Entry<Long, long[]> d : days.entrySet()) {
+				// the days without transactions carry the totals so far
+				for (; day < d.getKey(); day++) {
+					amounts[(int) (day - firstDay + 1)] = amount;
+					counts[(int) (day - firstDay + 1)] = count;
+				}
+				amount += d.getValue()[0];
+				count += d.getValue()[1];
+				amounts[(int) (day - firstDay + 1)] = amount;
+				counts[(int) (day - firstDay + 1)] = count;
+				day++;
+			}
+			stale = false;
+		}
+	}
+
+	/**
+	 * @effects add <tt>amount</tt> and <tt>count</tt> to the day of <tt>cell</tt> in each of
+	 *  the series that include it
+	 */
+	void add(ExpenseAndIncomeRollup.Cell cell, long amount, long count) {
+		for (String key : new String[] {
+				key(cell.kind, cell.accountId, cell.categoryId),
+				key(cell.kind, cell.accountId, null),
+				key(cell.kind, null, cell.categoryId),
+				key(cell.kind, null, null) }) {
+			series.computeIfAbsent(key, k -> new Series()).add(cell.epochDay, amount, count);
+		}
+	}
+
+	/**
+	 * @effects return the totals {amount, count} of the transactions of <tt>kind</tt>, of the
+	 *  account <tt>accountId</tt> and of the category <tt>categoryId</tt> (all of them if null),
+	 *  from <tt>fromDay</tt> to <tt>toDay</tt> (inclusive)
+	 */
+	long[] range(byte kind, String accountId, Integer categoryId, long fromDay, long toDay) {
+		Series s = series.get(key(kind, accountId, categoryId));
+		return (s != null) ? s.range(fromDay, toDay) : new long[2];
+	}
+
+	void clear() {
+		series.clear();
+	}
+
+	private static String key(byte kind, String accountId, Integer categoryId) {
+		return (char) kind + ":" + ((accountId != null) ? accountId : "*") + ":"
+				+ ((categoryId != null) ? categoryId.toString() : "*");
+	}
+}
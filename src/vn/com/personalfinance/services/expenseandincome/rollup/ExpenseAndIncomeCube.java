@@ -0,0 +1,248 @@
+package vn.com.personalfinance.services.expenseandincome.rollup;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import vn.com.personalfinance.services.account.BalanceJournal;
+
+/**
+ * @overview
+ * 	The totals {amount, count} of the daily expenses and incomes by account, category and month,
+ *  in primitive <tt>long[]</tt> cells addressed by (account index, category index, month index),
+ *  so that a report can slice and roll them up along any of the three dimensions at once.
+ *
+ *  <p>{@link ExpenseAndIncomeRollup} builds the cube from its day rollup and adds every change of
+ *  a transaction to it. The members of a dimension are given an index the first time they are
+ *  seen; the months are indexed from the first month seen. The cell arrays grow by doubling
+ *  the dimension that overflows.
+ *
+ *  <p>Not thread-safe: {@link ExpenseAndIncomeRollup} guards it.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+class ExpenseAndIncomeCube {
+	// the members of each dimension and their indexes
+	private final Map<String, Integer> accountIndexes = new HashMap<>();
+	private final List<String> accounts = new ArrayList<>();
+	private final Map<Integer, Integer> categoryIndexes = new HashMap<>();
+	private final List<Integer> categories = new ArrayList<>();
+	// the month number (year * 12 + month - 1) of month index 0, and the number of months
+	private int firstMonth;
+	private int months;
+
+	// the capacities of the dimensions of the cell arrays
+	private int accountCap = 4;
+	private int categoryCap = 16;
+	private int monthCap = 24;
+
+	// the cells {amount, count} of the expenses and of the incomes
+	private long[] expenses = new long[accountCap * categoryCap * monthCap * 2];
+	private long[] incomes = new long[accountCap * categoryCap * monthCap * 2];
+
+	/**
+	 * @effects add <tt>amount</tt> and <tt>count</tt> to the cell of <tt>cell</tt>
+	 */
+	void add(ExpenseAndIncomeRollup.Cell cell, long amount, long count) {
+		long[] cells = cellsOf(cell.kind);
+		if (cells == null)
+			return;
+
+		int a = accountIndexes.computeIfAbsent(cell.accountId, k -> {
+			accounts.add(k);
+			return accounts.size() - 1;
+		});
+		int c = categoryIndexes.computeIfAbsent(cell.categoryId, k -> {
+			categories.add(k);
+			return categories.size() - 1;
+		});
+		int m = monthIndex(monthNumber(cell.epochDay));
+		grow(a, c, m);
+
+		cells = cellsOf(cell.kind);
+		int i = index(a, c, m);
+		cells[i] += amount;
+		cells[i + 1] += count;
+	}
+
+	void clear() {
+		accountIndexes.clear();
+		accounts.clear();
+		categoryIndexes.clear();
+		categories.clear();
+		months = 0;
+		Arrays.fill(expenses, 0);
+		Arrays.fill(incomes, 0);
+	}
+
+	/**
+	 * @effects
+	 *  return the totals {amount, count} of the transactions of <tt>kind</tt> of the account
+	 *  <tt>accountId</tt> and the category <tt>categoryId</tt> (all of them if null) in the
+	 *  months from <tt>fromMonthKey</tt> to <tt>toMonthKey</tt> (year * 100 + month, inclusive)
+	 */
+	long[] totals(byte kind, String accountId, Integer categoryId, int fromMonthKey, int toMonthKey) {
+		Map<Object, long[]> all = breakdown(kind, -1, accountId, categoryId, fromMonthKey, toMonthKey);
+		return all.isEmpty() ? new long[2] : all.values().iterator().next();
+	}
+
+	/**
+	 * @requires <tt>dimension</tt> is {@link ExpenseAndIncomeRollup#BY_ACCOUNT},
+	 *  {@link ExpenseAndIncomeRollup#BY_CATEGORY}, {@link ExpenseAndIncomeRollup#BY_MONTH} or -1
+	 * @effects
+	 *  return the totals {amount, count} of the transactions selected as by
+	 *  {@link #totals(byte, String, Integer, int, int)} by the members of <tt>dimension</tt>
+	 *  that have some: by account id, category id or month key; or under the single key null if
+	 *  <tt>dimension</tt> is -1
+	 */
+	Map<Object, long[]> breakdown(byte kind, int dimension, String accountId,
+			Integer categoryId, int fromMonthKey, int toMonthKey) {
+		Map<Object, long[]> result = new LinkedHashMap<>();
+		long[] cells = cellsOf(kind);
+		if (cells == null || months == 0)
+			return result;
+
+		// the slice
+		int a0 = 0, a1 = accounts.size();
+		if (accountId != null) {
+			Integer a = accountIndexes.get(accountId);
+			if (a == null)
+				return result;
+			a0 = a;
+			a1 = a + 1;
+		}
+		int c0 = 0, c1 = categories.size();
+		if (categoryId != null) {
+			Integer c = categoryIndexes.get(categoryId);
+			if (c == null)
+				return result;
+			c0 = c;
+			c1 = c + 1;
+		}
+		int m0 = Math.max(0, monthNumber(fromMonthKey) - firstMonth);
+		int m1 = Math.min(months, monthNumber(toMonthKey) - firstMonth + 1);
+
+		// roll up the slice by the members of the dimension
+		for (int a = a0; a < a1; a++) {
+			for (int c = c0; c < c1; c++) {
+				int i = index(a, c, 0);
+				for (int m = m0; m < m1; m++) {
+					long count = cells[i + 2 * m + 1];
+					if (count == 0 && cells[i + 2 * m] == 0)
+						continue;
+					Object member;
+					switch (dimension) {
+					case ExpenseAndIncomeRollup.BY_ACCOUNT:
+						member = accounts.get(a);
+						break;
+					case ExpenseAndIncomeRollup.BY_CATEGORY:
+						member = categories.get(c);
+						break;
+					case ExpenseAndIncomeRollup.BY_MONTH:
+						int month = firstMonth + m;
+						member = (month / 12) * 100 + month % 12 + 1;
+						break;
+					default:
+						member = null;
+					}
+					long[] t = result.computeIfAbsent(member, k -> new long[2]);
+					t[0] += cells[i + 2 * m];
+					t[1] += count;
+				}
+			}
+		}
+		return result;
+	}
+
+	private long[] cellsOf(byte kind) {
+		if (kind == BalanceJournal.KIND_DAILY_EXPENSE)
+			return expenses;
+		if (kind == BalanceJournal.KIND_DAILY_INCOME)
+			return incomes;
+		return null;
+	}
+
+	private int index(int a, int c, int m) {
+		return ((a * categoryCap + c) * monthCap + m) * 2;
+	}
+
+	/**
+	 * @effects return the index of the month number <tt>month</tt>, extending the months of the
+	 *  cube to include it
+	 */
+	private int monthIndex(int month) {
+		if (months == 0) {
+			firstMonth = month;
+			months = 1;
+		} else if (month < firstMonth) {
+			// shift the cells to make room for the earlier months
+			int shift = firstMonth - month;
+			grow(accounts.size() - 1, categories.size() - 1, months - 1 + shift);
+			expenses = shifted(expenses, shift);
+			incomes = shifted(incomes, shift);
+			firstMonth = month;
+			months += shift;
+		} else if (month - firstMonth >= months) {
+			months = month - firstMonth + 1;
+		}
+		return month - firstMonth;
+	}
+
+	private long[] shifted(long[] cells, int shift) {
+		long[] result = new long[cells.length];
+		for (int a = 0; a < accounts.size(); a++) {
+			for (int c = 0; c < categories.size(); c++) {
+				int i = index(a, c, 0);
+				System.arraycopy(cells, i, result, i + 2 * shift, 2 * months);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @effects grow the cell arrays so that they include the cell (a, c, m)
+	 */
+	private void grow(int a, int c, int m) {
+		int newA = accountCap, newC = categoryCap, newM = monthCap;
+		while (a >= newA)
+			newA *= 2;
+		while (c >= newC)
+			newC *= 2;
+		while (m >= newM)
+			newM *= 2;
+		if (newA == accountCap && newC == categoryCap && newM == monthCap)
+			return;
+
+		// the members and months that do not fit yet have no cells to copy
+		long[] e = new long[newA * newC * newM * 2];
+		long[] i = new long[e.length];
+		int width = 2 * Math.min(months, monthCap);
+		for (int x = 0; x < Math.min(accounts.size(), accountCap); x++) {
+			for (int y = 0; y < Math.min(categories.size(), categoryCap); y++) {
+				int from = index(x, y, 0);
+				int to = ((x * newC + y) * newM) * 2;
+				System.arraycopy(expenses, from, e, to, width);
+				System.arraycopy(incomes, from, i, to, width);
+			}
+		}
+		accountCap = newA;
+		categoryCap = newC;
+		monthCap = newM;
+		expenses = e;
+		incomes = i;
+	}
+
+	private static int monthNumber(long epochDay) {
+		LocalDate date = LocalDate.ofEpochDay(epochDay);
+		return date.getYear() * 12 + date.getMonthValue() - 1;
+	}
+
+	private static int monthNumber(int monthKey) {
+		return (monthKey / 100) * 12 + monthKey % 100 - 1;
+	}
+}
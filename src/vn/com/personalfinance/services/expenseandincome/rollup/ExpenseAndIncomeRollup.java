@@ -0,0 +1,648 @@
+package vn.com.personalfinance.services.expenseandincome.rollup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import domainapp.basics.core.dodm.dom.DOMBasic;
+import domainapp.basics.core.dodm.qrm.QRM;
+import vn.com.personalfinance.datasource.DataSourceToolKit;
+import vn.com.personalfinance.datasource.SchemaExtensions;
+import vn.com.personalfinance.services.account.Account;
+import vn.com.personalfinance.services.account.BalanceJournal;
+import vn.com.personalfinance.services.expenseandincome.model.Category;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.report.ReportCache;
+import vn.com.personalfinance.utils.Dates;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	The total amount and the number of the daily expenses and incomes, kept per
+ *  (account, category, day) in the table <tt>ExpenseAndIncomeDayRollup</tt>, per month in
+ *  <tt>ExpenseAndIncomeMonthRollup</tt> and per year in <tt>ExpenseAndIncomeYearRollup</tt>,
+ *  so that the reports read their totals without loading the transactions.
+ *
+ *  <p>{@link Account} updates the rollups, under its posting lock, whenever it posts, unposts or
+ *  changes a transaction. The totals per day, month and year are kept in memory and read in O(1),
+ *  and so are the totals of any range of days, from their {@link DayPrefixSums}, and the totals
+ *  of any slice of accounts, categories and months, from their {@link ExpenseAndIncomeCube}.
+ *  The changes are held in memory and written in the transaction that stores the account
+ *  balances at a balance checkpoint, so the rollups and the stored balances always agree.
+ *  After an unclean shutdown, or when the tables are new, the rollups are rebuilt from the
+ *  stored transactions.
+ *
+ *  <p>Not every change is in the balance journal (a change of date or category is not), so the
+ *  rollups keep their own marker of unwritten changes: the file <tt>rollup.dirty</tt>, in the
+ *  directory of the balance journal, is created before the first change after a write and
+ *  deleted once the changes are written. If it is found at start-up, the rollups are rebuilt.
+ *
+ *  <p>Every change is also reported to the {@link ReportCache}.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class ExpenseAndIncomeRollup {
+	private static final String DAY_TABLE = DataSourceToolKit.table("ExpenseAndIncomeDayRollup");
+	private static final String MONTH_TABLE = DataSourceToolKit.table("ExpenseAndIncomeMonthRollup");
+	private static final String YEAR_TABLE = DataSourceToolKit.table("ExpenseAndIncomeYearRollup");
+
+	/** the dimensions by which {@link #getCubeBreakdown} drills down */
+	public static final int BY_ACCOUNT = 0;
+	public static final int BY_CATEGORY = 1;
+	public static final int BY_MONTH = 2;
+
+	private static final Logger LOG = Logger.getLogger(ExpenseAndIncomeRollup.class.getName());
+
+	private static final ExpenseAndIncomeRollup instance = new ExpenseAndIncomeRollup();
+
+	// the totals {amount, count} by kind and day, month or year; guarded by this
+	private final Map<String, long[]> byDay = new HashMap<>();
+	private final Map<String, long[]> byMonth = new HashMap<>();
+	private final Map<String, long[]> byYear = new HashMap<>();
+	// the prefix sums of the day totals by account and category; guarded by this
+	private final DayPrefixSums byDayRange = new DayPrefixSums();
+	// the totals by account, category and month; guarded by this
+	private final ExpenseAndIncomeCube cube = new ExpenseAndIncomeCube();
+
+	// the changes {amount, count} not written yet; guarded by this
+	private Map<Cell, long[]> pending = new LinkedHashMap<>();
+
+	private volatile boolean loaded;
+
+	// present while some changes have not been written; marked is true if this created it
+	private final File marker;
+	private final boolean unclean;
+	private boolean marked;
+
+	private ExpenseAndIncomeRollup() {
+		File dir = new File(System.getProperty("personalfinance.journal.dir", "data"));
+		marker = new File(dir, "rollup.dirty");
+		// the changes of the last run were not all written
+		unclean = marker.exists();
+		marked = unclean;
+	}
+
+	public static ExpenseAndIncomeRollup getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @overview the totals of the transactions of one kind in a period
+	 */
+	public static class Totals {
+		private final long amountMinor;
+		private final int count;
+
+		Totals(long amountMinor, int count) {
+			this.amountMinor = amountMinor;
+			this.count = count;
+		}
+
+		/**
+		 * @effects return the total amount, in minor units
+		 */
+		public long getAmountMinor() {
+			return amountMinor;
+		}
+
+		public double getAmount() {
+			return Money.toMajor(amountMinor);
+		}
+
+		public int getCount() {
+			return count;
+		}
+	}
+
+	/**
+	 * @effects return true if the software stopped, the last time it ran, before the changes
+	 *  to the rollups were written
+	 */
+	public boolean isUnclean() {
+		return unclean;
+	}
+
+	/**
+	 * @effects
+	 *  read the rollups from the data source, creating their tables if they do not exist;
+	 *  if <tt>rebuild</tt>, {@link #isUnclean()} or the tables are new, first rebuild them from
+	 *  the stored transactions. Throws SQLException if the data source cannot be read or updated.
+	 */
+	public void load(boolean rebuild) throws SQLException {
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			boolean rebuilt = createTables(conn) || rebuild || unclean;
+			if (rebuilt) {
+				rebuild(conn);
+			}
+
+			synchronized (this) {
+				if (rebuilt) {
+					// the stored transactions already include the changes made before loading
+					pending.clear();
+					written();
+				}
+				byDay.clear();
+				byMonth.clear();
+				byYear.clear();
+				byDayRange.clear();
+				cube.clear();
+				readDays(conn);
+				read(conn, "SELECT kind, epochDay, SUM(amount), SUM(cnt) FROM " + DAY_TABLE
+						+ " GROUP BY kind, epochDay", byDay);
+				read(conn, "SELECT kind, monthKey, amount, cnt FROM " + MONTH_TABLE, byMonth);
+				read(conn, "SELECT kind, yearKey, amount, cnt FROM " + YEAR_TABLE, byYear);
+				// the other changes made before loading are not in the tables yet
+				for (Map.Entry<Cell, long[]> p : pending.entrySet()) {
+					addTotals(p.getKey(), p.getValue()[0], p.getValue()[1]);
+				}
+				loaded = true;
+			}
+		}
+	}
+
+	/**
+	 * @effects return true if the rollups have been loaded
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	/**
+	 * @effects return the totals of the transactions of <tt>kind</tt> on the epoch day <tt>epochDay</tt>
+	 */
+	public synchronized Totals getDayTotals(byte kind, long epochDay) {
+		return totals(byDay.get(cellKey(kind, epochDay)));
+	}
+
+	/**
+	 * @effects return the totals of the transactions of <tt>kind</tt> from the epoch day 
+	 *  <tt>fromDay</tt> to <tt>toDay</tt> (inclusive), of the account <tt>accountId</tt> and 
+	 *  the category <tt>categoryId</tt>, or of all of them if null; the totals are the 
+	 *  difference of two prefix sums
+	 */
+	public synchronized Totals getRangeTotals(byte kind, String accountId, Integer categoryId, 
+			long fromDay, long toDay) {
+		return totals(byDayRange.range(kind, accountId, categoryId, fromDay, toDay));
+	}
+
+	/**
+	 * @effects return the totals of the transactions of <tt>kind</tt> in the months from
+	 *  <tt>fromMonthKey</tt> to <tt>toMonthKey</tt> (year * 100 + month, inclusive), of the
+	 *  account <tt>accountId</tt> and the category <tt>categoryId</tt>, or of all of them if null
+	 */
+	public synchronized Totals getCubeTotals(byte kind, String accountId, Integer categoryId,
+			int fromMonthKey, int toMonthKey) {
+		return totals(cube.totals(kind, accountId, categoryId, fromMonthKey, toMonthKey));
+	}
+
+	/**
+	 * @requires <tt>dimension</tt> is {@link #BY_ACCOUNT}, {@link #BY_CATEGORY} or {@link #BY_MONTH}
+	 * @effects return the totals of the transactions selected as by {@link #getCubeTotals}, by
+	 *  the account id, category id or month key (of <tt>dimension</tt>) that have some
+	 */
+	public synchronized Map<Object, Totals> getCubeBreakdown(byte kind, int dimension, String accountId,
+			Integer categoryId, int fromMonthKey, int toMonthKey) {
+		Map<Object, Totals> result = new LinkedHashMap<>();
+		for (Map.Entry<Object, long[]> m : cube.breakdown(kind, dimension, accountId, categoryId,
+				fromMonthKey, toMonthKey).entrySet()) {
+			result.put(m.getKey(), totals(m.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * @effects return the totals of the transactions of <tt>kind</tt> in the month
+	 *  <tt>monthKey</tt> (year * 100 + month)
+	 */
+	public synchronized Totals getMonthTotals(byte kind, int monthKey) {
+		return totals(byMonth.get(cellKey(kind, monthKey)));
+	}
+
+	/**
+	 * @effects return the totals of the transactions of <tt>kind</tt> in the year <tt>yearKey</tt>
+	 */
+	public synchronized Totals getYearTotals(byte kind, int yearKey) {
+		return totals(byYear.get(cellKey(kind, yearKey)));
+	}
+
+	// changes
+	/**
+	 * @effects add the daily expense or income <tt>tx</tt> to the rollups
+	 */
+	public void added(Object tx) {
+		change(tx, accountOf(tx), categoryOf(tx), dateOf(tx), amountOf(tx), 1);
+	}
+
+	/**
+	 * @effects remove the daily expense or income <tt>tx</tt> from the rollups
+	 */
+	public void removed(Object tx) {
+		change(tx, accountOf(tx), categoryOf(tx), dateOf(tx), -amountOf(tx), -1);
+	}
+
+	/**
+	 * @effects update the rollups for the change of the amount of the daily expense or income
+	 *  <tt>tx</tt> from <tt>oldAmount</tt> (in minor units)
+	 */
+	public void amountChanged(Object tx, long oldAmount) {
+		change(tx, accountOf(tx), categoryOf(tx), dateOf(tx), amountOf(tx) - oldAmount, 0);
+	}
+
+	/**
+	 * @effects move the daily expense or income <tt>tx</tt> in the rollups from
+	 *  <tt>(oldCategory, oldDate)</tt> to its current category and date
+	 */
+	public void moved(Object tx, Category oldCategory, Date oldDate) {
+		change(tx, accountOf(tx), oldCategory, oldDate, -amountOf(tx), -1);
+		added(tx);
+	}
+
+	private void change(Object tx, Account account, Category category, Date date, long amount, int count) {
+		byte kind = kindOf(tx);
+		if (kind == 0 || date == null || (amount == 0 && count == 0))
+			return;
+
+		Cell cell = new Cell(kind, (account != null) ? account.getId() : "",
+				(category != null) ? category.getId() : 0, Dates.epochDay(date));
+		synchronized (this) {
+			if (!marked)
+				mark();
+			long[] p = pending.computeIfAbsent(cell, k -> new long[2]);
+			p[0] += amount;
+			p[1] += count;
+			addTotals(cell, amount, count);
+		}
+		// the cached report results that include the changed cell are stale
+		ReportCache.getInstance().invalidate(new ReportCache.Write(tx.getClass(), date, 
+				(category != null) ? category.getName() : null, null));
+	}
+
+	// persistence
+	/**
+	 * @effects return true if some changes have not been written yet
+	 */
+	public synchronized boolean hasPending() {
+		return !pending.isEmpty();
+	}
+
+	/**
+	 * @effects
+	 *  write the pending changes on <tt>conn</tt>, as part of the caller's transaction;
+	 *  if the transaction is rolled back, {@link #restorePending(Map)} must be called with the result
+	 */
+	public Map<Cell, long[]> flush(Connection conn) throws SQLException {
+		Map<Cell, long[]> written;
+		synchronized (this) {
+			if (pending.isEmpty())
+				return pending;
+			written = pending;
+			pending = new LinkedHashMap<>();
+		}
+
+		try {
+			write(conn, written);
+		} catch (SQLException e) {
+			restorePending(written);
+			throw e;
+		}
+		return written;
+	}
+
+	/**
+	 * @effects
+	 *  if no changes are pending
+	 *    delete the marker of unwritten changes
+	 *  
+	 *  <p>Called once the changes returned by {@link #flush(Connection)} are committed.
+	 */
+	public synchronized void written() {
+		if (!pending.isEmpty() || !marked)
+			return;
+
+		try {
+			Files.deleteIfExists(marker.toPath());
+			marked = false;
+		} catch (IOException e) {
+			LOG.log(Level.WARNING, "Cannot delete " + marker + "; the rollups are rebuilt at the next start", e);
+		}
+	}
+
+	/**
+	 * @effects create the marker of unwritten changes and force it to disk
+	 */
+	private void mark() {
+		try {
+			marker.getParentFile().mkdirs();
+			try (FileChannel channel = FileChannel.open(marker.toPath(), StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE)) {
+				channel.force(true);
+			}
+			marked = true;
+		} catch (IOException e) {
+			// try again at the next change
+			LOG.log(Level.WARNING, "Cannot create " + marker + "; the rollups are not rebuilt if the software stops now", e);
+		}
+	}
+
+	/**
+	 * @effects merge the changes <tt>notWritten</tt> back into the pending changes
+	 */
+	public synchronized void restorePending(Map<Cell, long[]> notWritten) {
+		for (Map.Entry<Cell, long[]> w : notWritten.entrySet()) {
+			long[] p = pending.computeIfAbsent(w.getKey(), k -> new long[2]);
+			p[0] += w.getValue()[0];
+			p[1] += w.getValue()[1];
+		}
+	}
+
+	private static void write(Connection conn, Map<Cell, long[]> changes) throws SQLException {
+		createTables(conn);
+
+		Map<String, long[]> months = new LinkedHashMap<>();
+		Map<String, long[]> years = new LinkedHashMap<>();
+		List<Object[]> days = new ArrayList<>();
+		for (Map.Entry<Cell, long[]> c : changes.entrySet()) {
+			Cell cell = c.getKey();
+			long[] d = c.getValue();
+			days.add(new Object[] { String.valueOf((char) cell.kind), cell.accountId, cell.categoryId,
+					cell.epochDay, d[0], d[1] });
+			LocalDate date = LocalDate.ofEpochDay(cell.epochDay);
+			merge(months, cellKey(cell.kind, date.getYear() * 100 + date.getMonthValue()), d);
+			merge(years, cellKey(cell.kind, date.getYear()), d);
+		}
+
+		upsert(conn, DAY_TABLE, new String[] { "kind", "accountId", "categoryId", "epochDay" }, days);
+		upsert(conn, MONTH_TABLE, new String[] { "kind", "monthKey" }, rows(months));
+		upsert(conn, YEAR_TABLE, new String[] { "kind", "yearKey" }, rows(years));
+	}
+
+	/**
+	 * @effects
+	 *  add to <tt>table</tt> the rows <tt>rows</tt> of key values <tt>keyCols</tt> followed by an
+	 *  amount and a count: add them to the row with the same key, or insert them if there is none
+	 */
+	private static void upsert(Connection conn, String table, String[] keyCols, List<Object[]> rows)
+			throws SQLException {
+		String where = String.join(" = ? AND ", keyCols) + " = ?";
+		List<Object[]> created = new ArrayList<>();
+		try (PreparedStatement update = conn.prepareStatement("UPDATE " + table
+				+ " SET amount = amount + ?, cnt = cnt + ? WHERE " + where)) {
+			for (Object[] r : rows) {
+				update.setObject(1, r[keyCols.length]);
+				update.setObject(2, r[keyCols.length + 1]);
+				for (int i = 0; i < keyCols.length; i++) {
+					update.setObject(i + 3, r[i]);
+				}
+				if (update.executeUpdate() == 0)
+					created.add(r);
+			}
+		}
+		insert(conn, table, keyCols, created);
+	}
+
+	private static void insert(Connection conn, String table, String[] keyCols, List<Object[]> rows)
+			throws SQLException {
+		if (rows.isEmpty())
+			return;
+
+		StringBuilder params = new StringBuilder("?, ?");
+		for (int i = 0; i < keyCols.length; i++) {
+			params.append(", ?");
+		}
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + table + " ("
+				+ String.join(", ", keyCols) + ", amount, cnt) VALUES (" + params + ")")) {
+			for (Object[] r : rows) {
+				for (int i = 0; i < r.length; i++) {
+					insert.setObject(i + 1, r[i]);
+				}
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+	}
+
+	/**
+	 * @effects replace the rollups with the totals of the stored daily expenses and incomes
+	 */
+	private static void rebuild(Connection conn) throws SQLException {
+		Map<Cell, long[]> cells = new LinkedHashMap<>();
+		readStored(conn, DailyExpense.class, BalanceJournal.KIND_DAILY_EXPENSE, cells);
+		readStored(conn, DailyIncome.class, BalanceJournal.KIND_DAILY_INCOME, cells);
+
+		boolean autoCommit = conn.getAutoCommit();
+		conn.setAutoCommit(false);
+		try {
+			try (Statement stmt = conn.createStatement()) {
+				stmt.executeUpdate("DELETE FROM " + DAY_TABLE);
+				stmt.executeUpdate("DELETE FROM " + MONTH_TABLE);
+				stmt.executeUpdate("DELETE FROM " + YEAR_TABLE);
+			}
+			write(conn, cells);
+			conn.commit();
+		} catch (SQLException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * @effects add the amount and the number of the stored objects of <tt>cls</tt> to <tt>cells</tt>
+	 */
+	private static void readStored(Connection conn, Class<?> cls, byte kind, Map<Cell, long[]> cells)
+			throws SQLException {
+		DOMBasic dom = QRM.getInstance().getDom();
+		String sql = "SELECT " + DataSourceToolKit.columnOf(dom, cls, "account") + ", "
+			+ DataSourceToolKit.columnOf(dom, cls, "category") + ", "
+			+ DataSourceToolKit.columnOf(dom, cls, "date") + ", "
+			+ DataSourceToolKit.columnOf(dom, cls, "amount")
+			+ " FROM " + DataSourceToolKit.table(cls.getSimpleName());
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				Date date = rs.getDate(3);
+				if (date == null)
+					continue;
+				String accountId = rs.getString(1);
+				Cell cell = new Cell(kind, (accountId != null) ? accountId : "", rs.getInt(2), Dates.epochDay(date));
+				long[] c = cells.computeIfAbsent(cell, k -> new long[2]);
+				c[0] += Money.toMinor(rs.getDouble(4));
+				c[1]++;
+			}
+		}
+	}
+
+	/**
+	 * @requires the caller holds the lock of this
+	 * @effects add the stored day rollup to the prefix sums and the cube
+	 */
+	private void readDays(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(
+				"SELECT kind, accountId, categoryId, epochDay, amount, cnt FROM " + DAY_TABLE)) {
+			while (rs.next()) {
+				Cell cell = new Cell((byte) rs.getString(1).charAt(0), rs.getString(2), rs.getInt(3),
+						rs.getLong(4));
+				long amount = rs.getLong(5), count = rs.getLong(6);
+				byDayRange.add(cell, amount, count);
+				cube.add(cell, amount, count);
+			}
+		}
+	}
+
+	private static void read(Connection conn, String sql, Map<String, long[]> totals) throws SQLException {
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sql)) {
+			while (rs.next()) {
+				totals.put(cellKey((byte) rs.getString(1).charAt(0), rs.getLong(2)),
+						new long[] { rs.getLong(3), rs.getLong(4) });
+			}
+		}
+	}
+
+	/**
+	 * @effects create the tables of the rollups that do not exist; return true if some were created
+	 */
+	private static boolean createTables(Connection conn) throws SQLException {
+		boolean created = DataSourceToolKit.createIfNotExists(conn, "CREATE TABLE " + DAY_TABLE
+				+ " (kind CHAR(1) NOT NULL, accountId VARCHAR(16) NOT NULL, categoryId INT NOT NULL,"
+				+ " epochDay BIGINT NOT NULL, amount BIGINT NOT NULL, cnt INT NOT NULL,"
+				+ " PRIMARY KEY (kind, accountId, categoryId, epochDay))");
+		SchemaExtensions.createIndex(conn, "ExpenseAndIncomeDayRollup", "kind", "epochDay");
+		created |= DataSourceToolKit.createIfNotExists(conn, "CREATE TABLE " + MONTH_TABLE
+				+ " (kind CHAR(1) NOT NULL, monthKey INT NOT NULL, amount BIGINT NOT NULL, cnt INT NOT NULL,"
+				+ " PRIMARY KEY (kind, monthKey))");
+		created |= DataSourceToolKit.createIfNotExists(conn, "CREATE TABLE " + YEAR_TABLE
+				+ " (kind CHAR(1) NOT NULL, yearKey INT NOT NULL, amount BIGINT NOT NULL, cnt INT NOT NULL,"
+				+ " PRIMARY KEY (kind, yearKey))");
+		return created;
+	}
+
+	// helpers
+	/**
+	 * @requires the caller holds the lock of this
+	 */
+	private void addTotals(Cell cell, long amount, long count) {
+		LocalDate date = LocalDate.ofEpochDay(cell.epochDay);
+		long[] d = { amount, count };
+		merge(byDay, cellKey(cell.kind, cell.epochDay), d);
+		merge(byMonth, cellKey(cell.kind, date.getYear() * 100 + date.getMonthValue()), d);
+		merge(byYear, cellKey(cell.kind, date.getYear()), d);
+		byDayRange.add(cell, amount, count);
+		cube.add(cell, amount, count);
+	}
+
+	private static void merge(Map<String, long[]> totals, String key, long[] d) {
+		long[] t = totals.computeIfAbsent(key, k -> new long[2]);
+		t[0] += d[0];
+		t[1] += d[1];
+	}
+
+	private static List<Object[]> rows(Map<String, long[]> totals) {
+		List<Object[]> rows = new ArrayList<>(totals.size());
+		for (Map.Entry<String, long[]> t : totals.entrySet()) {
+			String key = t.getKey();
+			rows.add(new Object[] { key.substring(0, 1), Integer.parseInt(key.substring(2)),
+					t.getValue()[0], t.getValue()[1] });
+		}
+		return rows;
+	}
+
+	private static Totals totals(long[] t) {
+		return (t != null) ? new Totals(t[0], (int) t[1]) : new Totals(0, 0);
+	}
+
+	private static String cellKey(byte kind, long value) {
+		return (char) kind + ":" + value;
+	}
+
+	private static byte kindOf(Object tx) {
+		if (tx instanceof DailyExpense)
+			return BalanceJournal.KIND_DAILY_EXPENSE;
+		if (tx instanceof DailyIncome)
+			return BalanceJournal.KIND_DAILY_INCOME;
+		return 0;
+	}
+
+	private static Account accountOf(Object tx) {
+		if (tx instanceof DailyExpense)
+			return ((DailyExpense) tx).getAccount();
+		if (tx instanceof DailyIncome)
+			return ((DailyIncome) tx).getAccount();
+		return null;
+	}
+
+	private static Category categoryOf(Object tx) {
+		if (tx instanceof DailyExpense)
+			return ((DailyExpense) tx).getCategory();
+		if (tx instanceof DailyIncome)
+			return ((DailyIncome) tx).getCategory();
+		return null;
+	}
+
+	private static Date dateOf(Object tx) {
+		if (tx instanceof DailyExpense)
+			return ((DailyExpense) tx).getDate();
+		if (tx instanceof DailyIncome)
+			return ((DailyIncome) tx).getDate();
+		return null;
+	}
+
+	private static long amountOf(Object tx) {
+		if (tx instanceof DailyExpense)
+			return ((DailyExpense) tx).getAmountMinor();
+		if (tx instanceof DailyIncome)
+			return ((DailyIncome) tx).getAmountMinor();
+		return 0;
+	}
+
+	/**
+	 * @overview a cell of the day rollup: the transactions of one kind, account, category and day
+	 */
+	public static final class Cell {
+		final byte kind;
+		final String accountId;
+		final int categoryId;
+		final long epochDay;
+
+		Cell(byte kind, String accountId, int categoryId, long epochDay) {
+			this.kind = kind;
+			this.accountId = accountId;
+			this.categoryId = categoryId;
+			this.epochDay = epochDay;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(kind, accountId, categoryId, epochDay);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Cell))
+				return false;
+			Cell other = (Cell) obj;
+			return kind == other.kind && categoryId == other.categoryId && epochDay == other.epochDay
+					&& accountId.equals(other.accountId);
+		}
+	}
+}
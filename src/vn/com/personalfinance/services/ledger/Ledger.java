@@ -0,0 +1,322 @@
+package vn.com.personalfinance.services.ledger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+import domainapp.basics.exceptions.NotPossibleException;
+import vn.com.personalfinance.datasource.DataSourceToolKit;
+import vn.com.personalfinance.datasource.IdSequence;
+import vn.com.personalfinance.datasource.SchemaExtensions;
+
+/**
+ * @overview
+ * 	The double-entry ledger of all money movements. Every change of an account balance is
+ *  appended as a {@link Posting} of two legs that sum to zero: one on the account's book and
+ *  the opposite one on a counter book (a category, savings fund, party or adjustment book).
+ *
+ *  <p>Legs are appended to the table <tt>LedgerEntry</tt> and never changed; the balance of
+ *  every book is kept as a running sum, in memory and in the table <tt>LedgerBalance</tt>.
+ *  New legs are held in memory and written, with the running sums, in the transaction that
+ *  stores the account balances at a balance checkpoint. The legs posted after the last
+ *  checkpoint are lost if the software stops before the next one, while the balances they
+ *  belong to may have been stored, or are recovered from the balance journal. So whenever an
+ *  account is loaded or its balance recovered, its book is reconciled with the balance: any
+ *  difference is posted against the adjustment book.
+ *
+ *  <p>The ledger is the source of the balances: an account takes its balance from its book 
+ *  after each posting, and a total balance and an accumulative savings fund follow the postings
+ *  to the books they watch. The book of an account is opened when the account is stored or 
+ *  first posted to, so accounts that are never stored leave no trace in the ledger.
+ *
+ *  <p>{@link PostingListener}s are told about every posting as it is appended, and the 
+ *  listeners that watch a book about every posting to that book.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class Ledger {
+	// book types
+	public static final char BOOK_ACCOUNT = 'A';
+	public static final char BOOK_CATEGORY = 'C';
+	public static final char BOOK_SAVINGS = 'S';
+	public static final char BOOK_PARTY = 'P';
+	public static final char BOOK_ADJUSTMENT = 'X';
+
+	/** the source kind of an opening balance */
+	public static final byte KIND_OPENING = 'O';
+	/** the source kind of a reconciliation of an account book with the account balance */
+	public static final byte KIND_RECONCILIATION = 'R';
+
+	private static final String ENTRY_TABLE = DataSourceToolKit.table("LedgerEntry");
+	private static final String BALANCE_TABLE = DataSourceToolKit.table("LedgerBalance");
+
+	private static final Ledger instance = new Ledger();
+
+	private final IdSequence txnSequence = new IdSequence("Ledger");
+
+	// running sums by book key
+	private final Map<String, LongAdder> balances = new ConcurrentHashMap<>();
+
+	// postings not written yet
+	private final Object pendingLock = new Object();
+	private List<Posting> pending = new ArrayList<>();
+
+	private final List<PostingListener> listeners = new CopyOnWriteArrayList<>();
+	// the listeners that watch a book, by book key
+	private final Map<String, List<PostingListener>> watchers = new ConcurrentHashMap<>();
+
+	/**
+	 * @effects 
+	 *  initialise this with the books and the last transaction number stored in the data source; 
+	 *  throws NotPossibleException if they cannot be read
+	 */
+	private Ledger() throws NotPossibleException {
+		try {
+			readBalances();
+		} catch (SQLException e) {
+			throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_DB, e, "Ledger");
+		}
+	}
+
+	public static Ledger getInstance() {
+		return instance;
+	}
+
+	public void addListener(PostingListener l) {
+		listeners.add(l);
+	}
+
+	public void removeListener(PostingListener l) {
+		listeners.remove(l);
+	}
+
+	/**
+	 * @effects tell <tt>l</tt> about every posting to the book <tt>(bookType, bookId)</tt> from now on
+	 */
+	public void watch(char bookType, String bookId, PostingListener l) {
+		watchers.computeIfAbsent(bookKey(bookType, bookId), k -> new CopyOnWriteArrayList<>()).add(l);
+	}
+
+	public void unwatch(char bookType, String bookId, PostingListener l) {
+		List<PostingListener> ls = watchers.get(bookKey(bookType, bookId));
+		if (ls != null)
+			ls.remove(l);
+	}
+
+	/**
+	 * @effects
+	 *  append a posting of <tt>amount</tt> (in minor units) to the book of the account
+	 *  <tt>accountId</tt> and of <tt>-amount</tt> to the book <tt>(counterBookType, counterBookId)</tt>,
+	 *  caused by the transaction <tt>source</tt> of kind <tt>sourceKind</tt> and key <tt>sourceKey</tt>;
+	 *  update the running sums of both books and tell the listeners and the watchers of both books.
+	 */
+	public void post(byte sourceKind, long sourceKey, Object source, String accountId,
+			char counterBookType, String counterBookId, long amount) {
+		if (amount == 0)
+			return;
+
+		Posting p = new Posting(txnSequence.next(), sourceKind, sourceKey, source, accountId,
+				counterBookType, counterBookId, amount, System.currentTimeMillis());
+
+		String accountBook = bookKey(BOOK_ACCOUNT, accountId);
+		String counterBook = bookKey(counterBookType, counterBookId);
+		balanceOf(accountBook).add(amount);
+		balanceOf(counterBook).add(-amount);
+		synchronized (pendingLock) {
+			pending.add(p);
+		}
+
+		tell(listeners, p);
+		tell(watchers.get(accountBook), p);
+		tell(watchers.get(counterBook), p);
+	}
+
+	private static void tell(List<PostingListener> ls, Posting p) {
+		if (ls == null)
+			return;
+		for (PostingListener l : ls) {
+			l.posted(p);
+		}
+	}
+
+	/**
+	 * @effects
+	 *  if the ledger has no book for the account <tt>accountId</tt>
+	 *    open it with the balance <tt>balance</tt> (in minor units), against the adjustment book
+	 *  else
+	 *    {@link #reconcile(String, long)} it with <tt>balance</tt>
+	 */
+	public void open(String accountId, long balance) {
+		LongAdder book = balances.putIfAbsent(bookKey(BOOK_ACCOUNT, accountId), new LongAdder());
+		if (book == null) {
+			post(KIND_OPENING, 0, null, accountId, BOOK_ADJUSTMENT, "", balance);
+		} else {
+			reconcile(accountId, balance);
+		}
+	}
+
+	/**
+	 * @requires no posting to the account <tt>accountId</tt> is in progress
+	 * @effects
+	 *  if the book of the account <tt>accountId</tt> differs from the account balance 
+	 *  <tt>balance</tt> (in minor units)
+	 *    post the difference to it, against the adjustment book
+	 */
+	public void reconcile(String accountId, long balance) {
+		long difference = balance - getBalance(BOOK_ACCOUNT, accountId);
+		post(KIND_RECONCILIATION, 0, null, accountId, BOOK_ADJUSTMENT, "", difference);
+	}
+
+	/**
+	 * @effects return the balance of the book <tt>(bookType, bookId)</tt>, in minor units
+	 */
+	public long getBalance(char bookType, String bookId) {
+		LongAdder b = balances.get(bookKey(bookType, bookId));
+		return (b != null) ? b.sum() : 0;
+	}
+
+	/**
+	 * @effects return true if some postings have not been written yet
+	 */
+	public boolean hasPending() {
+		synchronized (pendingLock) {
+			return !pending.isEmpty();
+		}
+	}
+
+	/**
+	 * @effects
+	 *  write the pending postings and the running sums of their books on <tt>conn</tt>,
+	 *  as part of the caller's transaction; if the transaction is rolled back,
+	 *  {@link #restorePending(List)} must be called with the result
+	 */
+	public List<Posting> flush(Connection conn) throws SQLException {
+		List<Posting> written;
+		synchronized (pendingLock) {
+			if (pending.isEmpty())
+				return pending;
+			written = pending;
+			pending = new ArrayList<>();
+		}
+
+		try {
+			write(conn, written);
+		} catch (SQLException e) {
+			restorePending(written);
+			throw e;
+		}
+		return written;
+	}
+
+	private static void write(Connection conn, List<Posting> written) throws SQLException {
+		createTables(conn);
+		Map<String, Long> deltas = new LinkedHashMap<>();
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + ENTRY_TABLE
+				+ " (entryId, txnId, bookType, bookId, sourceKind, sourceKey, amount, postedAt)"
+				+ " VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
+			for (Posting p : written) {
+				addLeg(insert, p, 0, BOOK_ACCOUNT, p.getAccountId(), p.getAmount());
+				addLeg(insert, p, 1, p.getCounterBookType(), p.getCounterBookId(), -p.getAmount());
+				deltas.merge(bookKey(BOOK_ACCOUNT, p.getAccountId()), p.getAmount(), Long::sum);
+				deltas.merge(bookKey(p.getCounterBookType(), p.getCounterBookId()), -p.getAmount(), Long::sum);
+			}
+			insert.executeBatch();
+		}
+
+		// add the deltas to the stored running sums, creating the books that are new
+		List<String> created = new ArrayList<>();
+		try (PreparedStatement update = conn.prepareStatement("UPDATE " + BALANCE_TABLE
+				+ " SET balance = balance + ? WHERE bookType = ? AND bookId = ?")) {
+			for (Map.Entry<String, Long> d : deltas.entrySet()) {
+				update.setLong(1, d.getValue());
+				update.setString(2, d.getKey().substring(0, 1));
+				update.setString(3, d.getKey().substring(2));
+				if (update.executeUpdate() == 0)
+					created.add(d.getKey());
+			}
+		}
+		try (PreparedStatement insert = conn.prepareStatement("INSERT INTO " + BALANCE_TABLE
+				+ " (bookType, bookId, balance) VALUES (?, ?, ?)")) {
+			for (String book : created) {
+				insert.setString(1, book.substring(0, 1));
+				insert.setString(2, book.substring(2));
+				insert.setLong(3, deltas.get(book));
+				insert.addBatch();
+			}
+			insert.executeBatch();
+		}
+	}
+
+	/**
+	 * @effects put the postings <tt>notWritten</tt> back in front of the pending postings
+	 */
+	public void restorePending(List<Posting> notWritten) {
+		synchronized (pendingLock) {
+			List<Posting> all = new ArrayList<>(notWritten);
+			all.addAll(pending);
+			pending = all;
+		}
+	}
+
+	private static void addLeg(PreparedStatement insert, Posting p, int leg, char bookType, String bookId,
+			long amount) throws SQLException {
+		insert.setLong(1, p.getTxnId() * 2 + leg);
+		insert.setLong(2, p.getTxnId());
+		insert.setString(3, String.valueOf(bookType));
+		insert.setString(4, bookId);
+		insert.setString(5, String.valueOf((char) p.getSourceKind()));
+		insert.setLong(6, p.getSourceKey());
+		insert.setLong(7, amount);
+		insert.setTimestamp(8, new Timestamp(p.getPostedAt()));
+		insert.addBatch();
+	}
+
+	private LongAdder balanceOf(String bookKey) {
+		return balances.computeIfAbsent(bookKey, k -> new LongAdder());
+	}
+
+	private static String bookKey(char bookType, String bookId) {
+		return bookType + ":" + bookId;
+	}
+
+	private void readBalances() throws SQLException {
+		try (Connection conn = DataSourceToolKit.getConnection()) {
+			createTables(conn);
+			try (Statement stmt = conn.createStatement();
+				 ResultSet rs = stmt.executeQuery("SELECT bookType, bookId, balance FROM " + BALANCE_TABLE)) {
+				while (rs.next()) {
+					balanceOf(bookKey(rs.getString(1).charAt(0), rs.getString(2))).add(rs.getLong(3));
+				}
+			}
+			// the transaction numbers of the legs written so far are in use
+			try (Statement stmt = conn.createStatement();
+				 ResultSet rs = stmt.executeQuery("SELECT MAX(txnId) FROM " + ENTRY_TABLE)) {
+				if (rs.next())
+					txnSequence.seed(rs.getLong(1));
+			}
+		}
+	}
+
+	private static void createTables(Connection conn) throws SQLException {
+		DataSourceToolKit.createIfNotExists(conn, "CREATE TABLE " + ENTRY_TABLE
+				+ " (entryId BIGINT NOT NULL PRIMARY KEY, txnId BIGINT NOT NULL, bookType CHAR(1) NOT NULL,"
+				+ " bookId VARCHAR(16) NOT NULL, sourceKind CHAR(1) NOT NULL, sourceKey BIGINT NOT NULL,"
+				+ " amount BIGINT NOT NULL, postedAt TIMESTAMP NOT NULL)");
+		SchemaExtensions.createIndex(conn, "LedgerEntry", "bookType", "bookId", "entryId");
+		SchemaExtensions.createIndex(conn, "LedgerEntry", "sourceKind", "sourceKey");
+		DataSourceToolKit.createIfNotExists(conn, "CREATE TABLE " + BALANCE_TABLE
+				+ " (bookType CHAR(1) NOT NULL, bookId VARCHAR(16) NOT NULL, balance BIGINT NOT NULL,"
+				+ " PRIMARY KEY (bookType, bookId))");
+	}
+}
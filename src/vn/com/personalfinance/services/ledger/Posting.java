@@ -0,0 +1,101 @@
+package vn.com.personalfinance.services.ledger;
+
+/**
+ * @overview 
+ * 	One balanced ledger transaction: a change of <tt>amount</tt> (in minor units) to the 
+ *  balance of an account, and the opposite change to a counter book 
+ *  (a category, savings fund, party or adjustment book).
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class Posting {
+	private final long txnId;
+	private final byte sourceKind;
+	private final long sourceKey;
+	private final Object source;
+	private final String accountId;
+	private final char counterBookType;
+	private final String counterBookId;
+	private final long amount;
+	private final long postedAt;
+	
+	Posting(long txnId, byte sourceKind, long sourceKey, Object source, String accountId, 
+			char counterBookType, String counterBookId, long amount, long postedAt) {
+		this.txnId = txnId;
+		this.sourceKind = sourceKind;
+		this.sourceKey = sourceKey;
+		this.source = source;
+		this.accountId = accountId;
+		this.counterBookType = counterBookType;
+		this.counterBookId = counterBookId;
+		this.amount = amount;
+		this.postedAt = postedAt;
+	}
+	
+	public long getTxnId() {
+		return txnId;
+	}
+	
+	/**
+	 * @effects return the kind of the posted transaction, one of the <tt>KIND_</tt> constants 
+	 *  of <tt>BalanceJournal</tt>
+	 */
+	public byte getSourceKind() {
+		return sourceKind;
+	}
+	
+	public long getSourceKey() {
+		return sourceKey;
+	}
+	
+	/**
+	 * @effects return the posted transaction object, or null if there is none (e.g. an adjustment)
+	 */
+	public Object getSource() {
+		return source;
+	}
+	
+	public String getAccountId() {
+		return accountId;
+	}
+	
+	public char getCounterBookType() {
+		return counterBookType;
+	}
+	
+	public String getCounterBookId() {
+		return counterBookId;
+	}
+	
+	/**
+	 * @effects return the change of the account's balance, in minor units
+	 */
+	public long getAmount() {
+		return amount;
+	}
+	
+	/**
+	 * @effects return the change of the balance of the book <tt>(bookType, bookId)</tt> made by this, 
+	 *  in minor units: <tt>amount</tt> for the account's book, <tt>-amount</tt> for the counter book, 
+	 *  otherwise 0
+	 */
+	public long getAmountOf(char bookType, String bookId) {
+		long change = 0;
+		if (bookType == Ledger.BOOK_ACCOUNT && accountId.equals(bookId))
+			change += amount;
+		if (bookType == counterBookType && counterBookId.equals(bookId))
+			change -= amount;
+		return change;
+	}
+	
+	public long getPostedAt() {
+		return postedAt;
+	}
+	
+	@Override
+	public String toString() {
+		return "Posting(" + txnId + "," + (char) sourceKind + sourceKey + "," + accountId + "," 
+				+ counterBookType + ":" + counterBookId + "," + amount + ")";
+	}
+}
@@ -0,0 +1,18 @@
+package vn.com.personalfinance.services.ledger;
+
+/**
+ * @overview 
+ * 	Is told about every {@link Posting} appended to the {@link Ledger}. 
+ *  Listeners are called on the posting thread while the account is locked, 
+ *  so they must be quick and must not change accounts.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public interface PostingListener {
+	
+	/**
+	 * @effects react to the posting <tt>p</tt>
+	 */
+	void posted(Posting p);
+}
@@ -0,0 +1,244 @@
+package vn.com.personalfinance.services.report;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * @overview
+ * 	A bounded cache of report query results, keyed by the report class, the part of the report
+ *  and the normalised report inputs. The least recently used result is evicted first.
+ *
+ *  <p>Each result carries a predicate telling which writes of transactions affect it.
+ *  Every write of a daily expense, daily income or borrow-and-lend is reported with
+ *  {@link #invalidate(Write)}, once with the values before it and once with the values after it,
+ *  and only the results it affects are dropped.
+ *
+ *  <p>The number of results kept is given by the system property
+ *  <tt>personalfinance.report.cache.size</tt> (default: 128). Hits, misses, evictions and
+ *  invalidations are counted.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class ReportCache {
+	public static final int CAPACITY = Integer.getInteger("personalfinance.report.cache.size", 128);
+
+	private static final ReportCache instance = new ReportCache();
+
+	// guarded by this
+	private final Map<List<Object>, Entry> entries = new LinkedHashMap<List<Object>, Entry>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<List<Object>, Entry> eldest) {
+			if (size() > CAPACITY) {
+				evictions.increment();
+				return true;
+			}
+			return false;
+		}
+	};
+
+	// the number of invalidations so far, so that a result loaded during a write is not kept; guarded by this
+	private long version;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	private final LongAdder invalidations = new LongAdder();
+
+	private ReportCache() {
+		// singleton
+	}
+
+	public static ReportCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @overview a write of a transaction, as seen by the cached results
+	 */
+	public static final class Write {
+		private final Class<?> type;
+		private final Date date;
+		private final String categoryName;
+		private final String actionTypeName;
+
+		/**
+		 * @effects
+		 *  initialise this as a write of a transaction of class <tt>type</tt> dated <tt>date</tt>,
+		 *  of the category named <tt>categoryName</tt> or the action type named
+		 *  <tt>actionTypeName</tt>; any of these but <tt>type</tt> may be null
+		 */
+		public Write(Class<?> type, Date date, String categoryName, String actionTypeName) {
+			this.type = type;
+			this.date = date;
+			this.categoryName = categoryName;
+			this.actionTypeName = actionTypeName;
+		}
+
+		public Class<?> getType() {
+			return type;
+		}
+
+		public Date getDate() {
+			return date;
+		}
+
+		public String getCategoryName() {
+			return categoryName;
+		}
+
+		public String getActionTypeName() {
+			return actionTypeName;
+		}
+	}
+
+	/**
+	 * @overview a cached query result: the objects found and the totals computed from them
+	 */
+	public static final class Result<T> {
+		private final Collection<T> objects;
+		private final long[] totals;
+
+		public Result(Collection<T> objects, long... totals) {
+			this.objects = objects;
+			this.totals = totals;
+		}
+
+		public Collection<T> getObjects() {
+			return objects;
+		}
+
+		/**
+		 * @effects return the total <tt>i</tt>, in minor units
+		 */
+		public long getTotal(int i) {
+			return totals[i];
+		}
+	}
+
+	/**
+	 * @overview loads a result on a cache miss
+	 */
+	public interface Loader<T, E extends Exception> {
+		Result<T> load() throws E;
+	}
+
+	/**
+	 * @effects return the key of the result of <tt>part</tt> of <tt>report</tt> for the normalised
+	 *  inputs <tt>inputs</tt>
+	 */
+	public static List<Object> key(Class<?> report, String part, Object... inputs) {
+		List<Object> key = new ArrayList<>(inputs.length + 2);
+		key.add(report);
+		key.add(part);
+		key.addAll(Arrays.asList(inputs));
+		return key;
+	}
+
+	/**
+	 * @effects
+	 *  if a result is cached for <tt>key</tt>
+	 *    return it
+	 *  else
+	 *    load it with <tt>loader</tt>, cache it with the predicate <tt>affectedBy</tt>, and return it;
+	 *    throws E if <tt>loader</tt> fails
+	 */
+	@SuppressWarnings("unchecked")
+	public <T, E extends Exception> Result<T> get(List<Object> key, Predicate<Write> affectedBy, Loader<T, E> loader)
+			throws E {
+		Entry e;
+		long loadVersion;
+		synchronized (this) {
+			e = entries.get(key);
+			loadVersion = version;
+		}
+		if (e != null) {
+			hits.increment();
+			return (Result<T>) e.result;
+		}
+
+		misses.increment();
+		Result<T> result = loader.load();
+		synchronized (this) {
+			if (version == loadVersion)
+				entries.put(key, new Entry(result, affectedBy));
+		}
+		return result;
+	}
+
+	/**
+	 * @effects remove the cached results affected by <tt>w</tt>
+	 */
+	public synchronized void invalidate(Write w) {
+		version++;
+		for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+			if (it.next().affectedBy.test(w)) {
+				it.remove();
+				invalidations.increment();
+			}
+		}
+	}
+
+	/**
+	 * @effects remove all cached results
+	 */
+	public synchronized void clear() {
+		version++;
+		invalidations.add(entries.size());
+		entries.clear();
+	}
+
+	// metrics
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public long getInvalidations() {
+		return invalidations.sum();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @effects return the fraction of look-ups that were hits, or 0 if there were none
+	 */
+	public double getHitRate() {
+		long h = getHits();
+		long all = h + getMisses();
+		return (all > 0) ? (double) h / all : 0;
+	}
+
+	@Override
+	public String toString() {
+		return "ReportCache(size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + ", invalidations=" + getInvalidations() + ")";
+	}
+
+	private static final class Entry {
+		final Result<?> result;
+		final Predicate<Write> affectedBy;
+
+		Entry(Result<?> result, Predicate<Write> affectedBy) {
+			this.result = result;
+			this.affectedBy = affectedBy;
+		}
+	}
+}
@@ -0,0 +1,175 @@
+package vn.com.personalfinance.services.report;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import domainapp.basics.exceptions.DataSourceException;
+import domainapp.basics.exceptions.NotPossibleException;
+
+/**
+ * @overview
+ * 	Runs the two independent halves of a report, such as its daily expense and its daily income
+ *  queries, at the same time on a bounded pool of threads, and publishes their results together
+ *  once both have finished.
+ *
+ *  <p>Each report keeps a {@link Run}. A run that starts while an earlier run of the same report is
+ *  in flight supersedes it: the earlier halves that have not started are cancelled, and the
+ *  results of those already running are discarded instead of published. The running statements
+ *  are not interrupted, because Derby closes a connection whose thread is interrupted. Since
+ *  {@link #execute(Run, Half, Half, Publisher)} waits for both halves, a run is only superseded 
+ *  by one started from another thread.
+ *
+ *  <p>Halves that only read memory, such as the totals of the expense and income rollups, are 
+ *  computed on the calling thread instead: handing them to the pool would cost more than 
+ *  computing them.
+ *
+ *  <p>The number of threads is given by the system property <tt>personalfinance.report.threads</tt>
+ *  (default: 4).
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class ReportExecutor {
+	public static final int THREADS = Integer.getInteger("personalfinance.report.threads", 4);
+
+	private static final AtomicInteger threadCount = new AtomicInteger();
+
+	private static final ExecutorService executor = Executors.newFixedThreadPool(THREADS, r -> {
+		Thread t = new Thread(r, "report-" + threadCount.incrementAndGet());
+		t.setDaemon(true);
+		return t;
+	});
+
+	private ReportExecutor() {
+		// no instances
+	}
+
+	/**
+	 * @overview the runs of the queries of one report
+	 */
+	public static final class Run {
+		// the number of runs started so far; guarded by this
+		private long generation;
+		// the halves of the latest run, while it is in flight; guarded by this
+		private Future<?>[] inFlight;
+
+		/**
+		 * @effects cancel the halves in flight, if any, that have not started
+		 */
+		private void cancelInFlight() {
+			if (inFlight != null) {
+				for (Future<?> f : inFlight) {
+					f.cancel(false);
+				}
+				inFlight = null;
+			}
+		}
+	}
+
+	/**
+	 * @overview one half of a report: computes its result without publishing it
+	 */
+	public interface Half<R> {
+		R compute() throws NotPossibleException, DataSourceException;
+	}
+
+	/**
+	 * @overview publishes the results of both halves to the report outputs
+	 */
+	public interface Publisher<A, B> {
+		void publish(A first, B second);
+	}
+
+	/**
+	 * @effects
+	 *  if <tt>inMemory</tt>
+	 *    compute <tt>first</tt> and <tt>second</tt> in turn on the calling thread, superseding 
+	 *    the run in flight of <tt>run</tt> (if any), and publish their results with 
+	 *    <tt>publisher</tt> as by {@link #execute(Run, Half, Half, Publisher)}
+	 *  else 
+	 *    {@link #execute(Run, Half, Half, Publisher)}
+	 */
+	public static <A, B> boolean execute(Run run, boolean inMemory, Half<A> first, Half<B> second,
+			Publisher<A, B> publisher) throws NotPossibleException, DataSourceException {
+		if (!inMemory)
+			return execute(run, first, second, publisher);
+
+		long generation;
+		synchronized (run) {
+			run.cancelInFlight();
+			generation = ++run.generation;
+		}
+		A a = first.compute();
+		B b = second.compute();
+		synchronized (run) {
+			if (generation != run.generation)
+				return false;
+			publisher.publish(a, b);
+			return true;
+		}
+	}
+
+	/**
+	 * @effects
+	 *  compute <tt>first</tt> and <tt>second</tt> at the same time, superseding the run in flight
+	 *  of <tt>run</tt> (if any), and wait for both;
+	 *  if no later run of <tt>run</tt> has started
+	 *    publish their results with <tt>publisher</tt> and return true
+	 *  else
+	 *    return false
+	 *
+	 *  <p>throws NotPossibleException or DataSourceException if either half fails, in which case
+	 *  nothing is published
+	 */
+	public static <A, B> boolean execute(Run run, Half<A> first, Half<B> second, Publisher<A, B> publisher)
+			throws NotPossibleException, DataSourceException {
+		long generation;
+		Future<A> fa;
+		Future<B> fb;
+		synchronized (run) {
+			run.cancelInFlight();
+			generation = ++run.generation;
+			fa = executor.submit(first::compute);
+			fb = executor.submit(second::compute);
+			run.inFlight = new Future<?>[] { fa, fb };
+		}
+
+		A a;
+		B b;
+		try {
+			a = fa.get();
+			b = fb.get();
+		} catch (CancellationException e) {
+			// superseded by a later run
+			return false;
+		} catch (InterruptedException e) {
+			fa.cancel(false);
+			fb.cancel(false);
+			Thread.currentThread().interrupt();
+			throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_WAIT_FOR_TASK, e, "report");
+		} catch (ExecutionException e) {
+			fa.cancel(false);
+			fb.cancel(false);
+			Throwable cause = e.getCause();
+			if (cause instanceof DataSourceException)
+				throw (DataSourceException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new NotPossibleException(NotPossibleException.Code.FAIL_TO_PERFORM_REPORT, cause, "report");
+		}
+
+		synchronized (run) {
+			if (generation != run.generation)
+				return false;
+			run.inFlight = null;
+			publisher.publish(a, b);
+			return true;
+		}
+	}
+}
@@ -10,7 +10,10 @@ import domainapp.basics.model.meta.DAttr;
 import domainapp.basics.model.meta.DClass;
 import domainapp.basics.model.meta.DOpt;
 import domainapp.basics.model.meta.DAttr.Type;
+import vn.com.personalfinance.services.ledger.Ledger;
+import vn.com.personalfinance.services.ledger.Posting;
 import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.utils.Money;
 
 /**
  * Represents an accumulation.
@@ -26,26 +29,31 @@ public class AccumulativeSavings extends Savings {
 			serialisable=true)
 	private Double remainedAmount;
 	
+	// the sum of the amounts of savingsTransaction, in minor units: the stored ones as loaded, 
+	// then the postings to the ledger book of this, see posted(Posting)
+	private long accumulatedMinor;
+	
 	// constructor methods
 	@DOpt(type = DOpt.Type.ObjectFormConstructor)
 	public AccumulativeSavings(@AttrRef("name") String name,
 			@AttrRef("purpose") String purpose,
 			@AttrRef("amount") Double amount, 
 			@AttrRef("startDate") Date startDate) {
-		this(null, name, purpose, amount, startDate, amount);
+		this(null, null, name, purpose, amount, startDate, amount);
 	}
 
 	// a shared constructor that is invoked by other constructors
 	@DOpt(type = DOpt.Type.DataSourceConstructor)
-	public AccumulativeSavings(String id, String name, String purpose, 
+	public AccumulativeSavings(String id, Long idNumber, String name, String purpose, 
 		Double amount, Date startDate, Double remainedAmount) throws ConstraintViolationException {
-		super(id, name, purpose, amount, startDate);
+		super(id, idNumber, name, purpose, amount, startDate);
 		
 		Collection<SavingsTransaction> savingsTransaction = getSavingsTransaction();
 		setSavingsTransaction(savingsTransaction = new ArrayList<>());
 		setSavingsTransactionCount(0);
 		
 		this.remainedAmount=remainedAmount;
+		Ledger.getInstance().watch(Ledger.BOOK_SAVINGS, getId(), this::posted);
 	}
 	
 	//getter
@@ -65,13 +73,20 @@ public class AccumulativeSavings extends Savings {
 			computeRemainedAmount();
 	}
 	
+	/**
+	 * @effects 
+	 *  add the change of the ledger book of this made by <tt>p</tt> (the amount of a savings 
+	 *  transaction posted to, or taken back from, its account) to the accumulated amount
+	 */
+	private synchronized void posted(Posting p) {
+		accumulatedMinor += p.getAmountOf(Ledger.BOOK_SAVINGS, getId());
+		computeRemainedAmount();
+	}
+	
 	// calculate accumulate
-	private void computeRemainedAmount() {
+	private synchronized void computeRemainedAmount() {
 		if (getSavingsTransactionCount() >= 0 && remainedAmount <= getAmount() && remainedAmount >= 0) {
-			double accumAmount = 0d;
-			for (SavingsTransaction savingsTransaction : getSavingsTransaction()) {
-				accumAmount += savingsTransaction.getAmount();
-			}
+			double accumAmount = Money.toMajor(accumulatedMinor);
 			if (accumAmount <= getAmount()) {
 				remainedAmount = getAmount() - accumAmount;
 			} else {
@@ -83,8 +98,10 @@ public class AccumulativeSavings extends Savings {
 	@DOpt(type = DOpt.Type.LinkAdder)
 	// only need to do this for reflexive association: @MemberRef(name="accounts")
 	public boolean addSavingsTransaction(SavingsTransaction s) {
-		if (!getSavingsTransaction().contains(s))
+		if (!getSavingsTransaction().contains(s)) {
 			getSavingsTransaction().add(s);
+			accumulatedMinor += s.getAmountMinor();
+		}
 
 		// no other attributes changed
 		return true;
@@ -92,6 +109,7 @@ public class AccumulativeSavings extends Savings {
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewSavingsTransaction(SavingsTransaction s) {
+		// accumulated when its account posts it
 		getSavingsTransaction().add(s);
 		int count = getSavingsTransactionCount();
 		setSavingsTransactionCount(count + 1);
@@ -106,6 +124,7 @@ public class AccumulativeSavings extends Savings {
 		for (SavingsTransaction s : savingsTransaction) {
 			if (!getSavingsTransaction().contains(s)) {
 				getSavingsTransaction().add(s);
+				accumulatedMinor += s.getAmountMinor();
 			}
 		}
 		// no other attributes changed
@@ -114,6 +133,7 @@ public class AccumulativeSavings extends Savings {
 
 	@DOpt(type = DOpt.Type.LinkAdderNew)
 	public boolean addNewSavingsTransaction(Collection<SavingsTransaction> savingsTransaction) {
+		// accumulated when their accounts post them
 		getSavingsTransaction().addAll(savingsTransaction);
 		int count = getSavingsTransactionCount();
 		count += savingsTransaction.size();
@@ -133,21 +153,27 @@ public class AccumulativeSavings extends Savings {
 			int count = getSavingsTransactionCount();
 			setSavingsTransactionCount(count - 1);
 
-			double currentAccountBalance = s.getAccount().getBalance();
-			s.getAccount().setBalance(currentAccountBalance += s.getAmount());
-
-			computeRemainedAmount();
+			// the account balance, and the accumulated amount with it, are restored by 
+			// Account.removeSavingsTransaction
 		}
 		// no other attributes changed
 		return true;
 	}
 	
+	@Override
+	public void setSavingsTransaction(Collection<SavingsTransaction> savingsTransaction) {
+		super.setSavingsTransaction(savingsTransaction);
+		accumulatedMinor = 0;
+		for (SavingsTransaction s : savingsTransaction) {
+			accumulatedMinor += s.getAmountMinor();
+		}
+	}
+	
 	// automatically generate the next account id
 	@Override
 	public String nextID(String id) throws ConstraintViolationException {
 		if (id == null) { // generate a new id
-			idCounter++;
-			return "A" + idCounter;
+			return "A" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -158,9 +184,7 @@ public class AccumulativeSavings extends Savings {
 						new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 
 			return id;
 		}
@@ -47,16 +47,16 @@ public class EconomicalSavings extends Savings {
 				       @AttrRef("startDate") Date startDate,
 					   @AttrRef("monthlyDuration") Integer monthlyDuration,
 					   @AttrRef("interestRate") Double interestRate) {
-		this(null, name, purpose, amount, startDate, monthlyDuration, interestRate);
+		this(null, null, name, purpose, amount, startDate, monthlyDuration, interestRate);
 	}
 
 	// a shared constructor that is invoked by other constructors
 	@DOpt(type = DOpt.Type.DataSourceConstructor)
-	public EconomicalSavings(String id, String name, String purpose, 
+	public EconomicalSavings(String id, Long idNumber, String name, String purpose, 
 		Double amount, Date startDate, Integer monthlyDuration, 
 		Double interestRate) throws ConstraintViolationException {
 		
-		super(id, name, purpose, amount, startDate);
+		super(id, idNumber, name, purpose, amount, startDate);
 		this.monthlyDuration = monthlyDuration;
 		this.interestRate = interestRate;
 		
@@ -198,8 +198,7 @@ public class EconomicalSavings extends Savings {
 	@Override
 	public String nextID(String id) throws ConstraintViolationException {
 		if (id == null) { // generate a new id
-			idCounter++;
-			return "E" + idCounter;
+			return "E" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -210,9 +209,7 @@ public class EconomicalSavings extends Savings {
 						new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 
 			return id;
 		}
@@ -17,6 +17,7 @@ import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
 import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.datasource.IdSequence;
 
 /**
  * Represents savings. The account ID is auto-incremented.
@@ -28,6 +29,7 @@ import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
 @DClass(schema="personalfinancemanager")
 public abstract class Savings {
 	public static final String S_id = "id";
+	public static final String S_idNumber = "idNumber";
 	public static final String S_amount = "amount";
 	public static final String S_name = "name";
 	public static final String S_purpose = "purpose";
@@ -37,7 +39,11 @@ public abstract class Savings {
 	@DAttr(name = S_id, id = true, type = Type.String, auto = true, length = 6, mutable = false, optional = false)
 	private String id;
 	// static variable to keep track of account id
-	public static int idCounter = 0;
+	protected static final IdSequence idSequence = new IdSequence("Savings");
+	
+	// the number part of id, used as the key in equals, hashCode and association look-ups
+	@DAttr(name = S_idNumber, type = Type.Long, auto = true, mutable = false, optional = false)
+	private long idNumber;
 	
 	@DAttr(name = S_name, type = Type.String, length = 20, optional = false, cid=true)
 	private String name;
@@ -67,15 +73,17 @@ public abstract class Savings {
 			@AttrRef("purpose") String purpose,
 			@AttrRef("amount") Double amount,
 			@AttrRef("startDate") Date startDate) {
-		this(null, name, purpose, amount, startDate);
+		this(null, null, name, purpose, amount, startDate);
 	}
 		
 	// a shared constructor that is invoked by other constructors
 	@DOpt(type=DOpt.Type.DataSourceConstructor)
-	protected Savings (String id, String name, String purpose, 
+	protected Savings (String id, Long idNumber, String name, String purpose, 
 		Double amount,  Date startDate) throws ConstraintViolationException {
 		// generate an id
 		this.id = nextID(id);   
+		// the number part of id, as stored or, for a new object, as generated
+		this.idNumber = (idNumber != null) ? idNumber : Long.parseLong(this.id.substring(1));
 		// assign other values
 		this.name = name;
 		this.purpose = purpose;
@@ -89,6 +97,13 @@ public abstract class Savings {
 		return id;
 	}
 	
+	/**
+	 * @effects return the number part of id
+	 */
+	public long getIdNumber() {
+		return idNumber;
+	}
+	
 	public String getName() {
 		return name;
 	}
@@ -132,7 +147,7 @@ public abstract class Savings {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Integer.parseInt(id.substring(1));
+		result = prime * result + Long.hashCode(idNumber);
 		return result;
 	}
 	
@@ -146,7 +161,7 @@ public abstract class Savings {
 			return false;
 		Savings other = (Savings) obj;
 		
-		if (!(id.equals(other.id)))
+		if (idNumber != other.idNumber)
 			return false;
 		return true;
 	}
@@ -162,21 +177,10 @@ public abstract class Savings {
 	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
 			throws ConstraintViolationException {
 		if (minVal != null && maxVal != null) {
-			// check the right attribute
-			if (attrib.name().equals("id")) {
-				String maxID = (String) maxVal;
-
-				try {
-					int maxIDNum = Integer.parseInt(maxID.substring(1));
-
-					if (maxIDNum > idCounter) {
-						idCounter = maxIDNum;
-					}
-
-				} catch (RuntimeException e) {
-					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-							new Object[] { maxID });
-				}
+			// check the right attribute: the number part of id, whose maximum is the greatest number
+			// in use (the maximum of id itself is a string maximum, e.g. "E99" > "E100")
+			if (attrib.name().equals(S_idNumber)) {
+				idSequence.seed(((Number) maxVal).longValue());
 			}
 		}
 	}
@@ -245,6 +249,15 @@ public abstract class Savings {
 		return false;
 	}
 
+	/**
+	 * @effects 
+	 *  update the values of this derived from the amount of <tt>s</tt>, 
+	 *  after it changed from <tt>oldAmount</tt> (in minor units)
+	 */
+	public void updateSavingsTransactionAmount(SavingsTransaction s, long oldAmount) {
+		// nothing is derived from the amounts by default
+	}
+
 	public void setSavingsTransaction(Collection<SavingsTransaction> savingsTransaction) {
 		this.savingsTransaction = savingsTransaction;
 		savingsTransactionCount = savingsTransaction.size();
@@ -13,6 +13,8 @@ import domainapp.basics.model.meta.DAssoc.AssocType;
 import domainapp.basics.model.meta.DAssoc.Associate;
 import domainapp.basics.model.meta.DAttr.Type;
 import domainapp.basics.util.Tuple;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
 
 @DClass(schema="personalfinancemanager")
 public class SavingsTransaction implements Comparable {
@@ -20,7 +22,12 @@ public class SavingsTransaction implements Comparable {
 	// attribute
 	@DAttr(name = "id", id = true, auto = true, type = Type.String, length = 5, optional = false, mutable = false)
 	private String id;
-	private static int idCounter = 0;
+	// ids have three digits: reserve one number at a time, so that none is lost when the software exits
+	private static final IdSequence idSequence = new IdSequence("SavingsTransaction", 1, 1);
+	
+	// the number part of id, used as the key in equals, hashCode and association look-ups
+	@DAttr(name = "idNumber", type = Type.Long, auto = true, mutable = false, optional = false)
+	private long idNumber;
 	  
 	@DAttr(name = "account", type = Type.Domain, length = 15, optional = false)
 	@DAssoc(ascName = "account-has-savingsTransaction", role = "savingsTransaction", 
@@ -36,6 +43,8 @@ public class SavingsTransaction implements Comparable {
 	
 	@DAttr(name = "amount", type = Type.Double, length = 15, optional = false)
 	private double amount;
+	// amount in minor units, used for all balance arithmetic
+	private long amountMinor;
 	
 	@DAttr(name = "description", type = Type.String, length = 30)
 	private String description;
@@ -45,7 +54,7 @@ public class SavingsTransaction implements Comparable {
 	@DOpt(type=DOpt.Type.RequiredConstructor)
 	public SavingsTransaction(@AttrRef("account") Account account, 
 	    @AttrRef("savings") Savings savings) throws ConstraintViolationException {
-	  this(null, account, savings, 0.0, null);
+	  this(null, null, account, savings, 0.0, null);
 	}
 
 	@DOpt(type=DOpt.Type.ObjectFormConstructor)
@@ -54,15 +63,18 @@ public class SavingsTransaction implements Comparable {
 	    @AttrRef("amount") Double amount, 
 	    @AttrRef("description") String description)
 	    throws ConstraintViolationException {
-	  this(null, account, savings, amount, description);
+	  this(null, null, account, savings, amount, description);
 	}
 
 	@DOpt(type=DOpt.Type.DataSourceConstructor)
-	public SavingsTransaction(String id, Account account, Savings savings, Double amount, String description) throws ConstraintViolationException {
+	public SavingsTransaction(String id, Long idNumber, Account account, Savings savings, Double amount, String description) throws ConstraintViolationException {
 	  this.id = nextID(id);
+	  // the number part of id, as stored or, for a new object, as generated
+	  this.idNumber = (idNumber != null) ? idNumber : Long.parseLong(this.id.substring(2));
 	  this.account = account;
 	  this.savings = savings;
-	  this.amount = (amount != null) ? amount.doubleValue() : null;
+	  this.amountMinor = Money.toMinor(amount);
+	  this.amount = Money.toMajor(amountMinor);
 	  this.description = description;
 	}
 	
@@ -76,7 +88,14 @@ public class SavingsTransaction implements Comparable {
 	}
 	
 	public void setAmount(double amount) {
-		this.amount = amount;
+		long oldAmount = this.amountMinor;
+		this.amountMinor = Money.toMinor(amount);
+		this.amount = Money.toMajor(amountMinor);
+		
+		if (account != null)
+			account.updateSavingsTransactionAmount(this, oldAmount);
+		if (savings != null)
+			savings.updateSavingsTransactionAmount(this, oldAmount);
 	}
 	
 	public void setDescription(String description) {
@@ -88,6 +107,13 @@ public class SavingsTransaction implements Comparable {
 		return id;
 	}
 
+	/**
+	 * @effects return the number part of id
+	 */
+	public long getIdNumber() {
+		return idNumber;
+	}
+
 	public Account getAccount() {
 		return account;
 	}
@@ -100,6 +126,13 @@ public class SavingsTransaction implements Comparable {
 		return amount;
 	}
 	
+	/**
+	 * @effects return amount in minor units
+	 */
+	public long getAmountMinor() {
+		return amountMinor;
+	}
+	
 	public String getDescription() {
 		return description;
 	}
@@ -121,7 +154,7 @@ public class SavingsTransaction implements Comparable {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + Integer.parseInt(id);
+		result = prime * result + Long.hashCode(idNumber);
 		return result;
 	}
 
@@ -134,7 +167,7 @@ public class SavingsTransaction implements Comparable {
 		if (getClass() != obj.getClass())
 			return false;
 		SavingsTransaction other = (SavingsTransaction) obj;
-		if (id != other.id)
+		if (idNumber != other.idNumber)
 			return false;
 		return true;
 	}
@@ -142,8 +175,7 @@ public class SavingsTransaction implements Comparable {
 	
 	private static String nextID(String id) {
 		if (id == null) { // generate a new id
-			idCounter++;
-			return "ST" + idCounter;
+			return "ST" + idSequence.next();
 		} else {
 			// update id
 			int num;
@@ -153,9 +185,7 @@ public class SavingsTransaction implements Comparable {
 				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { id });
 			}
 
-			if (num > idCounter) {
-				idCounter = num;
-			}
+			idSequence.seed(num);
 
 			return id;
 		}
@@ -170,21 +200,10 @@ public class SavingsTransaction implements Comparable {
 	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
 			throws ConstraintViolationException {
 		if (minVal != null && maxVal != null) {
-			// check the right attribute
-			if (attrib.name().equals("id")) {
-				String maxID = (String) maxVal;
-
-				try {
-					int maxIDNum = Integer.parseInt(maxID.substring(2));
-
-					if (maxIDNum > idCounter) {
-						idCounter = maxIDNum;
-					}
-
-				} catch (RuntimeException e) {
-					throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e,
-							new Object[] { maxID });
-				}
+			// check the right attribute: the number part of id, whose maximum is the greatest number
+			// in use (the maximum of id itself is a string maximum, e.g. "E99" > "E100")
+			if (attrib.name().equals("idNumber")) {
+				idSequence.seed(((Number) maxVal).longValue());
 			}
 			// TODO add support for other attributes here
 		}
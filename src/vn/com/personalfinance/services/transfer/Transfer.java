@@ -0,0 +1,234 @@
+package vn.com.personalfinance.services.transfer;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import domainapp.basics.exceptions.ConstraintViolationException;
+import domainapp.basics.model.meta.AttrRef;
+import domainapp.basics.model.meta.DAssoc;
+import domainapp.basics.model.meta.DAttr;
+import domainapp.basics.model.meta.DClass;
+import domainapp.basics.model.meta.DOpt;
+import domainapp.basics.model.meta.DAssoc.AssocEndType;
+import domainapp.basics.model.meta.DAssoc.AssocType;
+import domainapp.basics.model.meta.DAssoc.Associate;
+import domainapp.basics.model.meta.DAttr.Type;
+import domainapp.basics.util.Tuple;
+import vn.com.personalfinance.services.account.Account;
+import vn.com.personalfinance.services.account.AccountPostingService;
+import vn.com.personalfinance.utils.Money;
+import vn.com.personalfinance.datasource.IdSequence;
+
+/**
+ * Represents a move of money from one account to another.
+ * A transfer is posted to both accounts at once, and its accounts and amount cannot be changed;
+ * to correct a transfer, delete it or make a transfer back.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+@DClass(schema="personalfinancemanager")
+public class Transfer {
+	public static final String T_id = "id";
+	public static final String T_idNumber = "idNumber";
+	public static final String T_fromAccount = "fromAccount";
+	public static final String T_toAccount = "toAccount";
+	public static final String T_amount = "amount";
+	public static final String T_date = "date";
+	public static final String T_description = "description";
+
+	// attribute
+	@DAttr(name = T_id, id = true, auto = true, type = Type.String, length = 6, optional = false, mutable = false)
+	private String id;
+	// ids have four digits: reserve few numbers at a time, so that few are lost when the software exits
+	private static final IdSequence idSequence = new IdSequence("Transfer", 1, 5);
+
+	// the number part of id, used as the key in equals, hashCode and association look-ups
+	@DAttr(name = T_idNumber, type = Type.Long, auto = true, mutable = false, optional = false)
+	private long idNumber;
+
+	@DAttr(name = T_fromAccount, type = Type.Domain, length = 15, optional = false, mutable = false)
+	@DAssoc(ascName = "account-has-transferOut", role = "transferOut",
+	    ascType = AssocType.One2Many, endType = AssocEndType.Many,
+	    associate = @Associate(type = Account.class, cardMin = 1, cardMax = 1))
+	private Account fromAccount;
+
+	@DAttr(name = T_toAccount, type = Type.Domain, length = 15, optional = false, mutable = false)
+	@DAssoc(ascName = "account-has-transferIn", role = "transferIn",
+	    ascType = AssocType.One2Many, endType = AssocEndType.Many,
+	    associate = @Associate(type = Account.class, cardMin = 1, cardMax = 1))
+	private Account toAccount;
+
+	@DAttr(name = T_amount, type = Type.Double, length = 15, optional = false, mutable = false, min = 0)
+	private double amount;
+	// amount in minor units, used for all balance arithmetic
+	private long amountMinor;
+
+	@DAttr(name = T_date, type = Type.Date, length = 15, optional = false)
+	private Date date;
+
+	@DAttr(name = T_description, type = Type.String, length = 30)
+	private String description;
+
+	// constructor
+	@DOpt(type=DOpt.Type.ObjectFormConstructor)
+	@DOpt(type=DOpt.Type.RequiredConstructor)
+	public Transfer(@AttrRef("fromAccount") Account fromAccount,
+	    @AttrRef("toAccount") Account toAccount,
+	    @AttrRef("amount") Double amount,
+	    @AttrRef("date") Date date) throws ConstraintViolationException {
+	  this(null, null, fromAccount, toAccount, amount, date, null);
+	}
+
+	@DOpt(type=DOpt.Type.ObjectFormConstructor)
+	public Transfer(@AttrRef("fromAccount") Account fromAccount,
+	    @AttrRef("toAccount") Account toAccount,
+	    @AttrRef("amount") Double amount,
+	    @AttrRef("date") Date date,
+	    @AttrRef("description") String description) throws ConstraintViolationException {
+	  this(null, null, fromAccount, toAccount, amount, date, description);
+	}
+
+	@DOpt(type=DOpt.Type.DataSourceConstructor)
+	public Transfer(String id, Long idNumber, Account fromAccount, Account toAccount, Double amount,
+			Date date, String description) throws ConstraintViolationException {
+	  this.id = nextID(id);
+	  // the number part of id, as stored or, for a new object, as generated
+	  this.idNumber = (idNumber != null) ? idNumber : Long.parseLong(this.id.substring(2));
+	  this.fromAccount = fromAccount;
+	  this.toAccount = toAccount;
+	  this.amountMinor = Money.toMinor(amount);
+	  this.amount = Money.toMajor(amountMinor);
+	  this.date = date;
+	  this.description = description;
+	  
+	  // a new transfer is journalled before the object store stores it, so that it cannot be 
+	  // stored without recovery knowing of it
+	  if (id == null)
+	    AccountPostingService.getInstance().recordTransfer(this);
+	}
+
+	// setter
+	public void setDate(Date date) {
+		Date oldDate = this.date;
+		this.date = date;
+
+		if (fromAccount != null)
+			fromAccount.updateTransferDate(this, oldDate);
+		if (toAccount != null)
+			toAccount.updateTransferDate(this, oldDate);
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	// getter
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @effects return the number part of id
+	 */
+	public long getIdNumber() {
+		return idNumber;
+	}
+
+	public Account getFromAccount() {
+		return fromAccount;
+	}
+
+	public Account getToAccount() {
+		return toAccount;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	/**
+	 * @effects return amount in minor units
+	 */
+	public long getAmountMinor() {
+		return amountMinor;
+	}
+
+	public Date getDate() {
+		return date;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	@Override
+	public String toString() {
+		return "Transfer(" + getId() + "," + ((fromAccount != null) ? fromAccount.getId() : "null") + ","
+				+ ((toAccount != null) ? toAccount.getId() : "null") + "," + amount + ","
+				+ ((date != null) ? formatDate(date) : "null") + ")";
+	}
+
+	private static String formatDate(Date date) {
+		DateFormat dateFormat = new SimpleDateFormat("dd/MM/yyyy");
+		return dateFormat.format(date);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + Long.hashCode(idNumber);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Transfer other = (Transfer) obj;
+		if (idNumber != other.idNumber)
+			return false;
+		return true;
+	}
+
+	private static String nextID(String id) {
+		if (id == null) { // generate a new id
+			return "TF" + idSequence.next();
+		} else {
+			// update id
+			int num;
+			try {
+				num = Integer.parseInt(id.substring(2));
+			} catch (RuntimeException e) {
+				throw new ConstraintViolationException(ConstraintViolationException.Code.INVALID_VALUE, e, new Object[] { id });
+			}
+
+			idSequence.seed(num);
+
+			return id;
+		}
+	}
+
+	/**
+	 * @requires minVal != null /\ maxVal != null
+	 * @effects update the auto-generated value of attribute <tt>attrib</tt>,
+	 *          specified for <tt>derivingValue</tt>, using <tt>minVal, maxVal</tt>
+	 */
+	@DOpt(type = DOpt.Type.AutoAttributeValueSynchroniser)
+	public static void updateAutoGeneratedValue(DAttr attrib, Tuple derivingValue, Object minVal, Object maxVal)
+			throws ConstraintViolationException {
+		if (minVal != null && maxVal != null) {
+			// check the right attribute: the number part of id, whose maximum is the greatest number
+			// in use (the maximum of id itself is a string maximum, e.g. "E99" > "E100")
+			if (attrib.name().equals(T_idNumber)) {
+				idSequence.seed(((Number) maxVal).longValue());
+			}
+		}
+	}
+}
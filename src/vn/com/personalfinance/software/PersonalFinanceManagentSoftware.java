@@ -2,24 +2,34 @@ package vn.com.personalfinance.software;
 
 import domainapp.software.SoftwareFactory;
 import domainapp.softwareimpl.DomSoftware;
+import vn.com.personalfinance.datasource.SchemaExtensions;
+import vn.com.personalfinance.datasource.SchemaMigration;
 import vn.com.personalfinance.services.account.Account;
 import vn.com.personalfinance.services.account.AccountType;
+import vn.com.personalfinance.services.account.BalanceJournal;
 import vn.com.personalfinance.services.account.TotalBalance;
+import vn.com.personalfinance.services.account.report.AccountBalanceAsOfReport;
 import vn.com.personalfinance.services.borrowandlend.model.ActionType;
 import vn.com.personalfinance.services.borrowandlend.model.BorrowAndLend;
 import vn.com.personalfinance.services.borrowandlend.model.Subjects;
 import vn.com.personalfinance.services.borrowandlend.report.BorrowAndLendByActionTypeReport;
 import vn.com.personalfinance.services.expenseandincome.model.Category;
+import vn.com.personalfinance.services.expenseandincome.model.CategoryIndex;
 import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
 import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByCategoryReport;
+import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByDateRangeReport;
+import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeCubeReport;
+import vn.com.personalfinance.services.expenseandincome.report.TopTransactionsReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByDateReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByMonthReport;
 import vn.com.personalfinance.services.expenseandincome.report.ExpenseAndIncomeByYearReport;
+import vn.com.personalfinance.services.expenseandincome.rollup.ExpenseAndIncomeRollup;
 import vn.com.personalfinance.services.savings.AccumulativeSavings;
 import vn.com.personalfinance.services.savings.Savings;
 import vn.com.personalfinance.services.savings.EconomicalSavings;
 import vn.com.personalfinance.services.savingstransaction.SavingsTransaction;
+import vn.com.personalfinance.services.transfer.Transfer;
 
 /**
  * @overview 
@@ -45,12 +55,17 @@ public class PersonalFinanceManagentSoftware {
 	      BorrowAndLend.class,
 	      Subjects.class,
 	      ActionType.class,
+	      Transfer.class,
 	      // report
 	      ExpenseAndIncomeByCategoryReport.class,
 	      ExpenseAndIncomeByDateReport.class,
 	      ExpenseAndIncomeByMonthReport.class,
 	      ExpenseAndIncomeByYearReport.class,
-	      BorrowAndLendByActionTypeReport.class
+	      ExpenseAndIncomeByDateRangeReport.class,
+	      ExpenseAndIncomeCubeReport.class,
+	      TopTransactionsReport.class,
+	      BorrowAndLendByActionTypeReport.class,
+	      AccountBalanceAsOfReport.class
 	  };
 	  
 	  /**
@@ -67,7 +82,30 @@ public class PersonalFinanceManagentSoftware {
 	    
 	    // 3. run it
 	    try {
+	      // add the columns that a data source of an earlier version lacks, before its objects are read
+	      SchemaMigration.migrate();
+	      
 	      sw.run(model);
+	      
+	      // 4. install the indexes etc. that the domain model does not declare
+	      SchemaExtensions.install();
+	      
+	      // 5. bring the account balances up to date with the balance journal, and read the
+	      // expense and income rollups, rebuilding them if the software did not exit cleanly;
+	      // then checkpoint them periodically and when the software exits
+	      BalanceJournal journal = BalanceJournal.getInstance();
+	      boolean unclean = journal.hasPendingChanges();
+	      journal.recover();
+	      ExpenseAndIncomeRollup.getInstance().load(unclean);
+	      CategoryIndex.getInstance().load();
+	      journal.schedule();
+	      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+	        try {
+	          journal.checkpoint();
+	        } catch (Exception e) {
+	          e.printStackTrace();
+	        }
+	      }));
 	    } catch (Exception e) {
 	      // TODO Auto-generated catch block
 	      e.printStackTrace();
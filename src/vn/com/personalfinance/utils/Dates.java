@@ -0,0 +1,65 @@
+package vn.com.personalfinance.utils;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+
+/**
+ * @overview
+ * 	Helpers for calendar dates held as a <tt>long</tt> epoch day (the number of days since
+ *  1970-01-01 in the default time zone), so that they can be compared, indexed and
+ *  range-queried as primitives.
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public final class Dates {
+	private Dates() {
+		// no instances
+	}
+
+	/**
+	 * @requires date != null
+	 * @effects return the epoch day of <tt>date</tt>
+	 */
+	public static long epochDay(Date date) {
+		return localDate(date).toEpochDay();
+	}
+
+	/**
+	 * @requires date != null
+	 * @effects return the year of <tt>date</tt>, e.g. 2024
+	 */
+	public static int yearKey(Date date) {
+		return localDate(date).getYear();
+	}
+
+	/**
+	 * @requires date != null
+	 * @effects return the year * 100 + month of <tt>date</tt>, e.g. 202405
+	 */
+	public static int monthKey(Date date) {
+		LocalDate d = localDate(date);
+		return d.getYear() * 100 + d.getMonthValue();
+	}
+
+	/**
+	 * @effects return the epoch day of today
+	 */
+	public static long today() {
+		return LocalDate.now().toEpochDay();
+	}
+
+	/**
+	 * @effects return the start of the epoch day <tt>epochDay</tt> as a {@link Date}
+	 */
+	public static Date toDate(long epochDay) {
+		return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	private static LocalDate localDate(Date date) {
+		// java.sql.Date does not support toInstant()
+		return Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+	}
+}
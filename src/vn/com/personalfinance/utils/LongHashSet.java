@@ -0,0 +1,167 @@
+package vn.com.personalfinance.utils;
+
+import java.util.Arrays;
+
+/**
+ * @overview 
+ * 	A hash set of primitive <tt>long</tt> keys that uses open addressing with linear probing.
+ * 	It does not box its keys, so <tt>add</tt>, <tt>remove</tt> and <tt>contains</tt> 
+ *  run in expected constant time without allocating.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public class LongHashSet {
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final long FREE = 0L;
+	
+	private long[] keys;
+	private int mask;
+	private int size;
+	// key 0 is used to mark a free slot, so it is tracked separately
+	private boolean hasFreeKey;
+	
+	public LongHashSet() {
+		this(DEFAULT_CAPACITY);
+	}
+	
+	public LongHashSet(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * 3 / 4 < expectedSize) {
+			capacity <<= 1;
+		}
+		keys = new long[capacity];
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * @effects 
+	 *  if key is not in this
+	 *    add key to this, return true
+	 *  else
+	 *    return false
+	 */
+	public boolean add(long key) {
+		if (key == FREE) {
+			if (hasFreeKey)
+				return false;
+			hasFreeKey = true;
+			size++;
+			return true;
+		}
+		
+		int i = indexOf(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key)
+				return false;
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		size++;
+		
+		if (size > (mask + 1) * 3 / 4)
+			rehash(keys.length << 1);
+		return true;
+	}
+	
+	/**
+	 * @effects 
+	 *  if key is in this
+	 *    remove key from this, return true
+	 *  else
+	 *    return false
+	 */
+	public boolean remove(long key) {
+		if (key == FREE) {
+			if (!hasFreeKey)
+				return false;
+			hasFreeKey = false;
+			size--;
+			return true;
+		}
+		
+		int i = indexOf(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key) {
+				shiftKeys(i);
+				size--;
+				return true;
+			}
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+	
+	public boolean contains(long key) {
+		if (key == FREE)
+			return hasFreeKey;
+		
+		int i = indexOf(key);
+		while (keys[i] != FREE) {
+			if (keys[i] == key)
+				return true;
+			i = (i + 1) & mask;
+		}
+		return false;
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		hasFreeKey = false;
+		size = 0;
+	}
+	
+	private int indexOf(long key) {
+		// spread the bits so that sequential ids do not cluster
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+	
+	/**
+	 * @effects close the gap left at slot <tt>pos</tt> by moving back the keys that probed past it
+	 */
+	private void shiftKeys(int pos) {
+		int last;
+		while (true) {
+			last = pos;
+			pos = (pos + 1) & mask;
+			long k;
+			while (true) {
+				k = keys[pos];
+				if (k == FREE) {
+					keys[last] = FREE;
+					return;
+				}
+				int slot = indexOf(k);
+				// move k back only if its home slot is not in the cyclic range (last, pos]
+				if (last <= pos ? (last >= slot || slot > pos) : (last >= slot && slot > pos))
+					break;
+				pos = (pos + 1) & mask;
+			}
+			keys[last] = k;
+		}
+	}
+	
+	private void rehash(int newCapacity) {
+		long[] oldKeys = keys;
+		keys = new long[newCapacity];
+		mask = newCapacity - 1;
+		for (long k : oldKeys) {
+			if (k != FREE) {
+				int i = indexOf(k);
+				while (keys[i] != FREE) {
+					i = (i + 1) & mask;
+				}
+				keys[i] = k;
+			}
+		}
+	}
+}
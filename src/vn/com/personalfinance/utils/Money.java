@@ -0,0 +1,64 @@
+package vn.com.personalfinance.utils;
+
+/**
+ * @overview 
+ * 	Helpers for fixed-point money amounts held as a <tt>long</tt> number of minor units (cents).
+ * 	Domain attributes are still shown and stored as <tt>double</tt> major units; 
+ *  they are converted once with {@link #toMinor(double)} and all arithmetic is then 
+ *  done exactly on primitive longs, without allocating.
+ * 
+ * @author Group 2
+ * @version 1.0
+ */
+public final class Money {
+	/** the number of minor units in one major unit */
+	public static final int SCALE = 100;
+	
+	private Money() {
+		// no instances
+	}
+	
+	/**
+	 * @effects return <tt>major</tt> rounded to the nearest minor unit
+	 */
+	public static long toMinor(double major) {
+		return Math.round(major * SCALE);
+	}
+	
+	/**
+	 * @effects return <tt>major</tt> rounded to the nearest minor unit, or 0 if it is null
+	 */
+	public static long toMinor(Double major) {
+		return (major != null) ? toMinor(major.doubleValue()) : 0L;
+	}
+	
+	/**
+	 * @effects return the major-unit value of <tt>minor</tt>
+	 */
+	public static double toMajor(long minor) {
+		return minor / (double) SCALE;
+	}
+	
+	/**
+	 * @effects return <tt>a + b</tt>;
+	 *  throws ArithmeticException if the result overflows
+	 */
+	public static long add(long a, long b) {
+		return Math.addExact(a, b);
+	}
+	
+	/**
+	 * @effects return <tt>a - b</tt>;
+	 *  throws ArithmeticException if the result overflows
+	 */
+	public static long subtract(long a, long b) {
+		return Math.subtractExact(a, b);
+	}
+	
+	/**
+	 * @effects return <tt>minor * factor</tt> rounded to the nearest minor unit
+	 */
+	public static long scale(long minor, double factor) {
+		return Math.round(minor * factor);
+	}
+}
@@ -0,0 +1,179 @@
+package vn.com.personalfinance.services.account;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import vn.com.personalfinance.services.expenseandincome.model.Category;
+import vn.com.personalfinance.services.expenseandincome.model.DailyExpense;
+import vn.com.personalfinance.services.expenseandincome.model.DailyIncome;
+import vn.com.personalfinance.services.ledger.Ledger;
+import vn.com.personalfinance.services.transfer.Transfer;
+import vn.com.personalfinance.utils.Money;
+
+/**
+ * @overview
+ * 	A stress test of {@link AccountPostingService}: several threads post transfers, daily expenses
+ *  and daily incomes on a small set of accounts at the same time. When they have finished,
+ *  the balance of every account must equal its opening balance plus the net of what was posted
+ *  to it, and {@link TotalBalance} and the ledger must agree with the accounts.
+ *
+ *  <p>The test runs in memory: the balance journal is written to a temporary directory and the
+ *  data source is an in-memory database. It exits with status 1 if a check fails.
+ *
+ *  <p>Usage: <tt>AccountPostingStressTest [threads [postings per thread]]</tt>
+ *
+ * @author Group 2
+ * @version 1.0
+ */
+public class AccountPostingStressTest {
+	private static final int ACCOUNTS = 8;
+	private static final double OPENING_BALANCE = 1000.0;
+
+	private final int threads;
+	private final int postings;
+
+	private final TotalBalance totalBalance;
+	private final Account[] accounts;
+	private final Category category;
+
+	// the expected balance of each account, in minor units
+	private final AtomicLongArray expected;
+
+	private int failures;
+
+	public AccountPostingStressTest(int threads, int postings) {
+		this.threads = threads;
+		this.postings = postings;
+
+		totalBalance = new TotalBalance();
+		accounts = new Account[ACCOUNTS];
+		expected = new AtomicLongArray(ACCOUNTS);
+		for (int i = 0; i < ACCOUNTS; i++) {
+			accounts[i] = new Account("Stress " + i, OPENING_BALANCE, totalBalance);
+			totalBalance.addNewAccount(accounts[i]);
+			expected.set(i, accounts[i].getBalanceMinor());
+		}
+		category = new Category("Stress");
+	}
+
+	/**
+	 * @effects
+	 *  run the postings of all threads concurrently and wait for them to finish;
+	 *  rethrow the first error raised by a posting
+	 */
+	public void run() throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<?>> results = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			final long seed = t;
+			results.add(pool.submit(() -> {
+				start.await();
+				post(new Random(seed));
+				return null;
+			}));
+		}
+		start.countDown();
+
+		pool.shutdown();
+		for (Future<?> f : results)
+			f.get();
+		pool.awaitTermination(1, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * @effects
+	 *  make {@link #postings} random postings, recording their expected effect
+	 *  on the accounts in {@link #expected}
+	 */
+	private void post(Random random) throws Exception {
+		AccountPostingService service = AccountPostingService.getInstance();
+		Date date = new Date();
+		for (int n = 0; n < postings; n++) {
+			int i = random.nextInt(ACCOUNTS);
+			double amount = (1 + random.nextInt(10000)) / 100.0;
+			long amountMinor = Money.toMinor(amount);
+			switch (random.nextInt(3)) {
+			case 0:
+				int j = (i + 1 + random.nextInt(ACCOUNTS - 1)) % ACCOUNTS;
+				service.postTransfer(new Transfer(accounts[i], accounts[j], amount, date));
+				expected.addAndGet(i, -amountMinor);
+				expected.addAndGet(j, amountMinor);
+				break;
+			case 1:
+				service.postDailyExpense(new DailyExpense(amount, date, category, accounts[i], null));
+				expected.addAndGet(i, -amountMinor);
+				break;
+			default:
+				service.postDailyIncome(new DailyIncome(amount, date, category, accounts[i], null));
+				expected.addAndGet(i, amountMinor);
+			}
+		}
+	}
+
+	/**
+	 * @effects
+	 *  check that the balances of the accounts, the total balance and the ledger
+	 *  are what the postings made them; return true if they are
+	 */
+	public boolean verify() {
+		Ledger ledger = Ledger.getInstance();
+		long sum = 0;
+		for (int i = 0; i < ACCOUNTS; i++) {
+			Account a = accounts[i];
+			sum += a.getBalanceMinor();
+			check(a.getId() + " balance", expected.get(i), a.getBalanceMinor());
+			check(a.getId() + " ledger balance", a.getBalanceMinor(),
+					ledger.getBalance(Ledger.BOOK_ACCOUNT, a.getId()));
+		}
+		check("total balance", sum, totalBalance.getTotalBalanceMinor());
+
+		totalBalance.recomputeTotalBalance();
+		check("recomputed total balance", sum, totalBalance.getTotalBalanceMinor());
+
+		return failures == 0;
+	}
+
+	private void check(String what, long expected, long actual) {
+		if (expected != actual) {
+			System.err.println("FAIL " + what + ": expected " + expected + " but was " + actual);
+			failures++;
+		}
+	}
+
+	/**
+	 * @effects
+	 *  run the stress test with the number of threads and postings per thread
+	 *  in <tt>args</tt>; exit with status 1 if it fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int postings = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+
+		// keep the test away from the data of the software
+		File dir = Files.createTempDirectory("personalfinance-stress").toFile();
+		System.setProperty("personalfinance.journal.dir", dir.getPath());
+		System.setProperty("personalfinance.datasource.url", "jdbc:derby:memory:stress;create=true");
+		System.setProperty("derby.stream.error.file", new File(dir, "derby.log").getPath());
+
+		AccountPostingStressTest test = new AccountPostingStressTest(threads, postings);
+		long start = System.nanoTime();
+		test.run();
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		boolean passed = test.verify();
+		System.out.println((passed ? "PASS " : "FAIL ") + threads + " threads x " + postings
+				+ " postings in " + millis + " ms");
+		System.exit(passed ? 0 : 1);
+	}
+}